@@ -0,0 +1,131 @@
+package com.onkiup.linker.parser.processor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+
+/**
+ * Discovers concrete implementations of grammar junctions (rule interfaces and abstract rule classes) at compile time
+ * and writes them into {@link #INDEX} resource, which is then used by the parser instead of scanning classpath.
+ * Each line of the index contains binary name of a junction followed by a space and binary name of its implementation
+ */
+@SupportedAnnotationTypes("*")
+public class JunctionIndexProcessor extends AbstractProcessor {
+  public static final String INDEX = "META-INF/linker-parser/junctions.index";
+  private static final String RULE = "com.onkiup.linker.parser.Rule";
+
+  private final Map<String, Set<String>> index = new TreeMap<>();
+
+  @Override
+  public SourceVersion getSupportedSourceVersion() {
+    return SourceVersion.latestSupported();
+  }
+
+  @Override
+  public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+    if (roundEnv.processingOver()) {
+      write();
+      return false;
+    }
+
+    TypeElement rule = processingEnv.getElementUtils().getTypeElement(RULE);
+    if (rule == null) {
+      // nothing to index: grammar API is not on the classpath
+      return false;
+    }
+
+    TypeMirror ruleType = processingEnv.getTypeUtils().erasure(rule.asType());
+    for (Element element : roundEnv.getRootElements()) {
+      scan(element, ruleType);
+    }
+    return false;
+  }
+
+  /**
+   * Recursively searches given element and its nested types for concrete rules
+   * @param element element to scan
+   * @param ruleType erased Rule type
+   */
+  private void scan(Element element, TypeMirror ruleType) {
+    if (!(element instanceof TypeElement)) {
+      return;
+    }
+
+    TypeElement type = (TypeElement) element;
+    boolean concrete = (type.getKind() == ElementKind.CLASS || type.getKind() == ElementKind.ENUM)
+        && !type.getModifiers().contains(Modifier.ABSTRACT);
+    if (concrete && processingEnv.getTypeUtils().isAssignable(processingEnv.getTypeUtils().erasure(type.asType()), ruleType)) {
+      String implementation = binaryName(type);
+      collect(implementation, type.asType(), ruleType, new HashSet<>());
+    }
+
+    for (Element enclosed : type.getEnclosedElements()) {
+      scan(enclosed, ruleType);
+    }
+  }
+
+  /**
+   * Registers an implementation under all of its supertypes that are rules themselves
+   * @param implementation binary name of the concrete rule
+   * @param type type which supertypes should be registered
+   * @param ruleType erased Rule type
+   * @param seen names of already processed supertypes
+   */
+  private void collect(String implementation, TypeMirror type, TypeMirror ruleType, Set<String> seen) {
+    Types types = processingEnv.getTypeUtils();
+    for (TypeMirror supertype : types.directSupertypes(type)) {
+      Element element = types.asElement(supertype);
+      if (!(element instanceof TypeElement) || !types.isAssignable(types.erasure(supertype), ruleType)) {
+        continue;
+      }
+      String junction = binaryName((TypeElement) element);
+      if (!seen.add(junction) || RULE.equals(junction)) {
+        continue;
+      }
+      index.computeIfAbsent(junction, name -> new TreeSet<>()).add(implementation);
+      collect(implementation, supertype, ruleType, seen);
+    }
+  }
+
+  private String binaryName(TypeElement type) {
+    Elements elements = processingEnv.getElementUtils();
+    return elements.getBinaryName(type).toString();
+  }
+
+  private void write() {
+    if (index.isEmpty()) {
+      return;
+    }
+    try {
+      FileObject resource = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "", INDEX);
+      try (Writer writer = resource.openWriter()) {
+        for (Map.Entry<String, Set<String>> junction : index.entrySet()) {
+          for (String implementation : junction.getValue()) {
+            writer.append(junction.getKey()).append(' ').append(implementation).append('\n');
+          }
+        }
+      }
+    } catch (IOException e) {
+      processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Failed to write " + INDEX + ": " + e);
+    }
+  }
+}
@@ -0,0 +1,56 @@
+package com.onkiup.linker.parser.processor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.tools.JavaCompiler;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import org.junit.Test;
+
+public class JunctionIndexProcessorTest {
+
+  @Test
+  public void indexesConcreteRules() throws Exception {
+    Path root = Files.createTempDirectory("junction-index");
+    Path sources = Files.createDirectories(root.resolve("src"));
+    Path output = Files.createDirectories(root.resolve("out"));
+
+    Path rule = Files.createDirectories(sources.resolve("com/onkiup/linker/parser")).resolve("Rule.java");
+    Files.write(rule, "package com.onkiup.linker.parser; public interface Rule { }".getBytes(StandardCharsets.UTF_8));
+    Path grammar = Files.createDirectories(sources.resolve("test")).resolve("Grammar.java");
+    Files.write(grammar, ("package test; import com.onkiup.linker.parser.Rule;\n" +
+        "public interface Grammar {\n" +
+        "  interface Expression extends Rule { }\n" +
+        "  abstract class Binary implements Expression { }\n" +
+        "  class Sum extends Binary { }\n" +
+        "  class Number implements Expression { }\n" +
+        "  class NotARule { }\n" +
+        "}").getBytes(StandardCharsets.UTF_8));
+
+    JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+    try (StandardJavaFileManager files = compiler.getStandardFileManager(null, null, StandardCharsets.UTF_8)) {
+      List<String> options = Arrays.asList("-proc:only", "-d", output.toString());
+      JavaCompiler.CompilationTask task = compiler.getTask(null, files, null, options, null,
+          files.getJavaFileObjects(rule.toFile(), grammar.toFile()));
+      task.setProcessors(Arrays.asList(new JunctionIndexProcessor()));
+      assertTrue(task.call());
+    }
+
+    File index = output.resolve(JunctionIndexProcessor.INDEX).toFile();
+    List<String> lines = Files.readAllLines(index.toPath(), StandardCharsets.UTF_8);
+    assertEquals(Arrays.asList(
+        "test.Grammar$Binary test.Grammar$Sum",
+        "test.Grammar$Expression test.Grammar$Number",
+        "test.Grammar$Expression test.Grammar$Sum"
+    ), lines);
+  }
+}
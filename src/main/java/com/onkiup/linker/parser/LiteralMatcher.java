@@ -0,0 +1,215 @@
+package com.onkiup.linker.parser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Matches any of a set of literals in a single pass over parser input, preferring the longest matching literal
+ * (and, among equal literals, the one that was added first).
+ * Literals are compiled into immutable tries, so instances can be shared between tokens and threads. Case-insensitive
+ * literals are folded to lower case when the trie is built and are kept in a separate trie, so that case-sensitive
+ * literals are compared to input characters without any case conversion
+ */
+public class LiteralMatcher implements ResumableMatcher {
+  private final Trie[] tries;
+  private final int size;
+
+  /**
+   * @param literals literals to match
+   * @param ignoreCase for each literal, whether it should be matched ignoring character case
+   */
+  public LiteralMatcher(String[] literals, boolean[] ignoreCase) {
+    if (literals.length != ignoreCase.length) {
+      throw new IllegalArgumentException("Literals and case flags should have the same length");
+    }
+    Builder exact = new Builder(false);
+    Builder folded = new Builder(true);
+    for (int i = 0; i < literals.length; i++) {
+      if (literals[i].isEmpty()) {
+        throw new IllegalArgumentException("Cannot match empty literal #" + i);
+      }
+      (ignoreCase[i] ? folded : exact).add(literals[i], i);
+    }
+    this.tries = Arrays.stream(new Trie[] {exact.build(), folded.build()})
+        .filter(trie -> trie != null)
+        .toArray(Trie[]::new);
+    this.size = literals.length;
+  }
+
+  /**
+   * @return number of literals
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * @param text text to look up
+   * @return index of the literal that matches the whole text or -1
+   */
+  public int indexOf(CharSequence text) {
+    int result = -1;
+    for (Trie trie : tries) {
+      int node = trie.walk(text);
+      if (node > -1 && trie.values[node] > -1 && (result < 0 || trie.values[node] < result)) {
+        result = trie.values[node];
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public TokenTestResult apply(CharSequence buffer) {
+    return walk(buffer, 0, newWalk());
+  }
+
+  @Override
+  public TokenTestResult resume(CharSequence input, MatchState state) {
+    int[] walk = (int[]) state.data();
+    if (walk == null) {
+      walk = newWalk();
+      state.data(walk);
+    }
+    TokenTestResult result = walk(input, state.scanned(), walk);
+    state.scanned(input.length());
+    return result;
+  }
+
+  /**
+   * @return walk state: current node for each trie followed by the length and the index of the best match so far
+   */
+  private int[] newWalk() {
+    int[] walk = new int[tries.length + 2];
+    walk[tries.length] = -1;
+    walk[tries.length + 1] = -1;
+    return walk;
+  }
+
+  private TokenTestResult walk(CharSequence buffer, int from, int[] walk) {
+    int length = buffer.length();
+    int matched = walk[tries.length], value = walk[tries.length + 1];
+    boolean alive = false;
+    for (int t = 0; t < tries.length; t++) {
+      Trie trie = tries[t];
+      int node = walk[t];
+      for (int i = from; i < length && node > -1; i++) {
+        node = trie.next(node, buffer.charAt(i));
+        if (node > -1 && trie.values[node] > -1 &&
+            (i + 1 > matched || (i + 1 == matched && trie.values[node] < value))) {
+          matched = i + 1;
+          value = trie.values[node];
+        }
+      }
+      walk[t] = node;
+      alive |= node > -1 && trie.keys[node].length > 0;
+    }
+    walk[tries.length] = matched;
+    walk[tries.length + 1] = value;
+
+    if (matched == length) {
+      String token = buffer.toString();
+      return alive ? TestResult.matchContinue(length, token) : TestResult.match(length, token);
+    } else if (alive) {
+      return TestResult.continueNoMatch();
+    } else if (matched > 0) {
+      return TestResult.match(matched, buffer.subSequence(0, matched).toString());
+    }
+    return TestResult.fail();
+  }
+
+  @Override
+  public String toString() {
+    return "LiteralMatcher[" + size + " literals]";
+  }
+
+  /**
+   * Immutable trie: node transitions are stored as sorted character arrays with parallel child arrays
+   */
+  private static final class Trie {
+    private final char[][] keys;
+    private final int[][] children;
+    private final int[] values;
+    private final boolean folded;
+
+    private Trie(char[][] keys, int[][] children, int[] values, boolean folded) {
+      this.keys = keys;
+      this.children = children;
+      this.values = values;
+      this.folded = folded;
+    }
+
+    private int next(int node, char character) {
+      if (folded) {
+        character = Character.toLowerCase(character);
+      }
+      int index = Arrays.binarySearch(keys[node], character);
+      return index < 0 ? -1 : children[node][index];
+    }
+
+    private int walk(CharSequence text) {
+      int node = 0;
+      for (int i = 0; i < text.length() && node > -1; i++) {
+        node = next(node, text.charAt(i));
+      }
+      return node;
+    }
+  }
+
+  private static final class Builder {
+    private final List<TreeMap<Character, Integer>> transitions = new ArrayList<>();
+    private final List<Integer> values = new ArrayList<>();
+    private final boolean folded;
+
+    private Builder(boolean folded) {
+      this.folded = folded;
+      addNode();
+    }
+
+    private int addNode() {
+      transitions.add(new TreeMap<>());
+      values.add(-1);
+      return transitions.size() - 1;
+    }
+
+    private void add(String literal, int value) {
+      int node = 0;
+      for (int i = 0; i < literal.length(); i++) {
+        char character = folded ? Character.toLowerCase(literal.charAt(i)) : literal.charAt(i);
+        Integer child = transitions.get(node).get(character);
+        if (child == null) {
+          child = addNode();
+          transitions.get(node).put(character, child);
+        }
+        node = child;
+      }
+      if (values.get(node) < 0) {
+        values.set(node, value);
+      }
+    }
+
+    private Trie build() {
+      if (transitions.size() == 1) {
+        return null;
+      }
+      int count = transitions.size();
+      char[][] keys = new char[count][];
+      int[][] children = new int[count][];
+      int[] nodeValues = new int[count];
+      for (int node = 0; node < count; node++) {
+        TreeMap<Character, Integer> nodeTransitions = transitions.get(node);
+        keys[node] = new char[nodeTransitions.size()];
+        children[node] = new int[nodeTransitions.size()];
+        int i = 0;
+        for (Map.Entry<Character, Integer> transition : nodeTransitions.entrySet()) {
+          keys[node][i] = transition.getKey();
+          children[node][i++] = transition.getValue();
+        }
+        nodeValues[node] = values.get(node);
+      }
+      return new Trie(keys, children, nodeValues, folded);
+    }
+  }
+}
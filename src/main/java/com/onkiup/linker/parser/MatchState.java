@@ -0,0 +1,108 @@
+package com.onkiup.linker.parser;
+
+import com.onkiup.linker.parser.util.BufferRegion;
+
+/**
+ * Matching progress of a single consuming token, saved between invocations of a {@link ResumableMatcher}.
+ * The state is kept only while the token input is a growing region of the same parser buffer; any other input resets
+ * it, so resumable matchers can always rely on the previous input being a prefix of the current one
+ */
+public final class MatchState {
+  private CharSequence source;
+  private int start = -1, length;
+  private int scanned, found = -1, foundEnd = -1;
+  private Object data;
+
+  /**
+   * Tests input with given matcher, resuming from the saved state when the matcher supports it
+   * @param matcher matcher to test the input with
+   * @param input token input
+   * @return test result
+   */
+  public TokenTestResult test(TokenMatcher matcher, CharSequence input) {
+    if (!(matcher instanceof ResumableMatcher)) {
+      return matcher.apply(input);
+    }
+    if (!continues(input)) {
+      reset();
+      if (input instanceof BufferRegion) {
+        source = ((BufferRegion) input).source();
+        start = ((BufferRegion) input).start();
+      }
+    }
+    length = input.length();
+    return ((ResumableMatcher) matcher).resume(input, this);
+  }
+
+  private boolean continues(CharSequence input) {
+    if (!(input instanceof BufferRegion) || start < 0) {
+      return false;
+    }
+    BufferRegion region = (BufferRegion) input;
+    return region.source() == source && region.start() == start && region.length() >= length;
+  }
+
+  /**
+   * Forgets all saved progress
+   */
+  public void reset() {
+    source = null;
+    start = -1;
+    length = 0;
+    scanned = 0;
+    found = -1;
+    foundEnd = -1;
+    data = null;
+  }
+
+  /**
+   * @return number of input characters the matcher has already examined
+   */
+  public int scanned() {
+    return scanned;
+  }
+
+  /**
+   * @param scanned number of input characters the matcher has already examined
+   */
+  public void scanned(int scanned) {
+    this.scanned = scanned;
+  }
+
+  /**
+   * @return input position at which the matcher found something (such as a terminator) or -1
+   */
+  public int found() {
+    return found;
+  }
+
+  /**
+   * @return input position at which the thing the matcher found ends or -1
+   */
+  public int foundEnd() {
+    return foundEnd;
+  }
+
+  /**
+   * @param start input position at which the matcher found something or -1
+   * @param end input position at which the found thing ends or -1
+   */
+  public void found(int start, int end) {
+    this.found = start;
+    this.foundEnd = end;
+  }
+
+  /**
+   * @return matcher-specific state
+   */
+  public Object data() {
+    return data;
+  }
+
+  /**
+   * @param data matcher-specific state
+   */
+  public void data(Object data) {
+    this.data = data;
+  }
+}
@@ -6,6 +6,7 @@ import java.lang.reflect.Modifier;
 import com.onkiup.linker.parser.annotation.CapturePattern;
 import com.onkiup.linker.parser.annotation.ContextAware;
 import com.onkiup.linker.parser.annotation.MatchTerminal;
+import com.onkiup.linker.parser.grammar.FieldModel;
 import com.onkiup.linker.parser.token.CompoundToken;
 import com.onkiup.linker.parser.util.Utils;
 import com.onkiup.linker.util.LoggerLayout;
@@ -25,6 +26,14 @@ public final class MatcherFactory {
     return forField(parent, field, type);
   }
 
+  /**
+   * Returns a matcher for given String field, reusing the matcher shared through the field's {@link FieldModel}
+   * unless the field is context-aware
+   * @param parent token that owns the field
+   * @param field field to create a matcher for
+   * @param type the type of the token
+   * @return matcher for the field
+   */
   public static TokenMatcher forField(CompoundToken<?> parent, Field field, Class type) {
     if (type.isArray()) {
       throw new IllegalArgumentException("Array fields should be handled as ArrayTokens");
@@ -34,6 +43,19 @@ public final class MatcherFactory {
       throw new IllegalArgumentException("Unsupported field type: " + type);
     }
 
+    FieldModel model = FieldModel.forField(field);
+    if (model.isContextAware()) {
+      return forContext(parent, model);
+    }
+    return model.matcher();
+  }
+
+  /**
+   * Creates a matcher for a field that does not depend on parser context
+   * @param field field to create a matcher for
+   * @return created matcher or null if the field is context-aware
+   */
+  public static TokenMatcher forField(Field field) {
     boolean ignoreCase = Utils.ignoreCase(field);
     try {
       field.setAccessible(true);
@@ -51,29 +73,36 @@ public final class MatcherFactory {
         MatchTerminal terminal = field.getAnnotation(MatchTerminal.class);
         return new TerminalMatcher(terminal.value(), ignoreCase);
       } else if (field.isAnnotationPresent(ContextAware.class)) {
-        ContextAware contextAware = field.getAnnotation(ContextAware.class);
-        if (contextAware.matchField().length() > 0) {
-          Object token = parent.token().orElseThrow(() -> new IllegalStateException("Parent token is null"));
-          Field dependency = field.getDeclaringClass().getDeclaredField(contextAware.matchField());
-          dependency.setAccessible(true);
-          Object fieldValue = dependency.get(token);
-          if (fieldValue instanceof String) {
-            parent.log("Creating context-aware matcher for field $" + field.getName() + " to be equal to '"
-                + LoggerLayout.sanitize(fieldValue) + "' value of target field $" + dependency.getName());
-            return new TerminalMatcher((String) fieldValue, Utils.ignoreCase(field));
-          } else if (fieldValue == null) {
-            parent.log("Creating context-aware null matcher for field $" + field.getName()
-                + " to be equal to null value of target field $" + dependency.getName());
-            return new NullMatcher();
-          } else {
-            throw new IllegalArgumentException("Unable to create field matcher for target field value of type '"
-                + fieldValue.getClass().getName() + "'");
-          }
+        return null;
+      } else {
+        throw new IllegalArgumentException("Non-static String fields MUST have CapturePattern annotation");
+      }
+    } catch (Exception e) {
+      throw new IllegalArgumentException("Failed to create matcher for field " + field, e);
+    }
+  }
+
+  private static TokenMatcher forContext(CompoundToken<?> parent, FieldModel model) {
+    Field field = model.field();
+    try {
+      ContextAware contextAware = field.getAnnotation(ContextAware.class);
+      if (contextAware.matchField().length() > 0) {
+        Object token = parent.token().orElseThrow(() -> new IllegalStateException("Parent token is null"));
+        Object fieldValue = model.dependency().get(token);
+        if (fieldValue instanceof String) {
+          parent.log("Creating context-aware matcher for field $" + field.getName() + " to be equal to '"
+              + LoggerLayout.sanitize(fieldValue) + "' value of target field $" + contextAware.matchField());
+          return new TerminalMatcher((String) fieldValue, model.ignoreCase());
+        } else if (fieldValue == null) {
+          parent.log("Creating context-aware null matcher for field $" + field.getName()
+              + " to be equal to null value of target field $" + contextAware.matchField());
+          return new NullMatcher();
         } else {
-          throw new IllegalArgumentException("Misconfigured ContextAware annotation?");
+          throw new IllegalArgumentException("Unable to create field matcher for target field value of type '"
+              + fieldValue.getClass().getName() + "'");
         }
       } else {
-        throw new IllegalArgumentException("Non-static String fields MUST have CapturePattern annotation");
+        throw new IllegalArgumentException("Misconfigured ContextAware annotation?");
       }
     } catch (Exception e) {
       throw new IllegalArgumentException("Failed to create matcher for field " + field, e);
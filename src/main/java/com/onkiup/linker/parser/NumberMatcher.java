@@ -2,10 +2,24 @@ package com.onkiup.linker.parser;
 
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
 
-public class NumberMatcher implements TokenMatcher {
+public class NumberMatcher implements ResumableMatcher {
   private Constructor<? extends Number> pattern;
   private Class<? extends Number> type;
+  /**
+   * Whether inputs of this matcher can be scanned character by character (see {@link #resume})
+   */
+  private boolean scannable;
+  /**
+   * Whether numbers of this matcher's type may have a fractional part
+   */
+  private boolean decimal;
+  /**
+   * Range of integral numbers of this matcher's type; both are 0 for decimal types and unbounded integral types
+   */
+  private long min, max;
 
   public NumberMatcher(Class<? extends Number> type) {
     try {
@@ -14,10 +28,133 @@ public class NumberMatcher implements TokenMatcher {
     } catch (NoSuchMethodException nse) {
       throw new RuntimeException("Failed to create number matcher for type '" + type.getCanonicalName() + "'", nse);
     }
+
+    if (type == Byte.class) {
+      range(Byte.MIN_VALUE, Byte.MAX_VALUE);
+    } else if (type == Short.class) {
+      range(Short.MIN_VALUE, Short.MAX_VALUE);
+    } else if (type == Integer.class) {
+      range(Integer.MIN_VALUE, Integer.MAX_VALUE);
+    } else if (type == Long.class) {
+      range(Long.MIN_VALUE, Long.MAX_VALUE);
+    } else if (type == BigInteger.class) {
+      scannable = true;
+    } else if (type == Float.class || type == Double.class || type == BigDecimal.class) {
+      scannable = true;
+      decimal = true;
+    }
+  }
+
+  private void range(long min, long max) {
+    this.scannable = true;
+    this.min = min;
+    this.max = max;
+  }
+
+  /**
+   * Progress of scanning an input of a number token
+   */
+  private static final class Progress {
+    private int digits;
+    private boolean negative;
+    private boolean point;
+    /**
+     * Negated value of the integral number scanned so far (as long as the number type is bounded)
+     */
+    private long value;
   }
 
   @Override
   public TokenTestResult apply(CharSequence buffer) {
+    return test(buffer, null);
+  }
+
+  /**
+   * Inputs of standard number types are scanned one new character at a time for plain numbers (an optional sign,
+   * decimal digits and, for decimal types, a decimal point): while the input is such a number (within the range of
+   * the type), the input itself is reported as the partial match and nothing is parsed. The first input that is not
+   * (such as an input with an exponent or with the character that ends the token) is tested as a whole, and the rest
+   * of the token is matched that way
+   */
+  @Override
+  public TokenTestResult resume(CharSequence input, MatchState state) {
+    int length = input.length();
+    if (scannable && state.scanned() == 0 && state.data() == null) {
+      state.data(new Progress());
+    }
+    if (state.data() instanceof Progress) {
+      Progress progress = (Progress) state.data();
+      int scanned = state.scanned();
+      while (scanned < length && scan(progress, input.charAt(scanned), scanned == 0)) {
+        scanned++;
+      }
+      if (scanned == length && progress.digits > 0) {
+        state.scanned(scanned);
+        return TestResult.matchContinue(length, input);
+      }
+      state.data(null);
+      state.scanned(0);
+    }
+
+    Number previous = state.scanned() == length - 1 ? (Number) state.data() : null;
+    TokenTestResult result = test(input, previous);
+    if (result.isMatchContinue()) {
+      state.data(result.getToken());
+      state.scanned(length);
+    }
+    return result;
+  }
+
+  /**
+   * Advances scanning progress by one character
+   * @param progress progress to advance
+   * @param character next input character
+   * @param first whether the character is the first one of the input
+   * @return false if the input with the character is not a plain number of this matcher's type (the progress is left
+   * unchanged then)
+   */
+  private boolean scan(Progress progress, char character, boolean first) {
+    if (character >= '0' && character <= '9') {
+      if (max != 0) {
+        int digit = character - '0';
+        long limit = progress.negative ? min : -max;
+        if (progress.value < limit / 10 || progress.value * 10 < limit + digit) {
+          return false;
+        }
+        progress.value = progress.value * 10 - digit;
+      }
+      progress.digits++;
+      return true;
+    } else if (first && (character == '-' || character == '+')) {
+      progress.negative = character == '-';
+      return true;
+    } else if (decimal && character == '.' && !progress.point) {
+      progress.point = true;
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Converts a partial match reported by {@link #resume} into a number
+   * @param text matched text
+   * @return the number
+   */
+  public Number parse(CharSequence text) {
+    try {
+      return pattern.newInstance(text.toString());
+    } catch (InvocationTargetException e) {
+      throw new RuntimeException("Failed to parse " + type + " from '" + text + "'", e.getCause());
+    } catch (ReflectiveOperationException e) {
+      throw new RuntimeException("Failed to parse " + type + " from '" + text + "'", e);
+    }
+  }
+
+  /**
+   * @param buffer input to test
+   * @param previous value of the input without its last character or null if unknown
+   */
+  private TokenTestResult test(CharSequence buffer, Number previous) {
     try {
       if (buffer.length() > 0 && buffer.charAt(buffer.length() - 1) == ' ') {
         // a fix for Number constructors that eat trailing characters
@@ -36,7 +173,8 @@ public class NumberMatcher implements TokenMatcher {
       if (buffer.length() > 1) { 
         // rolling back one character (under the assumption that buffer accumulation performed on a char-by-char basis)
         try {
-          Number token = pattern.newInstance(buffer.subSequence(0, buffer.length() - 1));
+          Number token = previous != null ? previous :
+              pattern.newInstance(buffer.subSequence(0, buffer.length() - 1).toString());
           return TestResult.match(buffer.length() - 1, token);
         } catch (InvocationTargetException nfe2) {
           if (nfe2.getCause() instanceof NumberFormatException) {
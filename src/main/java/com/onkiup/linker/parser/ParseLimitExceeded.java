@@ -0,0 +1,29 @@
+package com.onkiup.linker.parser;
+
+/**
+ * Thrown when a parse exceeds its {@link ParseLimits}
+ */
+public class ParseLimitExceeded extends RuntimeException {
+  private final long steps;
+  private final long elapsedNanos;
+
+  public ParseLimitExceeded(String message, long steps, long elapsedNanos) {
+    super(message);
+    this.steps = steps;
+    this.elapsedNanos = elapsedNanos;
+  }
+
+  /**
+   * @return the number of steps the parser made before it was aborted
+   */
+  public long steps() {
+    return steps;
+  }
+
+  /**
+   * @return time spent in the parse before it was aborted, in nanoseconds
+   */
+  public long elapsedNanos() {
+    return elapsedNanos;
+  }
+}
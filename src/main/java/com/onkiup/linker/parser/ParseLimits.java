@@ -0,0 +1,148 @@
+package com.onkiup.linker.parser;
+
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * Immutable limits for a single parse: a deadline and/or a maximal number of parser steps (consumptions,
+ * tracebacks and rotations). A parse that exceeds its limits is aborted with {@link ParseLimitExceeded}
+ */
+public final class ParseLimits {
+  /**
+   * No limits
+   */
+  public static final ParseLimits NONE = new ParseLimits(0, null, 0);
+  /**
+   * Longest duration that fits into a nanosecond counter; longer timeouts and deadlines are saturated to it
+   */
+  private static final Duration MAX_NANOS = Duration.ofNanos(Long.MAX_VALUE);
+
+  private final long timeoutNanos;
+  private final Instant deadline;
+  private final long maxSteps;
+
+  private ParseLimits(long timeoutNanos, Instant deadline, long maxSteps) {
+    this.timeoutNanos = timeoutNanos;
+    this.deadline = deadline;
+    this.maxSteps = maxSteps;
+  }
+
+  /**
+   * @param timeout maximal duration of a parse
+   * @return limits that abort parses running longer than given timeout
+   */
+  public static ParseLimits timeout(Duration timeout) {
+    return NONE.withTimeout(timeout);
+  }
+
+  /**
+   * @param deadline the moment after which parses should be aborted
+   * @return limits that abort parses that did not finish before given deadline
+   */
+  public static ParseLimits deadline(Instant deadline) {
+    return NONE.withDeadline(deadline);
+  }
+
+  /**
+   * @param maxSteps maximal number of parser steps
+   * @return limits that abort parses that take more steps than given number
+   */
+  public static ParseLimits steps(long maxSteps) {
+    return NONE.withMaxSteps(maxSteps);
+  }
+
+  /**
+   * @param timeout maximal duration of a parse or null to remove the timeout
+   * @return copy of these limits with given timeout
+   */
+  public ParseLimits withTimeout(Duration timeout) {
+    if (timeout != null && (timeout.isNegative() || timeout.isZero())) {
+      throw new IllegalArgumentException("Timeout should be positive");
+    }
+    return new ParseLimits(timeout == null ? 0 : nanos(timeout), deadline, maxSteps);
+  }
+
+  /**
+   * @param deadline the moment after which parses should be aborted or null to remove the deadline
+   * @return copy of these limits with given deadline
+   */
+  public ParseLimits withDeadline(Instant deadline) {
+    return new ParseLimits(timeoutNanos, deadline, maxSteps);
+  }
+
+  /**
+   * @param maxSteps maximal number of parser steps or 0 to remove the step limit
+   * @return copy of these limits with given step limit
+   */
+  public ParseLimits withMaxSteps(long maxSteps) {
+    if (maxSteps < 0) {
+      throw new IllegalArgumentException("Step limit cannot be negative");
+    }
+    return new ParseLimits(timeoutNanos, deadline, maxSteps);
+  }
+
+  /**
+   * @return maximal parse duration or null
+   */
+  public Duration timeout() {
+    return timeoutNanos == 0 ? null : Duration.ofNanos(timeoutNanos);
+  }
+
+  /**
+   * @return the moment after which parses are aborted or null
+   */
+  public Instant deadline() {
+    return deadline;
+  }
+
+  /**
+   * @return maximal number of parser steps or 0 if steps are not limited
+   */
+  public long maxSteps() {
+    return maxSteps;
+  }
+
+  /**
+   * @return true if these limits restrict parse duration
+   */
+  public boolean isTimed() {
+    return timeoutNanos != 0 || deadline != null;
+  }
+
+  /**
+   * Converts the timeout and the deadline into a {@link System#nanoTime()} value
+   * @param startedNanos {@link System#nanoTime()} at the start of the parse
+   * @return {@link System#nanoTime()} value after which the parse should be aborted (meaningless if these limits are
+   * not timed); distant deadlines are saturated to about 292 years after the start of the parse, so the value should
+   * only be compared with other {@link System#nanoTime()} values by subtraction
+   */
+  long deadlineNanos(long startedNanos) {
+    long result = Long.MAX_VALUE;
+    if (timeoutNanos != 0) {
+      result = startedNanos + timeoutNanos;
+    }
+    if (deadline != null) {
+      long candidate = startedNanos + nanos(Duration.between(Instant.now(), deadline));
+      if (timeoutNanos == 0 || candidate - result < 0) {
+        result = candidate;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @param duration a duration
+   * @return nanoseconds in the duration, saturated to the range from 0 to {@link Long#MAX_VALUE}
+   */
+  private static long nanos(Duration duration) {
+    if (duration.isNegative()) {
+      return 0;
+    }
+    return duration.compareTo(MAX_NANOS) >= 0 ? Long.MAX_VALUE : duration.toNanos();
+  }
+
+  @Override
+  public String toString() {
+    return "ParseLimits[timeout=" + timeout() + ", deadline=" + deadline + ", maxSteps=" + maxSteps + "]";
+  }
+}
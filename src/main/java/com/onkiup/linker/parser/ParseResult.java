@@ -0,0 +1,72 @@
+package com.onkiup.linker.parser;
+
+import java.util.Optional;
+
+/**
+ * Result of parsing one of the sources passed to {@link TokenGrammar#tokenizeAll(java.util.Map, java.util.concurrent.Executor)}:
+ * either a parsed token or the error that was thrown while parsing the source
+ * @param <X> type of the parsed token
+ */
+public final class ParseResult<X> {
+  private final String source;
+  private final X token;
+  private final RuntimeException error;
+
+  private ParseResult(String source, X token, RuntimeException error) {
+    this.source = source;
+    this.token = token;
+    this.error = error;
+  }
+
+  static <X> ParseResult<X> success(String source, X token) {
+    return new ParseResult<>(source, token, null);
+  }
+
+  static <X> ParseResult<X> failure(String source, RuntimeException error) {
+    return new ParseResult<>(source, null, error);
+  }
+
+  /**
+   * @return the name of the parsed source
+   */
+  public String source() {
+    return source;
+  }
+
+  /**
+   * @return true if the source failed to parse
+   */
+  public boolean isFailed() {
+    return error != null;
+  }
+
+  /**
+   * @return parsed token or empty if the source failed to parse
+   */
+  public Optional<X> token() {
+    return Optional.ofNullable(token);
+  }
+
+  /**
+   * @return the error thrown while parsing the source or empty if the source was parsed
+   */
+  public Optional<RuntimeException> error() {
+    return Optional.ofNullable(error);
+  }
+
+  /**
+   * @return parsed token
+   * @throws RuntimeException the error thrown while parsing the source
+   */
+  public X get() {
+    if (error != null) {
+      throw error;
+    }
+    return token;
+  }
+
+  @Override
+  public String toString() {
+    return "ParseResult[" + source + (error == null ? ": " + token : " failed: " + error) + "]";
+  }
+}
@@ -0,0 +1,502 @@
+package com.onkiup.linker.parser;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.onkiup.linker.parser.grammar.GrammarModel;
+import com.onkiup.linker.parser.grammar.GrammarProfile;
+import com.onkiup.linker.parser.grammar.VariantPriorities;
+import com.onkiup.linker.parser.token.AbstractToken;
+import com.onkiup.linker.parser.token.MemoTable;
+import com.onkiup.linker.parser.token.PartialToken;
+import com.onkiup.linker.parser.token.VariantToken;
+import com.onkiup.linker.parser.trace.ParserListener;
+import com.onkiup.linker.parser.util.TagIndex;
+
+/**
+ * Mutable state of a single parse: parser buffer, compatibility tags recorded for buffer positions and packrat memo.
+ * Sessions are created by {@link TokenGrammar#tokenize(String, java.io.Reader)}, shared by all tokens of the parse
+ * and released once the parse is finished. Subsequent parses on the same thread take tag pages and memo tables over
+ * from closed sessions (see {@link #next(CharSequence, boolean, VariantPriorities, GrammarProfile)}), so that they are
+ * not reallocated for every parsed input, while tokens of finished parses keep referencing their own closed sessions
+ */
+public final class ParseSession {
+  /**
+   * System property with the minimal length of parser input for which compatibility tags are stored outside of java heap
+   */
+  public static final String OFF_HEAP_TAGS = "linker.parser.offHeapTags";
+  private static final Logger logger = LoggerFactory.getLogger(ParseSession.class);
+  /**
+   * Number of steps between deadline checks (a power of two)
+   */
+  private static final int DEADLINE_CHECK_INTERVAL = 32;
+
+  private final GrammarModel model;
+  private CharSequence buffer;
+  private MemoTable memo;
+  private MemoTable spareMemo;
+  private VariantPriorities priorities;
+  private GrammarProfile profile;
+  private boolean open = true;
+  private VariantSpeculator speculator;
+  private ParserListener listener;
+  private String rootIgnoredCharacters = "";
+  private boolean pruneVariants = true;
+  private long steps;
+  /**
+   * Step counter shared with nested parses (see {@link VariantSpeculator}) or null if steps are counted in {@link #steps}
+   */
+  private AtomicLong sharedSteps;
+  private long maxSteps;
+  private boolean timed;
+  private long started;
+  private long deadline;
+  /**
+   * true if all concrete rules are memoized, false if memoization was only enabled for some junctions
+   */
+  private boolean fullMemo;
+  private int adaptiveMemoRepeats;
+  private int[] junctionAttempts;
+  private int[] junctionRepeats;
+  private boolean[] memoizedJunctions;
+  /**
+   * Compatibility tags by characters that tagged rules ignore
+   */
+  private final Map<String, Tags> tags = new HashMap<>();
+  private Tags lastTags;
+
+  /**
+   * @param model compiled model of the grammar being parsed or null
+   * @param buffer parser buffer or null
+   * @param memo packrat memo table or null if memoization is disabled
+   * @param priorities dynamic variant priorities of the grammar being parsed
+   * @param profile profile to record junction statistics into or null
+   */
+  public ParseSession(GrammarModel model, CharSequence buffer, MemoTable memo, VariantPriorities priorities,
+      GrammarProfile profile) {
+    this.model = model;
+    this.buffer = buffer;
+    this.memo = memo;
+    this.priorities = priorities;
+    this.profile = profile;
+    this.fullMemo = memo != null;
+    resetIndex();
+  }
+
+  /**
+   * Creates a session for another parse of the same grammar that takes tag pages and memo tables over from this closed
+   * session; this session is never reopened, as tokens of its parse may still reference it
+   * @param buffer parser buffer
+   * @param memoize whether packrat memoization should be enabled
+   * @param priorities dynamic variant priorities of the grammar being parsed
+   * @param profile profile to record junction statistics into or null
+   * @return new open session
+   */
+  public ParseSession next(CharSequence buffer, boolean memoize, VariantPriorities priorities,
+      GrammarProfile profile) {
+    if (open) {
+      throw new IllegalStateException("Session is still in use");
+    }
+    MemoTable spare = memo == null ? spareMemo : memo;
+    ParseSession result = new ParseSession(model, buffer, memoize ? (spare == null ? new MemoTable() : spare) : null,
+        priorities, profile);
+    result.spareMemo = spare;
+    result.tags.putAll(tags);
+    result.resetIndex();
+    result.junctionAttempts = junctionAttempts;
+    result.junctionRepeats = junctionRepeats;
+    result.memoizedJunctions = memoizedJunctions;
+
+    memo = null;
+    spareMemo = null;
+    tags.clear();
+    lastTags = null;
+    junctionAttempts = null;
+    junctionRepeats = null;
+    memoizedJunctions = null;
+    return result;
+  }
+
+  /**
+   * @return true if this session is being used by a parse, false if it was closed
+   */
+  public boolean isOpen() {
+    return open;
+  }
+
+  /**
+   * @return session of the parse that is currently running in this thread or a new detached session
+   * (for tokens that are created outside of the parser loop)
+   */
+  public static ParseSession current() {
+    ParseSession result = ParserContext.get().session();
+    return result == null ? new ParseSession(null, null, null, new VariantPriorities(), null) : result;
+  }
+
+  /**
+   * @param token a token
+   * @return session the token belongs to
+   */
+  public static ParseSession of(PartialToken<?> token) {
+    if (token instanceof AbstractToken) {
+      return ((AbstractToken<?>) token).session();
+    }
+    return current();
+  }
+
+  /**
+   * @return compiled model of the grammar being parsed or null
+   */
+  public GrammarModel model() {
+    return model;
+  }
+
+  /**
+   * @return parser buffer or null
+   */
+  public CharSequence buffer() {
+    return buffer;
+  }
+
+  /**
+   * @return packrat memo table or null if memoization is disabled
+   */
+  public MemoTable memo() {
+    return memo;
+  }
+
+  /**
+   * @param parent parent of a concrete rule token or null for the root token
+   * @return memo table to record and replay results of the token or null if the token should not be memoized
+   */
+  public MemoTable memo(PartialToken<?> parent) {
+    if (memo == null || fullMemo) {
+      return memo;
+    }
+    if (parent instanceof VariantToken) {
+      int id = model.ruleId(parent.tokenType());
+      if (id > -1 && memoizedJunctions[id]) {
+        return memo;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Enables adaptive memoization: junctions that keep re-matching variants already matched at the same position are
+   * switched to memoized mode for the rest of the parse
+   * @param minRepeats minimal number of repeated matches after which a junction is memoized or 0 to disable
+   */
+  void adaptiveMemo(int minRepeats) {
+    this.adaptiveMemoRepeats = model == null ? 0 : minRepeats;
+  }
+
+  /**
+   * Records an attempt to match a concrete junction variant and switches the junction to memoized mode when most of
+   * its attempts repeat previous matches
+   * @param junction junction type
+   * @param repeated true if the variant was already matched at the same position during this parse
+   */
+  public void variantAttempted(Class<?> junction, boolean repeated) {
+    if (adaptiveMemoRepeats == 0 || fullMemo) {
+      return;
+    }
+    int id = model.ruleId(junction);
+    if (id < 0) {
+      return;
+    }
+    if (junctionAttempts == null) {
+      junctionAttempts = new int[model.ruleCount()];
+      junctionRepeats = new int[model.ruleCount()];
+      memoizedJunctions = new boolean[model.ruleCount()];
+    }
+    junctionAttempts[id]++;
+    if (repeated && ++junctionRepeats[id] >= adaptiveMemoRepeats && !memoizedJunctions[id]
+        && junctionRepeats[id] * 4 >= junctionAttempts[id]) {
+      memoizedJunctions[id] = true;
+      if (memo == null) {
+        memo = spareMemo == null ? new MemoTable() : spareMemo;
+      }
+      logger.debug("Memoizing variants of {} after {} repeated matches in {} attempts", junction.getName(),
+          junctionRepeats[id], junctionAttempts[id]);
+    }
+  }
+
+  /**
+   * @return dynamic variant priorities of the grammar being parsed
+   */
+  public VariantPriorities priorities() {
+    return priorities;
+  }
+
+  /**
+   * @return profile to record junction statistics into or null if profiling is disabled
+   */
+  public GrammarProfile profile() {
+    return profile;
+  }
+
+  /**
+   * @return speculator that tests junction variants in parallel or null if speculation is disabled
+   */
+  public VariantSpeculator speculator() {
+    return speculator;
+  }
+
+  /**
+   * Configures parallel testing of junction variants for this session
+   * @param speculator speculator to use or null to disable speculation
+   */
+  void speculator(VariantSpeculator speculator) {
+    this.speculator = speculator;
+  }
+
+  /**
+   * @return listener that receives events of this parse or null
+   */
+  public ParserListener listener() {
+    return listener;
+  }
+
+  /**
+   * Configures the listener that receives events of this parse
+   * @param listener listener or null
+   */
+  void listener(ParserListener listener) {
+    this.listener = listener;
+  }
+
+  /**
+   * @return true if junctions skip variants that cannot start with the next input character
+   */
+  public boolean pruneVariants() {
+    return pruneVariants && model != null;
+  }
+
+  /**
+   * Configures FIRST set pruning of junction variants for this session
+   * @param pruneVariants true to skip variants that cannot start with the next input character
+   */
+  void pruneVariants(boolean pruneVariants) {
+    this.pruneVariants = pruneVariants;
+  }
+
+  /**
+   * @return characters that the root token of this session should treat as ignored by its (virtual) parent
+   */
+  public String rootIgnoredCharacters() {
+    return rootIgnoredCharacters;
+  }
+
+  /**
+   * Configures characters that the root token should treat as ignored by its parent; used by speculative parses
+   * that start in the middle of another parse
+   * @param characters ignored characters
+   */
+  void rootIgnoredCharacters(String characters) {
+    this.rootIgnoredCharacters = characters == null ? "" : characters;
+  }
+
+  /**
+   * Applies limits to this session and resets its step counter
+   * @param limits limits to apply
+   */
+  void limits(ParseLimits limits) {
+    steps = 0;
+    sharedSteps = null;
+    started = System.nanoTime();
+    maxSteps = limits.maxSteps();
+    timed = limits.isTimed();
+    deadline = limits.deadlineNanos(started);
+  }
+
+  /**
+   * Moves the step counter of this session into an atomic counter that can be shared with nested parses; should be
+   * called by the thread running the parse before it starts nested parses
+   */
+  void shareSteps() {
+    if (sharedSteps == null) {
+      sharedSteps = new AtomicLong(steps);
+    }
+  }
+
+  /**
+   * Applies limits of another session to this one, so that steps of a nested parse (see {@link VariantSpeculator})
+   * are counted against the step limit and the deadline of the parse that started it
+   * @param parent session of the parse that started the nested parse (see {@link #shareSteps()})
+   */
+  void limits(ParseSession parent) {
+    if (parent.sharedSteps == null) {
+      throw new IllegalStateException("Parent session does not share its steps");
+    }
+    sharedSteps = parent.sharedSteps;
+    started = parent.started;
+    maxSteps = parent.maxSteps;
+    timed = parent.timed;
+    deadline = parent.deadline;
+  }
+
+  /**
+   * Counts a parser step (a consumption, a traceback or a rotation) against the limits of this session
+   * @throws ParseLimitExceeded if the parse exceeded its step limit or missed its deadline
+   */
+  public void step() {
+    long count = sharedSteps == null ? ++this.steps : sharedSteps.incrementAndGet();
+    if (maxSteps != 0 && count > maxSteps) {
+      throw new ParseLimitExceeded("Parse exceeded its limit of " + maxSteps + " steps", count,
+          System.nanoTime() - started);
+    }
+    if (timed && (count & (DEADLINE_CHECK_INTERVAL - 1)) == 0) {
+      long now = System.nanoTime();
+      if (now - deadline > 0) {
+        throw new ParseLimitExceeded("Parse missed its deadline after " + count + " steps", count, now - started);
+      }
+    }
+  }
+
+  /**
+   * @return the number of parser steps made in this session and in nested parses that share its step counter
+   */
+  public long steps() {
+    return sharedSteps == null ? steps : sharedSteps.get();
+  }
+
+  /**
+   * @param position buffer position
+   * @param type rule type
+   * @param ignoredCharacters characters ignored by tokens of the rule
+   * @return {@link TagIndex#COMPATIBLE} if the rule was matched at the position, {@link TagIndex#INCOMPATIBLE} if it
+   * failed there, or {@link TagIndex#UNKNOWN} if it was never tested
+   */
+  public int tag(int position, Class<?> type, String ignoredCharacters) {
+    Tags tags = tags(ignoredCharacters, false);
+    if (tags == null) {
+      return TagIndex.UNKNOWN;
+    }
+    int id = tags.index == null ? -1 : model.ruleId(type);
+    if (id > -1) {
+      return tags.index.get(position, id);
+    }
+    Map<Class<?>, Boolean> positionTags = tags.other.get(position);
+    Boolean result = positionTags == null ? null : positionTags.get(type);
+    return result == null ? TagIndex.UNKNOWN : result ? TagIndex.COMPATIBLE : TagIndex.INCOMPATIBLE;
+  }
+
+  /**
+   * Tags a position as compatible or incompatible with a rule; incompatibility tags never replace compatibility tags
+   * @param position buffer position
+   * @param type rule type
+   * @param ignoredCharacters characters ignored by tokens of the rule
+   * @param compatible whether the rule matched at the position
+   * @return true if the tag was stored
+   */
+  public boolean tag(int position, Class<?> type, String ignoredCharacters, boolean compatible) {
+    Tags tags = tags(ignoredCharacters, true);
+    int id = tags.index == null ? -1 : model.ruleId(type);
+    if (id > -1) {
+      return tags.index.set(position, id, compatible);
+    }
+    Map<Class<?>, Boolean> positionTags = tags.other.computeIfAbsent(position, p -> new HashMap<>());
+    if (compatible || !positionTags.containsKey(type)) {
+      positionTags.put(type, compatible);
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * @param ignoredCharacters characters ignored by tagged rules
+   * @param create whether missing tags should be created
+   * @return tags of rules that ignore given characters or null
+   */
+  private Tags tags(String ignoredCharacters, boolean create) {
+    String key = ignoredCharacters == null ? "" : ignoredCharacters;
+    Tags result = lastTags;
+    if (result != null && result.ignoredCharacters.equals(key)) {
+      return result;
+    }
+    result = tags.get(key);
+    if (result == null) {
+      if (!create) {
+        return null;
+      }
+      result = new Tags(key);
+      tags.put(key, result);
+      resetIndex(result);
+    }
+    lastTags = result;
+    return result;
+  }
+
+  /**
+   * Releases all state accumulated during the parse
+   */
+  public void close() {
+    for (Tags tags : this.tags.values()) {
+      tags.clear();
+    }
+    if (memo != null) {
+      memo.clear();
+    }
+    buffer = null;
+    profile = null;
+    speculator = null;
+    listener = null;
+    maxSteps = 0;
+    timed = false;
+    adaptiveMemoRepeats = 0;
+    if (junctionAttempts != null) {
+      Arrays.fill(junctionAttempts, 0);
+      Arrays.fill(junctionRepeats, 0);
+      Arrays.fill(memoizedJunctions, false);
+    }
+    open = false;
+  }
+
+  private void resetIndex() {
+    for (Tags tags : this.tags.values()) {
+      resetIndex(tags);
+    }
+  }
+
+  private void resetIndex(Tags tags) {
+    if (model == null || buffer == null) {
+      return;
+    }
+    boolean offHeap = buffer.length() >= Integer.getInteger(OFF_HEAP_TAGS, Integer.MAX_VALUE);
+    if (tags.index == null) {
+      tags.index = new TagIndex(buffer.length() + 1, model.ruleCount(), offHeap);
+    } else {
+      tags.index.reset(buffer.length() + 1, offHeap);
+    }
+  }
+
+  /**
+   * Compatibility tags of rules that ignore the same characters: a rule that fails while ignoring some characters may
+   * match when it ignores others, so such results are never shared
+   */
+  private static final class Tags {
+    private final String ignoredCharacters;
+    private TagIndex index;
+    /**
+     * Tags for rules that have no ids in the grammar model (or when there is no model)
+     */
+    private final Map<Integer, Map<Class<?>, Boolean>> other = new HashMap<>();
+
+    private Tags(String ignoredCharacters) {
+      this.ignoredCharacters = ignoredCharacters;
+    }
+
+    private void clear() {
+      other.clear();
+      if (index != null) {
+        index.release();
+      }
+    }
+  }
+}
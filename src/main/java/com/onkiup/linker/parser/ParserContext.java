@@ -5,19 +5,19 @@ import java.util.Map;
 import java.util.WeakHashMap;
 import java.util.stream.Stream;
 
-import org.reflections.Reflections;
-import org.reflections.scanners.SubTypesScanner;
-import org.reflections.util.ClasspathHelper;
-import org.reflections.util.ConfigurationBuilder;
+import com.onkiup.linker.parser.grammar.JunctionRegistry;
 
 public class ParserContext<X extends Rule> implements LinkerParser<X> {
 
-  private static InheritableThreadLocal<ParserContext> INSTANCE = new InheritableThreadLocal<>();
+  private static InheritableThreadLocal<ParserContext> INSTANCE = new InheritableThreadLocal<ParserContext>() {
+    @Override
+    protected ParserContext childValue(ParserContext parent) {
+      // child threads share configuration of the parent context but never its running parse
+      return parent == null ? null : parent.copy();
+    }
+  };
 
-  private Reflections reflections = new Reflections(new ConfigurationBuilder()
-      .setUrls(ClasspathHelper.forClassLoader(TokenGrammar.class.getClassLoader()))
-      .setScanners(new SubTypesScanner(true))
-  );
+  private ClassLoader classLoader = TokenGrammar.class.getClassLoader();
 
   private Class<? extends Extension<X>> extension;
 
@@ -27,6 +27,13 @@ public class ParserContext<X extends Rule> implements LinkerParser<X> {
 
   private TokenGrammar<X> grammar;
 
+  private ParseSession session;
+
+  /**
+   * Registry of the configured classloader, cached so that token construction does not look it up every time
+   */
+  private JunctionRegistry junctions;
+
   public static ParserContext<?> get() {
     ParserContext instance = INSTANCE.get();
     if (instance == null) {
@@ -37,13 +44,22 @@ public class ParserContext<X extends Rule> implements LinkerParser<X> {
   }
 
   public <X extends Rule> Stream<Class<? extends X>> implementations(Class<X> junction) {
-    return subClasses(junction)
-        .filter(TokenGrammar::isConcrete)
-        .filter(TokenGrammar::isRule);
+    return junctions().implementations(junction);
   }
 
   public <X> Stream<Class<? extends X>> subClasses(Class<X> parent) {
-    return reflections.getSubTypesOf(parent).stream();
+    return junctions().subClasses(parent);
+  }
+
+  /**
+   * @return shared junction registry for the classloader configured in this context
+   */
+  public JunctionRegistry junctions() {
+    JunctionRegistry result = junctions;
+    if (result == null) {
+      result = junctions = JunctionRegistry.forClassLoader(classLoader);
+    }
+    return result;
   }
 
   /**
@@ -51,10 +67,46 @@ public class ParserContext<X extends Rule> implements LinkerParser<X> {
    * @param classLoader a classloader to take classpath from
    */
   public void classLoader(ClassLoader classLoader) {
-    reflections = new Reflections(new ConfigurationBuilder()
-        .setUrls(ClasspathHelper.forClassLoader(classLoader))
-        .setScanners(new SubTypesScanner(true))
-    );
+    if (this.classLoader != classLoader) {
+      this.classLoader = classLoader;
+      this.junctions = null;
+    }
+  }
+
+  /**
+   * @return a context with the same configuration as this one and no running parse
+   */
+  private ParserContext<X> copy() {
+    ParserContext<X> result = new ParserContext<>();
+    result.classLoader = classLoader;
+    result.junctions = junctions;
+    result.extension = extension;
+    result.extensions = new WeakHashMap<>(extensions);
+    result.target = target;
+    result.grammar = grammar;
+    return result;
+  }
+
+  /**
+   * @return classloader that is used to look up grammar tokens
+   */
+  public ClassLoader classLoader() {
+    return classLoader;
+  }
+
+  /**
+   * @return session of the parse that is currently running in this context or null
+   */
+  public ParseSession session() {
+    return session;
+  }
+
+  /**
+   * Configures the session of the parse that is currently running in this context
+   * @param session parse session or null
+   */
+  public void session(ParseSession session) {
+    this.session = session;
   }
 
   @Override
@@ -4,18 +4,42 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import com.onkiup.linker.parser.annotation.CapturePattern;
+import com.onkiup.linker.parser.util.BufferRegion;
+import com.onkiup.linker.parser.util.LiteralScanner;
+
+public class PatternMatcher implements ResumableMatcher {
+  /**
+   * Patterns that repeat a single character class: their matches against growing input stay incomplete for as long as
+   * every new character belongs to the class
+   */
+  private static final Pattern REPEATED_CLASS = Pattern.compile("(\\[(\\\\.|[^\\]\\\\])*\\]|\\\\[dDsSwW]|\\.)[+*]");
 
-public class PatternMatcher implements TokenMatcher {
   private final Pattern pattern;
   private final String replacement;
   private final String until;
-  private final Matcher matcher;
+  /**
+   * Whether terminators can be searched for in the whole rest of the parser buffer at once (true for until patterns
+   * that cannot match differently depending on where the input ends)
+   */
+  private final boolean scansAhead;
+  /**
+   * Whether the pattern repeats a single character class (see {@link #REPEATED_CLASS})
+   */
+  private final boolean repeatsClass;
+  /**
+   * Scanner for until patterns that are plain literals or null
+   */
+  private final LiteralScanner terminator;
+  private final ThreadLocal<Matcher> matcher;
 
   public PatternMatcher(String pattern) {
     this.pattern = Pattern.compile(pattern);
-    this.matcher = this.pattern.matcher("");
+    this.matcher = ThreadLocal.withInitial(() -> this.pattern.matcher(""));
     this.replacement = "";
     this.until = "";
+    this.scansAhead = false;
+    this.repeatsClass = REPEATED_CLASS.matcher(pattern).matches();
+    this.terminator = null;
   }
 
   public PatternMatcher(CapturePattern pattern) {
@@ -38,47 +62,236 @@ public class PatternMatcher implements TokenMatcher {
     }
     this.replacement = pattern.replacement();
     this.until = pattern.until();
+    String literal = until.length() > 0 ? literal(matcherPattern, ignoreCase) : null;
+    this.terminator = literal == null ? null : new LiteralScanner(literal);
+    this.scansAhead = terminator != null || until.length() > 0 && !dependsOnInputEnd(matcherPattern);
+    this.repeatsClass = until.length() == 0 && REPEATED_CLASS.matcher(matcherPattern).matches();
     this.pattern = Pattern.compile(matcherPattern, ignoreCase ? Pattern.CASE_INSENSITIVE : 0);
-    matcher = this.pattern.matcher("");
+    // matchers are shared between tokens (and threads) through grammar models
+    matcher = ThreadLocal.withInitial(() -> this.pattern.matcher(""));
+  }
+
+  /**
+   * @param pattern regular expression
+   * @return false if the expression has no anchors, boundaries or lookarounds, whose matches may depend on where the
+   * input ends (may return true for expressions that merely look like they do)
+   */
+  private static boolean dependsOnInputEnd(String pattern) {
+    for (String construct : new String[] {"$", "\\b", "\\B", "\\z", "\\Z", "\\G", "(?=", "(?!", "(?<=", "(?<!"}) {
+      if (pattern.contains(construct)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @param pattern regular expression
+   * @param ignoreCase whether the expression is matched ignoring character case
+   * @return the literal the expression matches or null if it is not a plain (case-sensitive, for letters) literal
+   */
+  static String literal(String pattern, boolean ignoreCase) {
+    StringBuilder result = new StringBuilder();
+    for (int i = 0; i < pattern.length(); i++) {
+      char character = pattern.charAt(i);
+      if (character == '\\') {
+        if (++i == pattern.length()) {
+          return null;
+        }
+        character = pattern.charAt(i);
+        if (character == 'Q') {
+          int end = pattern.indexOf("\\E", i + 1);
+          result.append(pattern, i + 1, end < 0 ? pattern.length() : end);
+          i = end < 0 ? pattern.length() : end + 1;
+          continue;
+        }
+        int escaped = "tnrfae".indexOf(character);
+        if (escaped > -1) {
+          character = "\t\n\r\f\u0007\u001B".charAt(escaped);
+        } else if (Character.isLetterOrDigit(character)) {
+          return null;
+        }
+      } else if (".^$|?*+()[]{}".indexOf(character) > -1) {
+        return null;
+      }
+      result.append(character);
+    }
+    for (int i = 0; ignoreCase && i < result.length(); i++) {
+      if (Character.isLetter(result.charAt(i))) {
+        return null;
+      }
+    }
+    return result.length() == 0 ? null : result.toString();
   }
 
   @Override
   public TokenTestResult apply(CharSequence buffer) {
-    matcher.reset(buffer);
-    boolean matches = matcher.matches(), 
-            lookingAt = matcher.lookingAt(), 
-            hitEnd = matcher.hitEnd();
-
-    if (until.length() == 0) {
-      if(hitEnd && lookingAt && matches) {
-        return TestResult.matchContinue(buffer.length(), buffer.toString());
-      } else if (lookingAt) {
-        if (replacement != null && replacement.length() > 0) {
-          StringBuffer result = new StringBuffer();
-          matcher.appendReplacement(result, replacement);
-          return TestResult.match(matcher.end(), result.toString());
+    return test(buffer, false);
+  }
+
+  /**
+   * Until patterns that do not depend on where the input ends are searched for in the whole rest of the parser buffer
+   * on the first call; subsequent calls only search the input again while it ends in the middle of the terminator
+   * found there. Patterns that repeat a single character class (like {@code [a-z]+}) are also matched against the
+   * whole rest of the buffer once, and inputs that end within that match are reported as incomplete without testing
+   * them. Other patterns cannot be resumed and are tested against the whole input on every call, which costs O(N^2)
+   * for tokens of N characters
+   */
+  @Override
+  public TokenTestResult resume(CharSequence input, MatchState state) {
+    if (repeatsClass && input instanceof BufferRegion) {
+      return resumeRepeated((BufferRegion) input, state);
+    }
+    if (!scansAhead || !(input instanceof BufferRegion)) {
+      return test(input, true);
+    }
+    BufferRegion region = (BufferRegion) input;
+    int offset = region.start(), length = input.length();
+    Matcher matcher = this.matcher.get();
+    try {
+      if (state.scanned() == 0) {
+        CharSequence source = region.source();
+        if (terminator != null) {
+          int found = terminator.indexOf(source, offset, source.length());
+          if (found > -1) {
+            state.found(found - offset, found - offset + terminator.length());
+          }
         } else {
-          String token = buffer.subSequence(0, matcher.end()).toString();
-          return TestResult.match(matcher.end(), token);
+          matcher.reset(source).region(offset, source.length());
+          if (matcher.find()) {
+            state.found(matcher.start() - offset, matcher.end() - offset);
+          }
         }
-      } else {
-        return TestResult.fail();
+        state.scanned(source.length() - offset);
       }
-    } else {
-      if (matches || matcher.find()) {
-        if (replacement != null && replacement.length() > 0) {
-          String token = matcher.replaceAll(replacement);
-          return TestResult.match(buffer.length(), token);
-        } else if (lookingAt) {
-          return TestResult.fail();
-        } else {
-          String token = buffer.subSequence(0, matcher.start()).toString();
-          return TestResult.match(matcher.start(), token);
+
+      int found = state.found();
+      if (found > -1 && length < state.foundEnd()) {
+        // the terminator does not fit into the input, but a later one that starts within it still might (unless
+        // the terminator is a literal, as any other occurrence of it ends later)
+        found = -1;
+        if (terminator == null && length > state.found()) {
+          matcher.reset(region.source()).region(offset, offset + length);
+          if (matcher.find()) {
+            found = matcher.start() - offset;
+          }
         }
-      } else {
-        return TestResult.matchContinue(buffer.length(), buffer.toString());
       }
+      return found < 0 ? TestResult.matchContinue(length, input) : terminated(input, found);
+    } finally {
+      matcher.reset("");
+    }
+  }
+
+  /**
+   * Resumes matching a pattern that repeats a single character class: its match against input of length L consumes
+   * the whole input (and so is incomplete) whenever L does not exceed the length of its match against the rest of the
+   * parser buffer
+   * @param input token input
+   * @param state matching state of the token
+   * @return test result
+   */
+  private TokenTestResult resumeRepeated(BufferRegion input, MatchState state) {
+    if (state.scanned() == 0) {
+      CharSequence source = input.source();
+      int offset = input.start();
+      Matcher matcher = this.matcher.get();
+      try {
+        matcher.reset(source).region(offset, source.length());
+        state.found(0, matcher.lookingAt() ? matcher.end() - offset : 0);
+      } finally {
+        matcher.reset("");
+      }
+      state.scanned(source.length() - offset);
+    }
+    int length = input.length();
+    if (length > 0 && length <= state.foundEnd()) {
+      return TestResult.matchContinue(length, input);
+    }
+    return test(input, true);
+  }
+
+  /**
+   * Tests input in a single pass of the pattern
+   * @param buffer input to test
+   * @param views whether tokens of matchContinue results may be views of the input
+   * @return test result
+   */
+  private TokenTestResult test(CharSequence buffer, boolean views) {
+    if (terminator != null) {
+      return scanUntil(buffer, views);
+    }
+    Matcher matcher = this.matcher.get();
+    int offset = 0;
+    if (buffer instanceof BufferRegion) {
+      // matching directly against the parser buffer, anchored at the token position
+      BufferRegion region = (BufferRegion) buffer;
+      offset = region.start();
+      matcher.reset(region.source()).region(offset, region.end());
+    } else {
+      matcher.reset(buffer);
+    }
+
+    try {
+      return until.length() == 0 ? capture(matcher, buffer, offset, views) : captureUntil(matcher, buffer, offset, views);
+    } finally {
+      // do not let thread-local matchers hold on to parser buffers
+      matcher.reset("");
+    }
+  }
+
+  private TokenTestResult capture(Matcher matcher, CharSequence buffer, int offset, boolean views) {
+    if (!matcher.lookingAt()) {
+      return TestResult.fail();
+    }
+    int end = matcher.end() - offset;
+    if (matcher.hitEnd() && end == buffer.length()) {
+      return TestResult.matchContinue(end, views ? buffer : buffer.toString());
+    } else if (replacement != null && replacement.length() > 0) {
+      // replacements are applied to a standalone copy, as Matcher can only append replacements from the start of its input
+      Matcher copy = pattern.matcher(buffer.toString());
+      copy.lookingAt();
+      StringBuffer result = new StringBuffer();
+      copy.appendReplacement(result, replacement);
+      return TestResult.match(end, result.toString());
+    }
+    return TestResult.match(end, buffer.subSequence(0, end).toString());
+  }
+
+  private TokenTestResult captureUntil(Matcher matcher, CharSequence buffer, int offset, boolean views) {
+    if (!matcher.find()) {
+      return TestResult.matchContinue(buffer.length(), views ? buffer : buffer.toString());
+    }
+    return terminated(buffer, matcher.start() - offset);
+  }
+
+  private TokenTestResult scanUntil(CharSequence buffer, boolean views) {
+    int found;
+    if (buffer instanceof BufferRegion) {
+      BufferRegion region = (BufferRegion) buffer;
+      found = terminator.indexOf(region.source(), region.start(), region.end());
+      found = found < 0 ? found : found - region.start();
+    } else {
+      found = terminator.indexOf(buffer, 0, buffer.length());
+    }
+    if (found < 0) {
+      return TestResult.matchContinue(buffer.length(), views ? buffer : buffer.toString());
+    }
+    return terminated(buffer, found);
+  }
+
+  /**
+   * @param buffer input to test
+   * @param start position of the first terminator in the input
+   * @return test result for input that contains a terminator
+   */
+  private TokenTestResult terminated(CharSequence buffer, int start) {
+    if (replacement != null && replacement.length() > 0) {
+      return TestResult.match(buffer.length(), pattern.matcher(buffer.toString()).replaceAll(replacement));
+    } else if (start == 0) {
+      return TestResult.fail();
     }
+    return TestResult.match(start, buffer.subSequence(0, start).toString());
   }
 
   @Override
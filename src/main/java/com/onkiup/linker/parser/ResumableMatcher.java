@@ -0,0 +1,24 @@
+package com.onkiup.linker.parser;
+
+/**
+ * A {@link TokenMatcher} that can continue matching from the state it saved while testing a shorter input of the same
+ * token instead of re-examining the whole input on every call.
+ * Consuming tokens test their matchers against input that grows by one character at a time; resumable matchers keep
+ * their progress in a per-token {@link MatchState} so that a token of N characters can cost O(N) instead of O(N^2).
+ * When the input is a region of the parser buffer, matchers may also examine the rest of the buffer in bulk on the
+ * first call and answer subsequent calls from the saved state. Implementations document which inputs they can
+ * resume: matchers may fall back to testing the whole input when their state cannot be reused
+ */
+public interface ResumableMatcher extends TokenMatcher {
+
+  /**
+   * Tests given input, reusing the state saved by previous invocations for the same token.
+   * The result must be equal to what {@link #apply(CharSequence)} would return for the input, except that tokens of
+   * {@link TestResult#matchContinue(int, Object) matchContinue} results may be {@link CharSequence} views of the input
+   * @param input token input: the input given to the previous invocation with the same state followed by new
+   *              characters (or any input if the state was just reset)
+   * @param state matching state of the token
+   * @return test result
+   */
+  TokenTestResult resume(CharSequence input, MatchState state);
+}
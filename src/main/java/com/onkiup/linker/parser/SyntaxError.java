@@ -14,6 +14,7 @@ public class SyntaxError extends RuntimeException {
   private PartialToken<?> expected;
   private CharSequence source;
   private String message;
+  private long position = -1;
 
   public SyntaxError(String message, PartialToken expected, CharSequence source) {
     this.message = message;
@@ -21,6 +22,22 @@ public class SyntaxError extends RuntimeException {
     this.source = source;
   }
 
+  /**
+   * @return position in the parsed source that the parser reached before failing or -1 if it is unknown
+   */
+  public long position() {
+    return position;
+  }
+
+  /**
+   * @param position position in the parsed source that the parser reached before failing
+   * @return this error
+   */
+  SyntaxError position(long position) {
+    this.position = position;
+    return this;
+  }
+
   @Override
   public String toString() {
     StringBuilder result = new StringBuilder("Parser error:")
@@ -1,6 +1,6 @@
 package com.onkiup.linker.parser;
 
-public class TerminalMatcher implements TokenMatcher {
+public class TerminalMatcher implements ResumableMatcher {
   
   private final String pattern; 
   private final int patternLen;
@@ -14,9 +14,22 @@ public class TerminalMatcher implements TokenMatcher {
 
   @Override
   public TokenTestResult apply(CharSequence buffer) {
+    return test(buffer, 0);
+  }
+
+  @Override
+  public TokenTestResult resume(CharSequence input, MatchState state) {
+    TokenTestResult result = test(input, state.scanned());
+    if (!result.isFailed()) {
+      state.scanned(Math.min(patternLen, input.length()));
+    }
+    return result;
+  }
+
+  private TokenTestResult test(CharSequence buffer, int from) {
     int bufferLen = buffer.length();
     int charsToCompare = Math.min(patternLen, bufferLen);
-    for (int i = 0; i < charsToCompare; i++) {
+    for (int i = from; i < charsToCompare; i++) {
       char patternChar = ignoreCase ? Character.toLowerCase(pattern.charAt(i)) : pattern.charAt(i);
       char bufferChar = ignoreCase ? Character.toLowerCase(buffer.charAt(i)) : buffer.charAt(i);
       if (patternChar != bufferChar) {
@@ -25,7 +38,7 @@ public class TerminalMatcher implements TokenMatcher {
     }
 
     if (patternLen <= bufferLen) {
-      return TestResult.match(patternLen, buffer.subSequence(0, patternLen));
+      return TestResult.match(patternLen, buffer.subSequence(0, patternLen).toString());
     }
     return TestResult.continueNoMatch();
   }
@@ -9,15 +9,19 @@ import java.util.function.Predicate;
 
 import com.onkiup.linker.parser.annotation.OptionalToken;
 import com.onkiup.linker.parser.annotation.SkipIfFollowedBy;
+import com.onkiup.linker.parser.grammar.FieldAccessor;
+import com.onkiup.linker.parser.grammar.FieldModel;
+import com.onkiup.linker.parser.grammar.RuleModel;
 import com.onkiup.linker.parser.token.CollectionToken;
 import com.onkiup.linker.parser.token.CompoundToken;
 import com.onkiup.linker.parser.token.EnumToken;
+import com.onkiup.linker.parser.token.MemoTable;
 import com.onkiup.linker.parser.token.PartialToken;
 import com.onkiup.linker.parser.token.RuleToken;
 import com.onkiup.linker.parser.token.TerminalToken;
 import com.onkiup.linker.parser.token.VariantToken;
+import com.onkiup.linker.parser.trace.ParserListener;
 import com.onkiup.linker.parser.util.ParserError;
-import com.onkiup.linker.util.TypeUtils;
 
 /**
  * @author : chedim (chedim@chedim-Surface-Pro-3)
@@ -42,11 +46,13 @@ public final class TokenFactory {
     if (position == null) {
       position = new ParserLocation(null, 0, 0, 0);
     }
-    if (TypeUtils.isConcrete(type)) {
-      return new RuleToken(null, childNumber, null, type, position);
+    CompoundToken result;
+    if (RuleModel.forClass(type).isConcrete()) {
+      result = new RuleToken(null, childNumber, null, type, position);
     } else {
-      return new VariantToken(null, childNumber, null, type, position);
+      result = new VariantToken(null, childNumber, null, type, position);
     }
+    return created(null, result);
   }
 
   /**
@@ -78,12 +84,46 @@ public final class TokenFactory {
    */
   public static <X> PartialToken<X> forField(CompoundToken parent, int childNumber, Field field, Class tokenType,
       ParserLocation position) {
+    return created(parent, create(parent, childNumber, field, tokenType, position));
+  }
+
+  /**
+   * Creates a token that takes over a result of matching a concrete rule at the same position in another parse of the
+   * same input (see {@link VariantSpeculator}); the replayed subtree is moved into the parent's session
+   *
+   * @param parent    parent token
+   * @param field     field for which a new PartialToken will be created
+   * @param tokenType concrete rule type
+   * @param position  token position in parser's buffer
+   * @param match     replayed result
+   * @return populated token
+   */
+  public static <X> PartialToken<X> replay(CompoundToken parent, int childNumber, Field field, Class tokenType,
+      ParserLocation position, MemoTable.Entry match) {
+    String ignored = RuleModel.forClass(tokenType).ignoreCharacters(parent.ignoredCharacters());
+    return created(parent, RuleToken.speculated(parent, childNumber, field, tokenType, position, ignored, match));
+  }
+
+  private static <X> PartialToken<X> create(CompoundToken parent, int childNumber, Field field, Class tokenType,
+      ParserLocation position) {
     if (tokenType.isArray()) {
       return new CollectionToken(parent, childNumber, field, tokenType, position);
     } else if (Rule.class.isAssignableFrom(tokenType)) {
-      if (!TokenGrammar.isConcrete(tokenType)) {
+      if (!RuleModel.forClass(tokenType).isConcrete()) {
         return new VariantToken(parent, childNumber, field, tokenType, position);
       } else {
+        ParseSession session = parent == null ? ParseSession.current() : ParseSession.of(parent);
+        MemoTable memo = session.memo(parent);
+        if (memo != null) {
+          RuleModel<?> model = RuleModel.forClass(tokenType);
+          String ignored = model
+              .ignoreCharacters(parent == null ? session.rootIgnoredCharacters() : parent.ignoredCharacters());
+          int context = model.recursionContext(childNumber);
+          MemoTable.Entry memoized = memo.get(tokenType, position.position(), ignored, context);
+          if (memoized != null) {
+            return RuleToken.memoized(parent, childNumber, field, tokenType, position, ignored, memoized);
+          }
+        }
         return new RuleToken(parent, childNumber, field, tokenType, position);
       }
     } else if (tokenType == String.class) {
@@ -94,6 +134,18 @@ public final class TokenFactory {
     throw new IllegalArgumentException("Unsupported field type: " + tokenType);
   }
 
+  /**
+   * Notifies the listener of the current parse about a newly created token
+   */
+  private static <T extends PartialToken<?>> T created(CompoundToken parent, T token) {
+    ParseSession session = parent == null ? ParseSession.current() : ParseSession.of(parent);
+    ParserListener listener = session.listener();
+    if (listener != null) {
+      listener.tokenCreated(token);
+    }
+    return token;
+  }
+
   /**
    * @param field field to check for presence of OptionalToken or SkipIfFollowedBy
    *              annotations
@@ -101,8 +153,7 @@ public final class TokenFactory {
    *         {@link SkipIfFollowedBy}
    */
   public static boolean hasOptionalAnnotation(Field field) {
-    return field != null
-        && (field.isAnnotationPresent(OptionalToken.class) || field.isAnnotationPresent(SkipIfFollowedBy.class));
+    return field != null && FieldModel.forField(field).hasOptionalAnnotation();
   }
 
   /**
@@ -115,9 +166,9 @@ public final class TokenFactory {
    */
   public static boolean isOptional(CompoundToken owner, Field field) {
     try {
-      if (field.isAnnotationPresent(OptionalToken.class)) {
+      OptionalToken optionalToken = FieldModel.forField(field).optionalToken();
+      if (optionalToken != null) {
         owner.log("Performing context-aware optionality check for field ${}", field);
-        OptionalToken optionalToken = field.getAnnotation(OptionalToken.class);
         boolean result;
         if (optionalToken.whenFieldIsNull().length() != 0) {
           final String fieldName = optionalToken.whenFieldIsNull();
@@ -153,9 +204,8 @@ public final class TokenFactory {
    */
   public static boolean testContextField(CompoundToken owner, String fieldName, Predicate<Object> tester)
       throws NoSuchFieldException, IllegalAccessException {
-    Field targetField = owner.tokenType().getField(fieldName);
-    targetField.setAccessible(true);
-    boolean result = tester.test(targetField.get(owner.token()));
+    FieldAccessor targetField = RuleModel.forClass(owner.tokenType()).contextField(fieldName);
+    boolean result = tester.test(targetField.get(owner.token().orElse(null)));
     return result;
   }
 
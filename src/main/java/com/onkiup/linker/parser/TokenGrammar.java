@@ -1,38 +1,107 @@
 package com.onkiup.linker.parser;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Reader;
 import java.io.StringReader;
+import java.io.Writer;
+import java.lang.reflect.Array;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.function.Supplier;
+import java.util.function.BooleanSupplier;
+import java.util.regex.Pattern;
 
+import com.onkiup.linker.parser.grammar.FieldModel;
+import com.onkiup.linker.parser.grammar.GrammarModel;
+import com.onkiup.linker.parser.grammar.GrammarProfile;
+import com.onkiup.linker.parser.grammar.GrammarSnapshot;
+import com.onkiup.linker.parser.grammar.RuleModel;
+import com.onkiup.linker.parser.grammar.VariantPriorities;
+import com.onkiup.linker.parser.jfr.FlightRecorderSupport;
 import com.onkiup.linker.parser.token.CompoundToken;
 import com.onkiup.linker.parser.token.ConsumingToken;
+import com.onkiup.linker.parser.token.MemoTable;
 import com.onkiup.linker.parser.token.PartialToken;
+import com.onkiup.linker.parser.trace.ConsoleTreeListener;
+import com.onkiup.linker.parser.trace.LoggingListener;
+import com.onkiup.linker.parser.trace.ParserListener;
+import com.onkiup.linker.parser.trace.StatisticsListener;
 import com.onkiup.linker.parser.util.ParserError;
+import com.onkiup.linker.parser.util.RecordSplitter;
 import com.onkiup.linker.parser.util.SelfPopulatingBuffer;
 import com.onkiup.linker.util.LoggerLayout;
 import com.onkiup.linker.util.TypeUtils;
 
-import org.apache.log4j.Appender;
-import org.apache.log4j.Layout;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * Main class for parsing.
- * Please use {@link #forClass(Class)} to create instances
+ * Please use {@link #forClass(Class)} to create instances.
+ * Grammars are thread-safe: once configured, a single instance can be shared by any number of threads that parse
+ * concurrently (each parse runs in its own {@link ParseSession}; only adaptive variant priorities and recorded profiles
+ * are shared). Configuration methods ({@link #memoize(boolean)}, {@link #memoizeAdaptively(int)},
+ * {@link #pruneVariants(boolean)}, {@link #speculate(int)}, {@link #recordProfile(boolean)},
+ * {@link #listener(ParserListener)}, {@link #limits(ParseLimits)}, {@link #ignoreTrailCharacters(String)}) only affect
+ * parses started after them.
+ * See {@link #tokenizeAll(Map, Executor)} for parsing batches of sources concurrently
  * @param <X> type of the object to parse into.
  */
 public class TokenGrammar<X extends Rule> {
   private static final Logger logger = LoggerFactory.getLogger("PARSER LOOP");
+  /**
+   * Minimal length of chunks parsed by {@link #tokenizeRecords(String, Reader, Pattern, Executor)}
+   */
+  public static final int MIN_RECORD_CHUNK = 64 * 1024;
+  /**
+   * System property with the default number of repeated variant matches after which junctions are memoized
+   * (see {@link #memoizeAdaptively(int)})
+   */
+  public static final String ADAPTIVE_MEMO = "linker.parser.adaptiveMemo";
+  /**
+   * Default number of repeated variant matches after which junctions are memoized
+   */
+  public static final int DEFAULT_ADAPTIVE_MEMO = 8;
   private static final ThreadLocal<StringBuilder> BUFFER = new ThreadLocal<>();
-  private Class<X> type;
+  private volatile Class<X> type;
   private Class metaType;
-  private String ignoreTrail;
+  private volatile String ignoreTrail;
+  private volatile GrammarModel model;
+  private volatile VariantPriorities priorities = new VariantPriorities();
+  private volatile GrammarProfile profile;
+  private volatile boolean memoize;
+  private volatile boolean pruneVariants = true;
+  private volatile int adaptiveMemo = Integer.getInteger(ADAPTIVE_MEMO, DEFAULT_ADAPTIVE_MEMO);
+  private volatile VariantSpeculator speculator;
+  private volatile ParserListener listener;
+  private volatile ParseLimits limits = ParseLimits.NONE;
+  /**
+   * Installed listener combined with the Flight Recorder listener (used while a recording enables parser events)
+   */
+  private volatile ParserListener activeListener = FlightRecorderSupport.listener();
+  /**
+   * Closed sessions kept for reuse by subsequent parses on the same thread
+   */
+  private final ThreadLocal<ParseSession> sessions = new ThreadLocal<>();
 
   /**
    * Default constructor
@@ -53,9 +122,70 @@ public class TokenGrammar<X extends Rule> {
     return new TokenGrammar<>(type, metaType);
   }
 
+  /**
+   * Creates a grammar from a previously saved snapshot (see {@link #saveSnapshot(OutputStream)}), restoring its compiled
+   * model without classpath scanning and grammar analysis.
+   * If the snapshot file does not exist or is stale, the grammar is analysed as usual and a fresh snapshot is written into the file
+   * @param type resulting token type
+   * @param snapshot path to the snapshot file
+   * @return created grammar
+   */
+  public static <XX extends Rule> TokenGrammar<XX> fromSnapshot(Class<XX> type, Path snapshot) {
+    if (Files.isRegularFile(snapshot)) {
+      try (InputStream source = new BufferedInputStream(Files.newInputStream(snapshot))) {
+        Optional<GrammarSnapshot> loaded = GrammarSnapshot.read(type, source);
+        if (loaded.isPresent()) {
+          logger.debug("Loaded grammar snapshot from {}", snapshot);
+          loaded.get().apply();
+          TokenGrammar<XX> result = new TokenGrammar<>(type, null, loaded.get().model());
+          loaded.get().priorities().forEach(result.priorities()::priority);
+          return result;
+        }
+      } catch (IOException e) {
+        logger.warn("Failed to read grammar snapshot from {}", snapshot, e);
+      }
+    }
+
+    TokenGrammar<XX> result = forClass(type);
+    try (OutputStream target = new BufferedOutputStream(Files.newOutputStream(snapshot))) {
+      result.saveSnapshot(target);
+    } catch (IOException e) {
+      logger.warn("Failed to write grammar snapshot into {}", snapshot, e);
+    }
+    return result;
+  }
+
   protected TokenGrammar(Class<X> type, Class metaType) {
+    this(type, metaType, null);
+  }
+
+  /**
+   * @param type resulting token type
+   * @param metaType meta token type
+   * @param model previously compiled grammar model or null to compile the grammar
+   */
+  private TokenGrammar(Class<X> type, Class metaType, GrammarModel model) {
     this.type = type;
     this.metaType = metaType;
+    if (model == null) {
+      compile(type);
+    } else {
+      this.model = model;
+    }
+
+    String profile = System.getProperty(GrammarProfile.PROFILE);
+    if (profile != null) {
+      loadProfile(Paths.get(profile));
+    }
+  }
+
+  private void compile(Class<X> type) {
+    long started = System.nanoTime();
+    this.model = GrammarModel.compile(type);
+    ParserListener listener = activeListener();
+    if (listener != null) {
+      listener.grammarCompiled(model, System.nanoTime() - started);
+    }
   }
 
   /**
@@ -75,6 +205,168 @@ public class TokenGrammar<X extends Rule> {
     return type;
   }
 
+  /**
+   * @return compiled model of this grammar
+   */
+  public GrammarModel model() {
+    return model;
+  }
+
+  /**
+   * @return adaptive junction variant priorities collected by this grammar
+   */
+  public VariantPriorities priorities() {
+    return priorities;
+  }
+
+  /**
+   * Enables or disables speculative parallel testing of junction variants on the common ForkJoinPool
+   * @param width maximal number of variants to test in parallel at a junction (less than 2 disables speculation)
+   * @see #speculate(ForkJoinPool, int)
+   */
+  public void speculate(int width) {
+    speculate(ForkJoinPool.commonPool(), width);
+  }
+
+  /**
+   * Enables or disables speculative parallel testing of junction variants.
+   * When enabled, junctions test up to {@code width} of their untried variants in parallel, each in an isolated
+   * parse, and then skip variants that failed. The first matching variant is taken over from its speculative parse
+   * (its subtree is moved into the calling parse) when tracing back could not change its match, and parsed again
+   * otherwise. Parse trees are the same as without speculation, but speculative parses run user code differently:
+   * <ul>
+   * <li>rule instances are created (and their constructors and field initializers run) on threads of the pool,
+   * concurrently with the calling parse and with each other;</li>
+   * <li>rules of variants that lose the race or fail are instantiated as well, so rule constructors and any other
+   * user callbacks run more often than in sequential parses and must be thread-safe and free of side effects that
+   * the application relies on;</li>
+   * <li>the {@link ParserListener} of the grammar does not receive events of speculative parses.</li>
+   * </ul>
+   * Every speculative parse allocates its own tokens, so this mode trades CPU time for latency and is only worth
+   * enabling for grammars with large junctions of deep alternatives
+   * @param pool pool to run speculative parses on
+   * @param width maximal number of variants to test in parallel at a junction (less than 2 disables speculation)
+   */
+  public void speculate(ForkJoinPool pool, int width) {
+    this.speculator = width < 2 ? null : new VariantSpeculator(pool, width);
+  }
+
+  /**
+   * Installs a listener that receives events of all parses started after this call
+   * (see {@link LoggingListener}, {@link ConsoleTreeListener} and {@link StatisticsListener}).
+   * Flight Recorder events are emitted regardless of the installed listener for parses that start while a recording
+   * enables them (see {@link FlightRecorderSupport})
+   * @param listener listener to install or null to remove installed listener
+   */
+  public void listener(ParserListener listener) {
+    this.listener = listener;
+    ParserListener flightRecorder = FlightRecorderSupport.listener();
+    if (flightRecorder == null || listener == null) {
+      this.activeListener = listener == null ? flightRecorder : listener;
+    } else {
+      this.activeListener = ParserListener.all(flightRecorder, listener);
+    }
+  }
+
+  /**
+   * @return installed parse listener or null
+   */
+  public ParserListener listener() {
+    return listener;
+  }
+
+  /**
+   * @return listener for events of a parse that starts now or null
+   */
+  private ParserListener activeListener() {
+    return FlightRecorderSupport.isRecording() ? activeListener : listener;
+  }
+
+  /**
+   * Configures limits for all parses started after this call that are not given limits explicitly
+   * @param limits default parse limits
+   */
+  public void limits(ParseLimits limits) {
+    this.limits = limits == null ? ParseLimits.NONE : limits;
+  }
+
+  /**
+   * @return default parse limits
+   */
+  public ParseLimits limits() {
+    return limits;
+  }
+
+  /**
+   * Enables or disables recording of junction variant statistics
+   * @param record true to start recording into a new profile, false to stop recording
+   */
+  public void recordProfile(boolean record) {
+    this.profile = record ? new GrammarProfile() : null;
+  }
+
+  /**
+   * @return profile that is being recorded by this grammar or null
+   */
+  public GrammarProfile profile() {
+    return profile;
+  }
+
+  /**
+   * Writes recorded profile (see {@link #recordProfile(boolean)})
+   * @param target writer to write the profile into
+   * @throws IOException
+   */
+  public void saveProfile(Writer target) throws IOException {
+    if (profile == null) {
+      throw new IllegalStateException("Profile recording is not enabled");
+    }
+    profile.write(target);
+  }
+
+  /**
+   * Writes recorded profile (see {@link #recordProfile(boolean)}) into a file
+   * @param target path to the profile file
+   * @throws IOException
+   */
+  public void saveProfile(Path target) throws IOException {
+    try (Writer writer = Files.newBufferedWriter(target, StandardCharsets.UTF_8)) {
+      saveProfile(writer);
+    }
+  }
+
+  /**
+   * Sets initial junction variant priorities from a previously recorded profile
+   * @param source reader to read the profile from
+   * @throws IOException
+   */
+  public void loadProfile(Reader source) throws IOException {
+    GrammarProfile.read(type.getClassLoader(), source).apply(priorities);
+  }
+
+  /**
+   * Sets initial junction variant priorities from a previously recorded profile file; failures are logged and ignored
+   * @param source path to the profile file
+   */
+  public void loadProfile(Path source) {
+    try (Reader reader = Files.newBufferedReader(source, StandardCharsets.UTF_8)) {
+      loadProfile(reader);
+      logger.debug("Loaded grammar profile from {}", source);
+    } catch (IOException e) {
+      logger.warn("Failed to read grammar profile from {}", source, e);
+    }
+  }
+
+  /**
+   * Writes analysed grammar (junction variant orderings, rule field layouts and variant priorities) into a stream
+   * so it could be loaded on the next start with {@link #fromSnapshot(Class, Path)}
+   * @param target stream to write the snapshot to
+   * @throws IOException
+   */
+  public void saveSnapshot(OutputStream target) throws IOException {
+    GrammarSnapshot.capture(model, priorities.snapshot()).write(target);
+  }
+
   /**
    * Configures this parser to ignore trailing characters based on the input string
    * @param chars trailing characters to ignore
@@ -83,6 +375,43 @@ public class TokenGrammar<X extends Rule> {
     this.ignoreTrail = chars;
   }
 
+  /**
+   * Enables packrat memoization: results of matching concrete rules are recorded per parse and reused when the same
+   * rule is requested again at the same position. Only results that backtracking cannot change are recorded (see
+   * {@link MemoTable}), so memoization does not change parse results
+   * @param memoize true to enable memoization
+   */
+  public void memoize(boolean memoize) {
+    this.memoize = memoize;
+  }
+
+  /**
+   * Configures adaptive memoization for parses that do not memoize all rules: each parse counts how many times every
+   * junction re-matches variants that it has already matched at the same position (which is what makes
+   * backtracking exponential) and switches junctions whose repeats reach given number and make at least a quarter
+   * of their attempts to memoized mode for the rest of the parse. Well-behaved inputs stay on the cheaper
+   * non-memoized path. As with {@link #memoize(boolean)}, memoization does not change parse results.
+   * Enabled by default with {@value #DEFAULT_ADAPTIVE_MEMO} repeats; the default can be configured with system
+   * property {@value #ADAPTIVE_MEMO}
+   * @param minRepeats minimal number of repeated matches after which a junction is memoized or 0 to disable
+   */
+  public void memoizeAdaptively(int minRepeats) {
+    if (minRepeats < 0) {
+      throw new IllegalArgumentException("Number of repeats cannot be negative");
+    }
+    this.adaptiveMemo = minRepeats;
+  }
+
+  /**
+   * Configures FIRST set pruning: junctions skip variants that cannot start with the next input character without
+   * creating tokens for them (see {@link com.onkiup.linker.parser.grammar.FirstSet}). Sets are conservative, so pruning
+   * does not change parse results; enabled by default
+   * @param pruneVariants false to test every junction variant
+   */
+  public void pruneVariants(boolean pruneVariants) {
+    this.pruneVariants = pruneVariants;
+  }
+
   /**
    * Parses a string into resulting token
    * @param source string to parse
@@ -122,7 +451,20 @@ public class TokenGrammar<X extends Rule> {
    * @throws SyntaxError
    */
   public X parse(String name, Reader source)  throws SyntaxError {
-    X result = tokenize(name, source);
+    return parse(name, source, limits);
+  }
+
+  /**
+   * Parses named text from a Reader within given limits
+   * @param name name of the source
+   * @param source reader to get contents from
+   * @param limits parse limits
+   * @return parsed token
+   * @throws SyntaxError
+   * @throws ParseLimitExceeded if the parse exceeded given limits
+   */
+  public X parse(String name, Reader source, ParseLimits limits) throws SyntaxError {
+    X result = tokenize(name, source, limits);
     StringBuilder tail = new StringBuilder();
     try {
       int nextChar;
@@ -157,115 +499,407 @@ public class TokenGrammar<X extends Rule> {
    * @throws SyntaxError
    */
   public X tokenize(String sourceName, Reader source) throws SyntaxError {
+    return tokenize(sourceName, source, limits);
+  }
+
+  /**
+   * Parses contents from the reader within given limits
+   * @param sourceName the name of the source that will be parsed
+   * @param source reader to get contents from
+   * @param limits parse limits
+   * @return parsed token
+   * @throws SyntaxError
+   * @throws ParseLimitExceeded if the parse exceeded given limits
+   */
+  public X tokenize(String sourceName, Reader source, ParseLimits limits) throws SyntaxError {
+    return tokenize(sourceName, source, limits, true);
+  }
+
+  /**
+   * @param wrapSyntaxErrors false to rethrow syntax errors as they are instead of wrapping them into runtime exceptions
+   */
+  private X tokenize(String sourceName, Reader source, ParseLimits limits, boolean wrapSyntaxErrors)
+      throws SyntaxError {
     AtomicInteger position = new AtomicInteger(0);
-    ParserContext.get().classLoader(getTokenType().getClassLoader());
+    ParserContext<?> context = ParserContext.get();
+    context.classLoader(getTokenType().getClassLoader());
     SelfPopulatingBuffer buffer = null;
     try {
       buffer = new SelfPopulatingBuffer(sourceName, source);
     } catch (IOException e) {
       throw new RuntimeException("Failed to read source " + sourceName, e);
     }
+    ParseSession previousSession = context.session();
+    ParseSession session = openSession(buffer);
+    session.speculator(speculator);
+    session.limits(limits);
+    session.adaptiveMemo(adaptiveMemo);
+    session.pruneVariants(pruneVariants);
+    ParserListener listener = activeListener();
+    session.listener(listener);
+    context.session(session);
+    if (listener != null) {
+      listener.parseStarted(sourceName, buffer);
+    }
+    RuntimeException error = null;
     try {
-      CompoundToken<X> rootToken = TokenFactory.forClass(type, 0, new ParserLocation(sourceName, 0, 0, 0));
-      ConsumingToken.ConsumptionState.rootBuffer(rootToken, buffer);
-      CompoundToken parent = rootToken;
-      ConsumingToken<?> consumer = nextConsumingToken(parent).orElseThrow(() -> new ParserError("No possible consuming tokens found", parent));
-      ConsumingToken<?> bestFail = consumer;
-      setupLoggingLayouts(buffer, position::get);
-      do {
-        if (logger.isDebugEnabled()) {
-          System.out.print("\u001B[H\u001Bc");
-          System.out.println("|----------------------------------------------------------------------------------------");
-          System.out.println(consumer.location().toString());
-          System.out.println("|----------------------------------------------------------------------------------------");
-          final ConsumingToken<?> currentConsumer = consumer;
-          System.out.print(rootToken.dumpTree(token -> {
-            StringBuilder result = new StringBuilder();
-            if (token == currentConsumer) {
-              result.append(">>> ");
-            }
-            return result
-                .append(token.getClass().getSimpleName())
-                .append("(").append(token.position()).append(" - ").append(token.end().position()).append(")")
-                .append(" :: '")
-                .append(LoggerLayout.sanitize(token.head(50)))
-                .append("'");
-          }));
-          System.out.println("|----------------------------------------------------------------------------------------");
-          System.out.println("|----------------------------------------------------------------------------------------");
-        }
+      return tokenize(rootToken(sourceName, buffer), buffer, position, listener);
+    } catch (ParseLimitExceeded e) {
+      logger.warn("Aborted parse of {} at position {}: {}", sourceName, position.get(), e.getMessage());
+      error = e;
+      throw e;
+    } catch (SyntaxError se) {
+      se.position(position.get());
+      error = wrapSyntaxErrors ? new RuntimeException("Syntax error at position " + position.get(), se) : se;
+      throw error;
+    } catch (Exception e) {
+      error = new RuntimeException(e);
+      throw error;
+    } finally {
+      if (listener != null) {
+        listener.parseFinished(sourceName, error);
+      }
+      if (session.memo() != null) {
+        logger.debug("Packrat memo: {}", session.memo());
+      }
+      session.close();
+      context.session(previousSession);
+    }
+  }
 
-        ConsumingToken lastConsumer = consumer;
-
-        processConsumingToken(consumer, position);
-        boolean hitEnd = position.get() >= buffer.length();
-
-        if (consumer.isFailed()) {
-          logger.debug("!!! CONSUMER FAILED !!! {}", consumer.tag());
-          bestFail = bestFail.position() > consumer.position() ? bestFail : consumer;
-          consumer = processTraceback(consumer).orElse(null);
-        } else if (consumer.isPopulated()) {
-          logger.debug("consumer populated: {}", consumer.tag());
-          consumer = onPopulated(consumer, hitEnd).orElse(null);
-        } else if (hitEnd) {
-          logger.debug("Hit end while processing {}", consumer.tag());
-          consumer.atEnd();
-          consumer = nextConsumingToken(consumer).orElse(null);
+  /**
+   * Parses sources concurrently on virtual threads (when the JVM supports them) or on the common ForkJoinPool
+   * @see #tokenizeAll(Map, Executor)
+   */
+  public List<ParseResult<X>> tokenizeAll(Map<String, ? extends Reader> sources) {
+    ExecutorService virtualThreads = virtualThreadExecutor();
+    if (virtualThreads == null) {
+      return tokenizeAll(sources, ForkJoinPool.commonPool());
+    }
+    try {
+      return tokenizeAll(sources, virtualThreads);
+    } finally {
+      virtualThreads.shutdown();
+    }
+  }
+
+  /**
+   * Parses sources concurrently
+   * @param sources readers to parse mapped by source names (use an ordered map to get results in a predictable order)
+   * @param executor executor to parse sources on
+   * @return results of parsing each source, in iteration order of passed sources
+   */
+  public List<ParseResult<X>> tokenizeAll(Map<String, ? extends Reader> sources, Executor executor) {
+    List<CompletableFuture<ParseResult<X>>> futures = new ArrayList<>(sources.size());
+    sources.forEach((name, source) -> futures.add(CompletableFuture.supplyAsync(() -> {
+      try {
+        return ParseResult.success(name, tokenize(name, source));
+      } catch (RuntimeException e) {
+        return ParseResult.failure(name, e);
+      }
+    }, executor)));
+
+    List<ParseResult<X>> result = new ArrayList<>(futures.size());
+    for (CompletableFuture<ParseResult<X>> future : futures) {
+      try {
+        result.add(future.join());
+      } catch (CompletionException e) {
+        futures.forEach(other -> other.cancel(false));
+        if (e.getCause() instanceof Error) {
+          throw (Error) e.getCause();
         }
+        throw e;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @return new virtual-thread-per-task executor or null if the JVM does not support virtual threads
+   */
+  private static ExecutorService virtualThreadExecutor() {
+    try {
+      return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    } catch (ReflectiveOperationException e) {
+      return null;
+    }
+  }
 
-        if (consumer != null) {
-          position.set(consumer.end().position());
+  /**
+   * Parses a source whose root rule consists of a single array of independent records (statements, log entries)
+   * on the common ForkJoinPool
+   * @see #tokenizeRecords(String, Reader, Pattern, Executor)
+   */
+  public X tokenizeRecords(String sourceName, Reader source, Pattern boundary) throws SyntaxError {
+    return tokenizeRecords(sourceName, source, boundary, ForkJoinPool.commonPool());
+  }
+
+  /**
+   * Parses a source whose root rule consists of a single array of independent records (statements, log entries)
+   * by splitting the source after matches of record boundary pattern, parsing resulting chunks concurrently and
+   * concatenating parsed records in source order.
+   * Boundary pattern should only match where a record can end (for example, at line ends of line-based formats).
+   * Records are parsed as parts of separate chunks, so their locations are relative to chunk starts
+   * (chunks are named as "sourceName@offset") and the resulting root token has no PartialToken metadata.
+   * The source is read and split incrementally with {@link RecordSplitter}: chunks of about {@value #MIN_RECORD_CHUNK}
+   * characters are submitted as they are read, and reading stops while twice as many chunks as there are processors
+   * are being parsed, so sources larger than the heap can be parsed as long as their records fit into it
+   * @param sourceName the name of the source that will be parsed
+   * @param source reader to get contents from
+   * @param boundary record boundary pattern
+   * @param executor executor to parse chunks on
+   * @return parsed token
+   * @throws SyntaxError if a chunk failed to parse ({@link SyntaxError#position()} is relative to the whole source)
+   * @throws ParseLimitExceeded if a chunk exceeded {@link #limits(ParseLimits) limits} of this grammar
+   */
+  public X tokenizeRecords(String sourceName, Reader source, Pattern boundary, Executor executor) throws SyntaxError {
+    FieldModel records = recordsField();
+    RecordSplitter splitter = new RecordSplitter(source, boundary, MIN_RECORD_CHUNK);
+    String first, second;
+    try {
+      first = splitter.next();
+      second = first == null ? null : splitter.next();
+    } catch (IOException e) {
+      throw new RuntimeException("Failed to read source " + sourceName, e);
+    }
+    if (second == null) {
+      return tokenize(sourceName, new StringReader(first == null ? "" : first), limits, false);
+    }
+
+    int maxInFlight = Math.max(2, Runtime.getRuntime().availableProcessors() * 2);
+    ArrayDeque<CompletableFuture<X>> chunks = new ArrayDeque<>(maxInFlight);
+    ArrayDeque<Long> offsets = new ArrayDeque<>(maxInFlight);
+    List<Object> members = new ArrayList<>();
+    try {
+      chunks.add(parseChunk(sourceName, first, 0, executor));
+      offsets.add(0L);
+      for (String chunk = second; chunk != null; ) {
+        if (chunks.size() >= maxInFlight) {
+          addRecords(records, join(sourceName, chunks.poll(), offsets.poll()), members);
+        }
+        chunks.add(parseChunk(sourceName, chunk, splitter.offset(), executor));
+        offsets.add(splitter.offset());
+        try {
+          chunk = splitter.next();
+        } catch (IOException e) {
+          throw new RuntimeException("Failed to read source " + sourceName, e);
         }
+      }
+      while (!chunks.isEmpty()) {
+        addRecords(records, join(sourceName, chunks.poll(), offsets.poll()), members);
+      }
+    } finally {
+      chunks.forEach(future -> future.cancel(false));
+    }
 
-        if (consumer == null || hitEnd) {
-          logger.debug("attempting to recover; consumer == {}, buffer.length() == {}", consumer == null ? null : consumer.tag(), buffer.length());
-          if (rootToken.isPopulated()) {
-            if (!hitEnd) {
-              if (!validateTrailingCharacters(buffer, position.get())) {
-                consumer = processEarlyPopulation(rootToken, buffer, position.get()).orElseThrow(
-                    () -> new ParserError("Failed to recover from early population", lastConsumer));
-                logger.debug("Recovered to {}", consumer.tag());
-              } else {
-                logger.debug("Successfully parsed (with valid trailing characters '{}') into: {}", buffer.subSequence(position.get(), buffer.length()), rootToken.tag());
-                return rootToken.token().orElse(null);
-              }
-            } else {
-              logger.debug("Perfectly parsed into: {}", rootToken.tag());
-              return rootToken.token().get();
-            }
-          } else if (consumer != null) {
-            logger.debug("Hit end and root token is not populated -- trying to traceback...");
-            do {
-              consumer.onFail();
-              consumer = processTraceback(consumer).orElse(null);
-            } while (buffer.length() == 0 && consumer != null);
-
-            if (consumer != null && rootToken.isPopulated()) {
-              consumer = processEarlyPopulation(rootToken, buffer, position.get()).orElseThrow(() ->
-                  new ParserError("Failed to recover from null consumer", lastConsumer));
+    Object merged = Array.newInstance(records.type().getComponentType(), members.size());
+    for (int i = 0; i < members.size(); i++) {
+      Array.set(merged, i, members.get(i));
+    }
+    X result = RuleModel.forClass(type).instantiator().get();
+    records.accessor().set(result, merged);
+    return result;
+  }
+
+  private CompletableFuture<X> parseChunk(String sourceName, String chunk, long offset, Executor executor) {
+    return CompletableFuture.supplyAsync(() ->
+        tokenize(sourceName + "@" + offset, new StringReader(chunk), limits, false), executor);
+  }
+
+  /**
+   * Waits for a chunk parsed by {@link #tokenizeRecords(String, Reader, Pattern, Executor)}
+   * @param sourceName name of the parsed source
+   * @param chunk chunk parse
+   * @param offset offset of the chunk in the source
+   * @return parsed chunk
+   * @throws SyntaxError with the position in the source if the chunk failed to parse
+   */
+  private X join(String sourceName, CompletableFuture<X> chunk, long offset) throws SyntaxError {
+    try {
+      return chunk.join();
+    } catch (CompletionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof SyntaxError) {
+        SyntaxError error = (SyntaxError) cause;
+        throw error.position(offset + Math.max(0, error.position()));
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new RuntimeException("Failed to parse chunk of " + sourceName + " at position " + offset, cause);
+    }
+  }
+
+  private static void addRecords(FieldModel records, Object chunk, List<Object> target) {
+    Object values = records.accessor().get(chunk);
+    for (int j = 0; values != null && j < Array.getLength(values); j++) {
+      target.add(Array.get(values, j));
+    }
+  }
+
+  /**
+   * @return model of the only field of the root rule, which should be a record array
+   */
+  private FieldModel recordsField() {
+    FieldModel[] fields = RuleModel.forClass(type).fieldModels();
+    if (fields.length != 1 || fields[0].isStatic() || !fields[0].type().isArray()) {
+      throw new IllegalStateException(type.getName() + " should have exactly one array field to be parsed by records");
+    }
+    if (fields[0].captureLimit() != null) {
+      throw new IllegalStateException("Capture limits on " + fields[0] + " cannot be enforced across chunks");
+    }
+    return fields[0];
+  }
+
+  private CompoundToken<X> rootToken(String sourceName, CharSequence buffer) {
+    CompoundToken<X> rootToken = TokenFactory.forClass(type, 0, new ParserLocation(sourceName, 0, 0, 0));
+    ConsumingToken.ConsumptionState.rootBuffer(rootToken, buffer);
+    return rootToken;
+  }
+
+  /**
+   * Main parser loop
+   * @param rootToken root token of the parse
+   * @param buffer parser buffer
+   * @param position parser position to update while parsing
+   * @param listener parse listener or null
+   * @return parsed token
+   */
+  private X tokenize(CompoundToken<X> rootToken, CharSequence buffer, AtomicInteger position, ParserListener listener) {
+    CompoundToken parent = rootToken;
+    ConsumingToken<?> consumer = nextConsumingToken(parent).orElseThrow(() -> new ParserError("No possible consuming tokens found", parent));
+    ConsumingToken<?> bestFail = consumer;
+    ParseSession session = ParseSession.of(rootToken);
+    do {
+      session.step();
+      if (listener != null) {
+        listener.step(rootToken, consumer);
+      }
+
+      ConsumingToken lastConsumer = consumer;
+
+      int from = position.get();
+      processConsumingToken(consumer, position);
+      if (listener != null) {
+        listener.consumed(consumer, from, position.get());
+      }
+      boolean hitEnd = position.get() >= buffer.length();
+
+      if (consumer.isFailed()) {
+        bestFail = bestFail.position() > consumer.position() ? bestFail : consumer;
+        consumer = processTraceback(consumer).orElse(null);
+      } else if (consumer.isPopulated()) {
+        consumer = onPopulated(consumer, hitEnd).orElse(null);
+      } else if (hitEnd) {
+        consumer.atEnd();
+        consumer = nextConsumingToken(consumer).orElse(null);
+      }
+
+      if (consumer != null) {
+        position.set(consumer.end().position());
+      }
+
+      if (consumer == null || hitEnd) {
+        logger.debug("attempting to recover; consumer == {}, buffer.length() == {}", consumer == null ? null : consumer.tag(), buffer.length());
+        if (rootToken.isPopulated()) {
+          if (!hitEnd) {
+            if (!validateTrailingCharacters(buffer, position.get())) {
+              consumer = processEarlyPopulation(rootToken, buffer, position.get()).orElseThrow(
+                  () -> new ParserError("Failed to recover from early population", lastConsumer));
               logger.debug("Recovered to {}", consumer.tag());
-            } else if (rootToken.isPopulated()) {
-              return rootToken.token().get();
+            } else {
+              logger.debug("Successfully parsed (with valid trailing characters '{}') into: {}", buffer.subSequence(position.get(), buffer.length()), rootToken.tag());
+              return rootToken.token().orElse(null);
             }
           } else {
-            throw new SyntaxError("Advanced up to this token and then failed", bestFail, buffer);
+            logger.debug("Perfectly parsed into: {}", rootToken.tag());
+            return rootToken.token().get();
+          }
+        } else if (consumer != null) {
+          logger.debug("Hit end and root token is not populated -- trying to traceback...");
+          do {
+            consumer.onFail();
+            consumer = processTraceback(consumer).orElse(null);
+          } while (buffer.length() == 0 && consumer != null);
+
+          if (consumer != null && rootToken.isPopulated()) {
+            consumer = processEarlyPopulation(rootToken, buffer, position.get()).orElseThrow(() ->
+                new ParserError("Failed to recover from null consumer", lastConsumer));
+            logger.debug("Recovered to {}", consumer.tag());
+          } else if (rootToken.isPopulated()) {
+            return rootToken.token().get();
           }
+        } else {
+          throw new SyntaxError("Advanced up to this token and then failed", bestFail, buffer);
         }
+      }
 
-      } while(consumer != null && position.get() < buffer.length());
+    } while(consumer != null && position.get() < buffer.length());
+
+    if (rootToken.isPopulated()) {
+      return rootToken.token().orElse(null);
+    }
 
-      if (rootToken.isPopulated()) {
-        return rootToken.token().orElse(null);
+    throw new SyntaxError("Unexpected end of input", consumer, buffer);
+  }
+
+  /**
+   * Tests if a rule matches the beginning of parser input at given location without requiring the rest of the input to
+   * match; runs in the session that is currently configured in {@link ParserContext}
+   * @param type rule to test
+   * @param childNumber child number that the token of the rule would have in its parent
+   * @param location location to test the rule at
+   * @param buffer parser buffer
+   * @param cancelled supplier that reports when the test should be abandoned
+   * @return populated root token of the match or null if the rule did not match
+   * @throws CancellationException if the test was cancelled
+   * @throws ParseLimitExceeded if the test exceeded limits of the session
+   */
+  static CompoundToken<?> matchPrefix(Class<? extends Rule> type, int childNumber, ParserLocation location,
+      CharSequence buffer, BooleanSupplier cancelled) {
+    CompoundToken<?> rootToken = TokenFactory.forClass(type, childNumber, location);
+    ConsumingToken.ConsumptionState.rootBuffer(rootToken, buffer);
+    ParseSession session = ParseSession.of(rootToken);
+    ConsumingToken<?> consumer = nextConsumingToken(rootToken).orElse(null);
+    while (consumer != null && !rootToken.isPopulated()) {
+      if (cancelled.getAsBoolean()) {
+        throw new CancellationException();
       }
+      session.step();
+      while (consumer.consume()) {
+      }
+      boolean hitEnd = consumer.end().position() >= buffer.length();
+      if (consumer.isFailed()) {
+        consumer = processTraceback(consumer).orElse(null);
+      } else if (consumer.isPopulated()) {
+        consumer = onPopulated(consumer, hitEnd).orElse(null);
+      } else if (hitEnd) {
+        consumer.atEnd();
+        consumer = nextConsumingToken(consumer).orElse(null);
+      }
+    }
+    return rootToken.isPopulated() ? rootToken : null;
+  }
 
-      throw new SyntaxError("Unexpected end of input", consumer, buffer);
-    } catch (SyntaxError se) {
-      throw new RuntimeException("Syntax error at position " + position.get(), se);
-    } catch (Exception e) {
-      throw new RuntimeException(e);
-    } finally {
-      restoreLoggingLayouts();
+  /**
+   * Takes resources of the closed session of a previous parse on this thread over or creates a new session for nested
+   * parses
+   * @param buffer parser buffer
+   * @return open session
+   */
+  private ParseSession openSession(CharSequence buffer) {
+    ParseSession session = sessions.get();
+    if (session != null && !session.isOpen() && session.model() == model) {
+      ParseSession result = session.next(buffer, memoize, priorities, profile);
+      sessions.set(result);
+      return result;
     }
+    ParseSession result = new ParseSession(model, buffer, memoize ? new MemoTable() : null, priorities, profile);
+    if (session == null || session.model() != model) {
+      sessions.set(result);
+    }
+    return result;
   }
 
   /**
@@ -323,7 +957,12 @@ public class TokenGrammar<X extends Rule> {
   private static Optional<ConsumingToken<?>> processTraceback(PartialToken<?> child) {
     return child.parent().flatMap(parent -> {
       if (child.isFailed()) {
-        logger.debug("^^^--- TRACEBACK: {} <- {}", parent.tag(), child.tag());
+        ParseSession session = ParseSession.of(child);
+        session.step();
+        ParserListener listener = session.listener();
+        if (listener != null) {
+          listener.traceback(parent, child);
+        }
         parent.onChildFailed();
         if (parent.isFailed() || parent.isPopulated()) {
           if (parent.isPopulated()) {
@@ -339,7 +978,6 @@ public class TokenGrammar<X extends Rule> {
         }
         return firstUnfilledParent(parent).flatMap(TokenGrammar::nextConsumingToken);
       } else {
-        logger.debug("|||--- TRACEBACK: (self) <- {}", child.tag());
         return firstUnfilledParent(child).flatMap(TokenGrammar::nextConsumingToken);
       }
     });
@@ -351,21 +989,16 @@ public class TokenGrammar<X extends Rule> {
    * @return the first unpopulated parent
    */
   private static Optional<CompoundToken<?>> firstUnfilledParent(PartialToken<?> child) {
-    logger.debug("traversing back to first unfilled parent from {}", child.tag());
     if (child instanceof CompoundToken && !child.isFailed() && ((CompoundToken<?>)child).unfilledChildren() > 0) {
-      logger.debug("<<<--- NEXT UNFILLED: (self) <--- {}", child.tag());
       return Optional.of((CompoundToken<?>)child);
     }
 
     return Optional.ofNullable(
         child.parent().flatMap(parent -> {
-          logger.debug("parent: {}", parent.tag());
           parent.onChildPopulated();
           if (parent.isPopulated()) {
-            logger.debug("^^^--- NEXT UNFILLED: {} <-?- {}", parent.tag(), child.tag());
             return firstUnfilledParent(parent);
           } else {
-            logger.debug("<<<--- NEXT UNFILLED: {} <--- {}", parent.tag(), child.tag());
             return Optional.of(parent);
           }
         }).orElseGet(() -> {
@@ -387,16 +1020,12 @@ public class TokenGrammar<X extends Rule> {
   public static Optional<ConsumingToken<?>> nextConsumingToken(CompoundToken<?> from) {
     while (from != null) {
       PartialToken<?> child = from.nextChild().orElse(null);
-      logger.debug("Searching for next consumer in child {}", child == null ? null : child.tag());
       if (child instanceof ConsumingToken) {
-        logger.debug("--->>> NEXT CONSUMER: {} ---> {}", from.tag(), child.tag());
         return Optional.of((ConsumingToken<?>)child);
       } else if (child instanceof CompoundToken) {
-        logger.debug("--->>> searching for next consumer in {} --> {}", from.tag(), child.tag());
         from = (CompoundToken)child;
       } else if (child == null) {
         CompoundToken<?> parent = from.parent().orElse(null);
-        logger.debug("^^^--- searching for next consumer in parent {} <--- {}", parent == null ? null : parent.tag(), from.tag());
         if (from.isFailed()) {
           logger.debug("notifying parent about child failure");
           return processTraceback(from);
@@ -410,7 +1039,6 @@ public class TokenGrammar<X extends Rule> {
         throw new RuntimeException("Unknown child type: " + child.getClass());
       }
     }
-    logger.debug("---XXX NEXT CONSUMER: {} ---> XXX (not found)", from == null ? null : from.tag());
     return Optional.empty();
   }
 
@@ -458,35 +1086,6 @@ public class TokenGrammar<X extends Rule> {
     return result;
   }
 
-  /**
-   * Configures log4j appenders with custom {@link LoggerLayout}
-   * @param buffer parser buffer to display in logs
-   * @param position supplier of current parser position to display in logs
-   */
-  private void setupLoggingLayouts(CharSequence buffer, Supplier<Integer> position) {
-    Enumeration<Appender> appenders = org.apache.log4j.Logger.getRootLogger().getAllAppenders();
-    while(appenders.hasMoreElements()) {
-      Appender appender = appenders.nextElement();
-      LoggerLayout loggerLayout = new LoggerLayout(appender.getLayout(), buffer, position);
-      appender.setLayout(loggerLayout);
-    }
-  }
-
-  /**
-   * Removes custom {@link LoggerLayout} configurations from log4j appenders
-   */
-  private void restoreLoggingLayouts() {
-    Enumeration<Appender> appenders = org.apache.log4j.Logger.getRootLogger().getAllAppenders();
-    while(appenders.hasMoreElements()) {
-      Appender appender = appenders.nextElement();
-      Layout layout = appender.getLayout();
-      if (layout instanceof LoggerLayout) {
-        LoggerLayout loggerLayout = (LoggerLayout) layout;
-        appender.setLayout(loggerLayout.parent());
-      }
-    }
-  }
-
   public static <X extends Rule> boolean isRule(Class<? extends X> aClass) {
     return Arrays.stream(aClass.getInterfaces())
         .anyMatch(Rule.class::equals);
@@ -506,6 +1105,8 @@ public Class<X> getType() {
 
 public void setType(Class<X> type) {
 	this.type = type;
+	compile(type);
+	this.priorities = new VariantPriorities();
 }
 
 public Class getMetaType() {
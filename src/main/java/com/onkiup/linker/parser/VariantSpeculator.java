@@ -0,0 +1,162 @@
+package com.onkiup.linker.parser;
+
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.onkiup.linker.parser.grammar.GrammarModel;
+import com.onkiup.linker.parser.grammar.VariantPriorities;
+import com.onkiup.linker.parser.token.CompoundToken;
+import com.onkiup.linker.parser.token.MemoTable;
+import com.onkiup.linker.parser.token.RuleToken;
+import com.onkiup.linker.parser.util.TagIndex;
+
+/**
+ * Tests several junction variants in parallel before the parser tries them one by one.
+ * Each variant is matched against parser input by an isolated parse with its own {@link ParseSession}; as soon as
+ * a variant matches, speculative parses of all lower-priority variants are cancelled. The parser then skips
+ * higher-priority variants that were proven to fail and continues sequentially from the first matching variant, so
+ * speculation never changes parse results, only the time it takes to reach them. When tracing back could not change
+ * the match of the first matching variant (see {@link RuleToken#replay()}), the parser takes its subtree over into
+ * its own session (see {@link RuleToken#speculated}) instead of matching the variant again. Speculative parses update private copies of dynamic variant priorities, so that variant order in
+ * the speculating parse does not depend on timing of pool threads. Their steps are counted against the step limit and
+ * the deadline of the speculating parse (see {@link ParseLimits}), and a speculative parse that exceeds them aborts
+ * the speculating parse with {@link ParseLimitExceeded}
+ */
+public final class VariantSpeculator {
+  private static final Logger logger = LoggerFactory.getLogger(VariantSpeculator.class);
+
+  private final ForkJoinPool pool;
+  private final int width;
+
+  /**
+   * @param pool pool to run speculative parses on
+   * @param width maximal number of variants to test in parallel
+   */
+  public VariantSpeculator(ForkJoinPool pool, int width) {
+    if (width < 2) {
+      throw new IllegalArgumentException("Speculation width should be at least 2");
+    }
+    this.pool = pool;
+    this.width = width;
+  }
+
+  /**
+   * @return maximal number of variants tested in parallel
+   */
+  public int width() {
+    return width;
+  }
+
+  /**
+   * Outcome of a speculative test of a junction variant
+   */
+  public static final class Result {
+    private static final Result UNKNOWN = new Result(TagIndex.UNKNOWN, null);
+    private static final Result INCOMPATIBLE = new Result(TagIndex.INCOMPATIBLE, null);
+
+    private final int tag;
+    private final MemoTable.Entry match;
+
+    private Result(int tag, MemoTable.Entry match) {
+      this.tag = tag;
+      this.match = match;
+    }
+
+    /**
+     * @return {@link TagIndex#COMPATIBLE} if the variant matched, {@link TagIndex#INCOMPATIBLE} if it failed or
+     * {@link TagIndex#UNKNOWN} if its test was cancelled or did not complete
+     */
+    public int tag() {
+      return tag;
+    }
+
+    /**
+     * @return final match of the variant that can be replayed by the parser or null
+     */
+    public MemoTable.Entry match() {
+      return match;
+    }
+  }
+
+  /**
+   * Tests junction variants at given location in parallel
+   * @param variants concrete variants ordered by priority (at most {@link #width()} of them are tested)
+   * @param childNumbers child numbers that tokens of the variants would have in the junction
+   * @param location location of the junction in parser buffer
+   * @param session session of the parse that reached the junction
+   * @param ignoredCharacters characters ignored by the junction
+   * @return outcomes of tested variants
+   */
+  public Result[] test(Class<? extends Rule>[] variants, int[] childNumbers, ParserLocation location,
+      ParseSession session, String ignoredCharacters) {
+    int count = Math.min(width, variants.length);
+    Result[] result = new Result[count];
+    Arrays.fill(result, Result.UNKNOWN);
+    AtomicInteger winner = new AtomicInteger(count);
+    ClassLoader classLoader = ParserContext.get().classLoader();
+    session.shareSteps();
+    ForkJoinTask<Result>[] tasks = new ForkJoinTask[count];
+    for (int i = 0; i < count; i++) {
+      final int index = i;
+      tasks[i] = pool.submit(() -> test(variants[index], childNumbers[index], index, winner, location, session,
+          ignoredCharacters, classLoader));
+    }
+
+    for (int i = 0; i < count && i <= winner.get(); i++) {
+      try {
+        result[i] = tasks[i].join();
+      } catch (CancellationException e) {
+        result[i] = Result.UNKNOWN;
+      } catch (ParseLimitExceeded e) {
+        // the whole parse is aborted, so remaining tests are of no use
+        winner.set(-1);
+        for (ForkJoinTask<Result> task : tasks) {
+          task.cancel(false);
+        }
+        throw e;
+      }
+    }
+    return result;
+  }
+
+  private static Result test(Class<? extends Rule> variant, int childNumber, int index, AtomicInteger winner,
+      ParserLocation location, ParseSession parent, String ignoredCharacters, ClassLoader classLoader) {
+    ParserContext<?> context = ParserContext.get();
+    ClassLoader previousClassLoader = context.classLoader();
+    ParseSession previousSession = context.session();
+    GrammarModel model = parent.model();
+    VariantPriorities priorities = parent.priorities().copy();
+    ParseSession session = new ParseSession(model, parent.buffer(), null, priorities, null);
+    session.rootIgnoredCharacters(ignoredCharacters);
+    session.pruneVariants(parent.pruneVariants());
+    session.limits(parent);
+    context.classLoader(classLoader);
+    context.session(session);
+    try {
+      CompoundToken<?> match = TokenGrammar.matchPrefix(variant, childNumber, location, parent.buffer(),
+          () -> winner.get() < index);
+      if (match == null) {
+        return Result.INCOMPATIBLE;
+      }
+      winner.accumulateAndGet(index, Math::min);
+      return new Result(TagIndex.COMPATIBLE, match instanceof RuleToken ? ((RuleToken<?>) match).replay() : null);
+    } catch (CancellationException e) {
+      return Result.UNKNOWN;
+    } catch (ParseLimitExceeded e) {
+      throw e;
+    } catch (Exception e) {
+      logger.debug("Speculative test of {} failed", variant.getName(), e);
+      return Result.UNKNOWN;
+    } finally {
+      session.close();
+      context.session(previousSession);
+      context.classLoader(previousClassLoader);
+    }
+  }
+}
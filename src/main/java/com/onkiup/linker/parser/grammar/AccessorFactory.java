@@ -0,0 +1,47 @@
+package com.onkiup.linker.parser.grammar;
+
+import java.lang.reflect.Field;
+import java.util.function.Supplier;
+
+/**
+ * Creates accessors that the parser uses to instantiate rules and to populate their fields.
+ * Accessors are resolved once per rule/field and cached in {@link RuleModel}s and {@link FieldModel}s;
+ * by default they are backed by {@link java.lang.invoke.MethodHandle}s, but a different implementation
+ * (for example one that generates bytecode) can be installed with {@link #install(AccessorFactory)}
+ * before any grammar is created
+ */
+public interface AccessorFactory {
+
+  /**
+   * @return currently installed factory
+   */
+  static AccessorFactory get() {
+    return MethodHandleAccessorFactory.installed;
+  }
+
+  /**
+   * Replaces default accessor factory; accessors that were already resolved are not affected
+   * @param factory factory to install
+   */
+  static void install(AccessorFactory factory) {
+    MethodHandleAccessorFactory.installed = factory == null ? new MethodHandleAccessorFactory() : factory;
+  }
+
+  /**
+   * @param field field to access
+   * @return accessor for the field
+   */
+  FieldAccessor accessor(Field field);
+
+  /**
+   * @param type rule type
+   * @return supplier of new instances of the rule
+   */
+  <X> Supplier<X> instantiator(Class<X> type);
+
+  /**
+   * @param into target type
+   * @return converter of values into the target type
+   */
+  ValueConverter converter(Class<?> into);
+}
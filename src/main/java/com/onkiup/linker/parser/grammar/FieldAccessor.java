@@ -0,0 +1,20 @@
+package com.onkiup.linker.parser.grammar;
+
+/**
+ * Reads and writes values of a rule field without reflective access checks on every call
+ * @see AccessorFactory
+ */
+public interface FieldAccessor {
+
+  /**
+   * @param target object to read the field from (ignored for static fields)
+   * @return field value
+   */
+  Object get(Object target);
+
+  /**
+   * @param target object to write the field to (ignored for static fields)
+   * @param value new field value
+   */
+  void set(Object target, Object value);
+}
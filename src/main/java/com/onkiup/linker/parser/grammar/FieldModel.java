@@ -0,0 +1,195 @@
+package com.onkiup.linker.parser.grammar;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.onkiup.linker.parser.MatcherFactory;
+import com.onkiup.linker.parser.TokenMatcher;
+import com.onkiup.linker.parser.annotation.CaptureLimit;
+import com.onkiup.linker.parser.annotation.CapturePattern;
+import com.onkiup.linker.parser.annotation.ContextAware;
+import com.onkiup.linker.parser.annotation.MatchTerminal;
+import com.onkiup.linker.parser.annotation.OptionalToken;
+import com.onkiup.linker.parser.annotation.SkipIfFollowedBy;
+import com.onkiup.linker.parser.token.PartialToken;
+import com.onkiup.linker.parser.util.Utils;
+
+/**
+ * Immutable description of a grammar field.
+ * Annotations on the field are read only once and the resulting model is shared by every token created for the field
+ */
+public final class FieldModel {
+  private static final ClassValue<ConcurrentHashMap<String, FieldModel>> MODELS = new ClassValue<ConcurrentHashMap<String, FieldModel>>() {
+    @Override
+    protected ConcurrentHashMap<String, FieldModel> computeValue(Class<?> type) {
+      return new ConcurrentHashMap<>();
+    }
+  };
+
+  private final Field field;
+  private final boolean isStatic;
+  private final boolean optionalAnnotation;
+  private final OptionalToken optionalToken;
+  private final CharSequence optionalCondition;
+  private final boolean ignoreCase;
+  private final boolean contextAware;
+  private final CaptureLimit captureLimit;
+  private volatile TokenMatcher matcher;
+  private volatile FieldAccessor accessor;
+  private volatile ValueConverter converter;
+  private volatile FieldAccessor dependency;
+
+  private FieldModel(Field field) {
+    this.field = field;
+    this.isStatic = Modifier.isStatic(field.getModifiers());
+    this.optionalToken = field.getAnnotation(OptionalToken.class);
+    this.optionalAnnotation = optionalToken != null || field.isAnnotationPresent(SkipIfFollowedBy.class);
+    this.optionalCondition = PartialToken.getOptionalCondition(field).orElse(null);
+    this.ignoreCase = Utils.ignoreCase(field);
+    this.contextAware = !isStatic
+        && !field.isAnnotationPresent(CapturePattern.class)
+        && !field.isAnnotationPresent(MatchTerminal.class)
+        && field.isAnnotationPresent(ContextAware.class);
+    this.captureLimit = field.getAnnotation(CaptureLimit.class);
+    field.setAccessible(true);
+  }
+
+  /**
+   * @param field field to describe
+   * @return shared model for the field
+   */
+  public static FieldModel forField(Field field) {
+    return MODELS.get(field.getDeclaringClass()).computeIfAbsent(field.getName(), name -> new FieldModel(field));
+  }
+
+  /**
+   * @return described field
+   */
+  public Field field() {
+    return field;
+  }
+
+  /**
+   * @return declared type of the field
+   */
+  public Class<?> type() {
+    return field.getType();
+  }
+
+  /**
+   * @return field name
+   */
+  public String name() {
+    return field.getName();
+  }
+
+  /**
+   * @return true if the field is static
+   */
+  public boolean isStatic() {
+    return isStatic;
+  }
+
+  /**
+   * @return true if the field is annotated with either {@link OptionalToken} or {@link SkipIfFollowedBy}
+   */
+  public boolean hasOptionalAnnotation() {
+    return optionalAnnotation;
+  }
+
+  /**
+   * @return {@link OptionalToken} annotation of the field or null
+   */
+  public OptionalToken optionalToken() {
+    return optionalToken;
+  }
+
+  /**
+   * @return characters that must appear in place of the token in order for the token to be considered optional
+   */
+  public CharSequence optionalCondition() {
+    return optionalCondition;
+  }
+
+  /**
+   * @return true if matchers for this field should ignore character case
+   */
+  public boolean ignoreCase() {
+    return ignoreCase;
+  }
+
+  /**
+   * @return true if the matcher for this field depends on values of other fields and cannot be shared
+   */
+  public boolean isContextAware() {
+    return contextAware;
+  }
+
+  /**
+   * @return {@link CaptureLimit} annotation of the field or null
+   */
+  public CaptureLimit captureLimit() {
+    return captureLimit;
+  }
+
+  /**
+   * Resolves (once) a matcher for this field
+   * @return shared matcher for this field or null for context-aware fields
+   * @throws IllegalArgumentException if the field is misconfigured
+   */
+  public TokenMatcher matcher() {
+    if (contextAware) {
+      return null;
+    }
+    TokenMatcher result = matcher;
+    if (result == null) {
+      result = matcher = MatcherFactory.forField(field);
+    }
+    return result;
+  }
+
+  /**
+   * Resolves (once) an accessor for this field
+   * @return shared accessor for this field
+   */
+  public FieldAccessor accessor() {
+    FieldAccessor result = accessor;
+    if (result == null) {
+      result = accessor = AccessorFactory.get().accessor(field);
+    }
+    return result;
+  }
+
+  /**
+   * Resolves (once) a converter of token values into the type of this field
+   * @return shared converter for this field
+   */
+  public ValueConverter converter() {
+    ValueConverter result = converter;
+    if (result == null) {
+      result = converter = AccessorFactory.get().converter(field.getType());
+    }
+    return result;
+  }
+
+  /**
+   * Resolves (once) an accessor for the field referenced by {@link ContextAware#matchField()}
+   * @return shared accessor for the dependency field
+   * @throws NoSuchFieldException if the declaring class has no such field
+   */
+  public FieldAccessor dependency() throws NoSuchFieldException {
+    FieldAccessor result = dependency;
+    if (result == null) {
+      ContextAware contextAware = field.getAnnotation(ContextAware.class);
+      Field target = field.getDeclaringClass().getDeclaredField(contextAware.matchField());
+      result = dependency = AccessorFactory.get().accessor(target);
+    }
+    return result;
+  }
+
+  @Override
+  public String toString() {
+    return "FieldModel[" + field + "]";
+  }
+}
@@ -0,0 +1,289 @@
+package com.onkiup.linker.parser.grammar;
+
+import java.util.BitSet;
+
+import com.onkiup.linker.parser.annotation.CapturePattern;
+
+/**
+ * Immutable set of characters that a grammar token can start with (FIRST set).
+ * Sets are conservative: a set that cannot be computed precisely either accepts any character or
+ * includes more characters than the token can actually start with
+ */
+public final class FirstSet {
+  /**
+   * A set that accepts any character
+   */
+  public static final FirstSet ANY = new FirstSet(null, true);
+  /**
+   * An empty set that does not accept anything (used as a starting point of grammar analysis)
+   */
+  public static final FirstSet NONE = new FirstSet(new BitSet(), false);
+  /**
+   * A set of a token that can match empty input
+   */
+  public static final FirstSet EMPTY = new FirstSet(new BitSet(), true);
+
+  private static final String WHITESPACE = " \t\n\u000B\f\r";
+
+  private final BitSet characters;
+  private final boolean nullable;
+
+  private FirstSet(BitSet characters, boolean nullable) {
+    this.characters = characters;
+    this.nullable = nullable;
+  }
+
+  /**
+   * @param characters characters the token can start with
+   * @param ignoreCase whether the token ignores character case
+   * @return a set of given characters
+   */
+  public static FirstSet of(CharSequence characters, boolean ignoreCase) {
+    BitSet result = new BitSet();
+    for (int i = 0; i < characters.length(); i++) {
+      add(result, characters.charAt(i), ignoreCase);
+    }
+    return new FirstSet(result, false);
+  }
+
+  /**
+   * Restores a set from its {@link #characters()} (used when loading {@link GrammarSnapshot}s)
+   * @param characters characters the token can start with or null for {@link #ANY}
+   * @param nullable whether the token can match empty input
+   * @return restored set
+   */
+  static FirstSet of(BitSet characters, boolean nullable) {
+    return characters == null ? ANY : new FirstSet(characters, nullable);
+  }
+
+  /**
+   * @param terminal terminal string
+   * @param ignoreCase whether the terminal is matched ignoring character case
+   * @return a set that contains only the first character of the terminal
+   */
+  public static FirstSet ofTerminal(String terminal, boolean ignoreCase) {
+    if (terminal == null || terminal.length() == 0) {
+      return EMPTY;
+    }
+    return of(terminal.substring(0, 1), ignoreCase);
+  }
+
+  /**
+   * @param pattern capture pattern annotation
+   * @param ignoreCase whether the pattern is matched ignoring character case
+   * @return a set of characters the pattern can start with
+   */
+  public static FirstSet ofPattern(CapturePattern pattern, boolean ignoreCase) {
+    if (pattern.until().length() > 0) {
+      return ANY;
+    }
+    return ofRegex(pattern.pattern().length() > 0 ? pattern.pattern() : pattern.value(), ignoreCase);
+  }
+
+  /**
+   * Analyses the leading atom of a regular expression. Only literals, escapes and simple character classes
+   * are analysed; any other construct (groups, alternations, wildcards, optional leading atoms) results in {@link #ANY}
+   * @param regex regular expression
+   * @param ignoreCase whether the expression is matched ignoring character case
+   * @return a set of characters the expression can start with
+   */
+  public static FirstSet ofRegex(String regex, boolean ignoreCase) {
+    if (regex.indexOf('|') > -1) {
+      return ANY;
+    }
+    int position = regex.startsWith("^") ? 1 : 0;
+    if (position >= regex.length()) {
+      return EMPTY;
+    }
+
+    BitSet result = new BitSet();
+    char atom = regex.charAt(position);
+    if (atom == '[') {
+      position = readClass(regex, position + 1, result, ignoreCase);
+    } else if (atom == '\\') {
+      position = readEscape(regex, position + 1, result, ignoreCase);
+    } else if ("().*+?{}$".indexOf(atom) > -1) {
+      return ANY;
+    } else {
+      add(result, atom, ignoreCase);
+      position++;
+    }
+
+    if (position < 0) {
+      return ANY;
+    }
+    if (position < regex.length()) {
+      char quantifier = regex.charAt(position);
+      if (quantifier == '?' || quantifier == '*' || regex.startsWith("{0", position)) {
+        return ANY;
+      }
+    }
+    return new FirstSet(result, false);
+  }
+
+  /**
+   * @param other another set
+   * @return union of both sets (nullable if any of the sets is nullable)
+   */
+  public FirstSet union(FirstSet other) {
+    if (isAny() || other.isAny()) {
+      return ANY;
+    }
+    BitSet result = (BitSet) characters.clone();
+    result.or(other.characters);
+    return new FirstSet(result, nullable || other.nullable);
+  }
+
+  /**
+   * @param nullable whether resulting set should be nullable
+   * @return a copy of this set with given nullability
+   */
+  public FirstSet nullable(boolean nullable) {
+    if (isAny() || this.nullable == nullable) {
+      return this;
+    }
+    return new FirstSet(characters, nullable);
+  }
+
+  /**
+   * @return true if this set accepts any character
+   */
+  public boolean isAny() {
+    return characters == null;
+  }
+
+  /**
+   * @return true if the token can match empty input (and thus start with whatever follows it)
+   */
+  public boolean isNullable() {
+    return nullable;
+  }
+
+  /**
+   * @return a copy of characters in this set or null if this set accepts any character
+   */
+  BitSet characters() {
+    return characters == null ? null : (BitSet) characters.clone();
+  }
+
+  /**
+   * @param character character to test
+   * @return false only if the token definitely cannot start with the character
+   */
+  public boolean test(char character) {
+    return characters == null || nullable || characters.get(character);
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    if (this == other) {
+      return true;
+    }
+    if (!(other instanceof FirstSet)) {
+      return false;
+    }
+    FirstSet that = (FirstSet) other;
+    return nullable == that.nullable && (characters == null ? that.characters == null : characters.equals(that.characters));
+  }
+
+  @Override
+  public int hashCode() {
+    return (characters == null ? 0 : characters.hashCode()) * 31 + (nullable ? 1 : 0);
+  }
+
+  @Override
+  public String toString() {
+    return isAny() ? "FirstSet[*]" : "FirstSet[" + characters + (nullable ? ", nullable]" : "]");
+  }
+
+  private static void add(BitSet target, char character, boolean ignoreCase) {
+    target.set(character);
+    if (ignoreCase) {
+      target.set(Character.toLowerCase(character));
+      target.set(Character.toUpperCase(character));
+    }
+  }
+
+  /**
+   * Reads an escape sequence
+   * @return position after the escape sequence or -1 if the sequence is not supported
+   */
+  private static int readEscape(String regex, int position, BitSet target, boolean ignoreCase) {
+    if (position >= regex.length()) {
+      return -1;
+    }
+    char escaped = regex.charAt(position);
+    switch (escaped) {
+      case 'd':
+        target.set('0', '9' + 1);
+        break;
+      case 's':
+        for (int i = 0; i < WHITESPACE.length(); i++) {
+          target.set(WHITESPACE.charAt(i));
+        }
+        break;
+      case 'w':
+        target.set('a', 'z' + 1);
+        target.set('A', 'Z' + 1);
+        target.set('0', '9' + 1);
+        target.set('_');
+        break;
+      case 't':
+        target.set('\t');
+        break;
+      case 'n':
+        target.set('\n');
+        break;
+      case 'r':
+        target.set('\r');
+        break;
+      case 'f':
+        target.set('\f');
+        break;
+      default:
+        if (Character.isLetterOrDigit(escaped)) {
+          return -1;
+        }
+        add(target, escaped, ignoreCase);
+    }
+    return position + 1;
+  }
+
+  /**
+   * Reads a simple (non-negated, non-nested) character class
+   * @return position after the class or -1 if the class is not supported
+   */
+  private static int readClass(String regex, int position, BitSet target, boolean ignoreCase) {
+    if (position >= regex.length() || regex.charAt(position) == '^') {
+      return -1;
+    }
+    boolean first = true;
+    while (position < regex.length()) {
+      char current = regex.charAt(position);
+      if (current == ']' && !first) {
+        return position + 1;
+      } else if (current == '[' || regex.startsWith("&&", position)) {
+        return -1;
+      } else if (current == '\\') {
+        position = readEscape(regex, position + 1, target, ignoreCase);
+        if (position < 0) {
+          return -1;
+        }
+      } else if (position + 2 < regex.length() && regex.charAt(position + 1) == '-' && regex.charAt(position + 2) != ']') {
+        char to = regex.charAt(position + 2);
+        if (to == '\\' || to < current) {
+          return -1;
+        }
+        for (int c = current; c <= to; c++) {
+          add(target, (char) c, ignoreCase);
+        }
+        position += 3;
+      } else {
+        add(target, current, ignoreCase);
+        position++;
+      }
+      first = false;
+    }
+    return -1;
+  }
+}
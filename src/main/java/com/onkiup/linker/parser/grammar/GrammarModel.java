@@ -0,0 +1,266 @@
+package com.onkiup.linker.parser.grammar;
+
+import java.lang.reflect.Field;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.onkiup.linker.parser.Rule;
+import com.onkiup.linker.parser.annotation.CapturePattern;
+import com.onkiup.linker.parser.annotation.MatchTerminal;
+import com.onkiup.linker.parser.util.Utils;
+
+/**
+ * Immutable set of {@link RuleModel}s reachable from a grammar's root rule.
+ * Compiling the model up front moves all annotation lookups and matcher construction out of the parser loop
+ */
+public final class GrammarModel {
+  private static final Logger logger = LoggerFactory.getLogger(GrammarModel.class);
+
+  private final Class<? extends Rule> root;
+  private final Map<Class<?>, RuleModel<?>> rules;
+  private final Map<Class<?>, FirstSet> firstSets;
+  private final Map<Class<?>, Integer> ids = new HashMap<>();
+  private final Class<?>[] types;
+
+  private GrammarModel(Class<? extends Rule> root, Map<Class<?>, RuleModel<?>> rules, Map<Class<?>, FirstSet> firstSets) {
+    this.root = root;
+    this.rules = Collections.unmodifiableMap(rules);
+    this.firstSets = firstSets;
+    types = new Class[rules.size()];
+    for (Class<?> type : rules.keySet()) {
+      types[ids.size()] = type;
+      ids.put(type, ids.size());
+    }
+  }
+
+  /**
+   * Walks through all rules reachable from the root rule and resolves models for them
+   * @param root root rule of the grammar
+   * @return compiled grammar model
+   */
+  public static GrammarModel compile(Class<? extends Rule> root) {
+    JunctionRegistry junctions = JunctionRegistry.forClassLoader(root.getClassLoader());
+    Map<Class<?>, RuleModel<?>> rules = new LinkedHashMap<>();
+    LinkedList<Class<?>> queue = new LinkedList<>();
+    queue.add(root);
+    while (!queue.isEmpty()) {
+      Class<?> type = queue.poll();
+      if (rules.containsKey(type)) {
+        continue;
+      }
+      RuleModel<?> model = RuleModel.forClass(type);
+      rules.put(type, model);
+
+      if (!model.isConcrete()) {
+        if (Rule.class.isAssignableFrom(type)) {
+          Collections.addAll(queue, junctions.variants((Class<? extends Rule>) type));
+        }
+        continue;
+      }
+
+      model.instantiator();
+      for (FieldModel field : model.fieldModels()) {
+        if (!field.isStatic()) {
+          field.accessor();
+          field.converter();
+        }
+        Class<?> fieldType = field.type();
+        if (fieldType.isArray()) {
+          fieldType = fieldType.getComponentType();
+        }
+        if (Rule.class.isAssignableFrom(fieldType)) {
+          queue.add(fieldType);
+        } else if (fieldType == String.class) {
+          try {
+            field.matcher();
+          } catch (Exception e) {
+            // will be reported if the parser ever reaches the field
+            logger.debug("Failed to resolve matcher for field {}", field.field(), e);
+          }
+        }
+      }
+    }
+    Map<Class<?>, FirstSet> firstSets = firstSets(rules, junctions);
+    logger.debug("Compiled grammar model for {} with {} rules", root.getName(), rules.size());
+    return new GrammarModel(root, rules, firstSets);
+  }
+
+  /**
+   * Recreates a compiled model without analysing the grammar (used when loading {@link GrammarSnapshot}s)
+   * @param root root rule of the grammar
+   * @param types rules reachable from the root rule, ordered by their ids
+   * @param firstSets FIRST sets of the rules
+   * @return restored grammar model
+   */
+  static GrammarModel restore(Class<? extends Rule> root, Collection<Class<?>> types, Map<Class<?>, FirstSet> firstSets) {
+    Map<Class<?>, RuleModel<?>> rules = new LinkedHashMap<>();
+    for (Class<?> type : types) {
+      rules.put(type, RuleModel.forClass(type));
+    }
+    return new GrammarModel(root, rules, new HashMap<>(firstSets));
+  }
+
+  /**
+   * @return root rule of the grammar
+   */
+  public Class<? extends Rule> root() {
+    return root;
+  }
+
+  /**
+   * @param type rule class
+   * @return model for the rule
+   */
+  public <X> RuleModel<X> rule(Class<X> type) {
+    RuleModel<X> result = (RuleModel<X>) rules.get(type);
+    return result == null ? RuleModel.forClass(type) : result;
+  }
+
+  /**
+   * @return models of all rules reachable from the root rule
+   */
+  public Collection<RuleModel<?>> rules() {
+    return rules.values();
+  }
+
+  /**
+   * @param type rule class
+   * @return dense id of the rule within this grammar or -1 if the rule is not reachable from the root rule
+   */
+  public int ruleId(Class<?> type) {
+    Integer result = ids.get(type);
+    return result == null ? -1 : result;
+  }
+
+  /**
+   * @param id dense rule id (see {@link #ruleId(Class)})
+   * @return rule class with given id or null if there is no such rule
+   */
+  public Class<?> ruleType(int id) {
+    return id < 0 || id >= types.length ? null : types[id];
+  }
+
+  /**
+   * @return number of rules reachable from the root rule
+   */
+  public int ruleCount() {
+    return ids.size();
+  }
+
+  /**
+   * @param type rule class
+   * @return set of characters tokens of the rule can start with ({@link FirstSet#ANY} for unknown rules)
+   */
+  public FirstSet firstSet(Class<?> type) {
+    return firstSets.getOrDefault(type, FirstSet.ANY);
+  }
+
+  /**
+   * Computes FIRST sets of all grammar rules by iterating until none of the sets changes
+   * (sets only grow, so left-recursive rules converge to the union of their non-recursive alternatives)
+   */
+  private static Map<Class<?>, FirstSet> firstSets(Map<Class<?>, RuleModel<?>> rules, JunctionRegistry junctions) {
+    Map<Class<?>, FirstSet> result = new HashMap<>();
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      for (RuleModel<?> rule : rules.values()) {
+        FirstSet computed = firstSet(rule, result, junctions);
+        if (!computed.equals(result.put(rule.type(), computed))) {
+          changed = true;
+        }
+      }
+    }
+    return result;
+  }
+
+  private static FirstSet firstSet(RuleModel<?> rule, Map<Class<?>, FirstSet> known, JunctionRegistry junctions) {
+    Class<?> type = rule.type();
+    FirstSet result = FirstSet.NONE;
+    if (!rule.isConcrete()) {
+      if (!Rule.class.isAssignableFrom(type)) {
+        return FirstSet.ANY;
+      }
+      for (Class<?> variant : junctions.variants((Class<? extends Rule>) type)) {
+        result = result.union(known.getOrDefault(variant, FirstSet.NONE));
+      }
+      return withIgnoredCharacters(rule, result);
+    }
+
+    for (FieldModel field : rule.fieldModels()) {
+      FirstSet fieldSet = firstSet(field, known);
+      result = result.union(fieldSet.nullable(false));
+      if (!fieldSet.isNullable() && !field.hasOptionalAnnotation()) {
+        return withIgnoredCharacters(rule, result);
+      }
+    }
+    return withIgnoredCharacters(rule, result.nullable(true));
+  }
+
+  private static FirstSet firstSet(FieldModel field, Map<Class<?>, FirstSet> known) {
+    Class<?> type = field.type();
+    if (type.isArray()) {
+      FirstSet member = memberSet(type.getComponentType(), field, known);
+      boolean required = field.captureLimit() != null && field.captureLimit().min() > 0;
+      return required ? member : member.nullable(true);
+    }
+    return memberSet(type, field, known);
+  }
+
+  private static FirstSet memberSet(Class<?> type, FieldModel field, Map<Class<?>, FirstSet> known) {
+    try {
+      if (Rule.class.isAssignableFrom(type)) {
+        return known.getOrDefault(type, FirstSet.NONE);
+      } else if (type == String.class) {
+        return stringSet(field);
+      } else if (type.isEnum()) {
+        return enumSet(type, field.ignoreCase());
+      }
+    } catch (Exception e) {
+      logger.debug("Failed to compute FIRST set for field {}", field.field(), e);
+    }
+    return FirstSet.ANY;
+  }
+
+  private static FirstSet stringSet(FieldModel field) {
+    Field target = field.field();
+    if (field.isStatic()) {
+      Object terminal = field.accessor().get(null);
+      return terminal instanceof String ? FirstSet.ofTerminal((String) terminal, field.ignoreCase()) : FirstSet.ANY;
+    } else if (target.isAnnotationPresent(CapturePattern.class)) {
+      return FirstSet.ofPattern(target.getAnnotation(CapturePattern.class), field.ignoreCase());
+    } else if (target.isAnnotationPresent(MatchTerminal.class)) {
+      return FirstSet.ofTerminal(target.getAnnotation(MatchTerminal.class).value(), field.ignoreCase());
+    }
+    // context-aware fields
+    return FirstSet.ANY;
+  }
+
+  private static FirstSet enumSet(Class<?> type, boolean ignoreCaseFromTarget) throws NoSuchFieldException {
+    FirstSet result = FirstSet.NONE;
+    for (Object constant : type.getEnumConstants()) {
+      Field constantField = type.getDeclaredField(((Enum<?>) constant).name());
+      boolean ignoreCase = ignoreCaseFromTarget || Utils.ignoreCase(constantField);
+      CapturePattern pattern = constantField.getAnnotation(CapturePattern.class);
+      MatchTerminal terminal = constantField.getAnnotation(MatchTerminal.class);
+      result = result.union(pattern != null ? FirstSet.ofPattern(pattern, ignoreCase) :
+          FirstSet.ofTerminal(terminal != null ? terminal.value() : constant.toString(), ignoreCase));
+    }
+    return result;
+  }
+
+  /**
+   * Adds characters ignored by the rule, as tokens of the rule skip them before matching anything
+   */
+  private static FirstSet withIgnoredCharacters(RuleModel<?> rule, FirstSet result) {
+    String ignored = rule.ignoreCharacters();
+    return ignored == null ? result : result.union(FirstSet.of(ignored, false));
+  }
+}
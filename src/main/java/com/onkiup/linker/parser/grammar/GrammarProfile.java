@@ -0,0 +1,179 @@
+package com.onkiup.linker.parser.grammar;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Hit and miss statistics of junction variants collected while parsing a representative corpus.
+ * Profiles are stored as text (one "junction variant hits misses" line per variant) and can be loaded on startup
+ * to set initial variant priorities instead of learning them from scratch after every deploy
+ */
+public final class GrammarProfile {
+  /**
+   * System property with the path to a profile that grammars should load when created
+   */
+  public static final String PROFILE = "linker.parser.profile";
+  /**
+   * Maximal absolute value of priorities derived from a profile
+   */
+  public static final int SCALE = 1000;
+
+  private static final Logger logger = LoggerFactory.getLogger(GrammarProfile.class);
+  private static final String HEADER = "# linker-parser profile v1";
+
+  private final ConcurrentHashMap<Class<?>, ConcurrentHashMap<Class<?>, Counters>> junctions = new ConcurrentHashMap<>();
+
+  /**
+   * Records a successful match of a junction variant
+   * @param junction grammar junction
+   * @param variant matched variant
+   */
+  public void hit(Class<?> junction, Class<?> variant) {
+    counters(junction, variant).hits.increment();
+  }
+
+  /**
+   * Records a failed junction variant
+   * @param junction grammar junction
+   * @param variant failed variant
+   */
+  public void miss(Class<?> junction, Class<?> variant) {
+    counters(junction, variant).misses.increment();
+  }
+
+  /**
+   * @param junction grammar junction
+   * @param variant junction variant
+   * @return number of recorded matches
+   */
+  public long hits(Class<?> junction, Class<?> variant) {
+    Counters counters = find(junction, variant);
+    return counters == null ? 0 : counters.hits.sum();
+  }
+
+  /**
+   * @param junction grammar junction
+   * @param variant junction variant
+   * @return number of recorded failures
+   */
+  public long misses(Class<?> junction, Class<?> variant) {
+    Counters counters = find(junction, variant);
+    return counters == null ? 0 : counters.misses.sum();
+  }
+
+  /**
+   * Derives variant priorities from recorded statistics: variants that match more often than they fail get
+   * negative priorities (and are tested earlier), variants that mostly fail get positive priorities
+   * @return variant priorities in range [-{@link #SCALE}, {@link #SCALE}]
+   */
+  public Map<Class<?>, Integer> priorities() {
+    Map<Class<?>, long[]> totals = new HashMap<>();
+    junctions.forEach((junction, variants) -> variants.forEach((variant, counters) -> {
+      long[] total = totals.computeIfAbsent(variant, type -> new long[2]);
+      total[0] += counters.hits.sum();
+      total[1] += counters.misses.sum();
+    }));
+
+    Map<Class<?>, Integer> result = new HashMap<>();
+    totals.forEach((variant, total) -> {
+      long attempts = total[0] + total[1];
+      if (attempts > 0) {
+        result.put(variant, (int) ((total[1] - total[0]) * SCALE / attempts));
+      }
+    });
+    return result;
+  }
+
+  /**
+   * Sets initial priorities of variants in given priorities registry
+   * @param target priorities to update
+   */
+  public void apply(VariantPriorities target) {
+    priorities().forEach(target::priority);
+  }
+
+  /**
+   * Writes this profile
+   * @param target writer to write the profile into
+   * @throws IOException
+   */
+  public void write(Writer target) throws IOException {
+    target.write(HEADER);
+    target.write('\n');
+    Map<String, Map<String, Counters>> sorted = new TreeMap<>();
+    junctions.forEach((junction, variants) -> {
+      Map<String, Counters> sortedVariants = sorted.computeIfAbsent(junction.getName(), name -> new TreeMap<>());
+      variants.forEach((variant, counters) -> sortedVariants.put(variant.getName(), counters));
+    });
+    for (Map.Entry<String, Map<String, Counters>> junction : sorted.entrySet()) {
+      for (Map.Entry<String, Counters> variant : junction.getValue().entrySet()) {
+        target.write(junction.getKey() + ' ' + variant.getKey() + ' ' + variant.getValue().hits.sum() + ' '
+            + variant.getValue().misses.sum() + '\n');
+      }
+    }
+    target.flush();
+  }
+
+  /**
+   * Reads a profile; records that reference unknown classes are ignored
+   * @param classLoader classloader to load junctions and variants from
+   * @param source reader to read the profile from
+   * @return loaded profile
+   * @throws IOException
+   */
+  public static GrammarProfile read(ClassLoader classLoader, Reader source) throws IOException {
+    GrammarProfile result = new GrammarProfile();
+    BufferedReader reader = source instanceof BufferedReader ? (BufferedReader) source : new BufferedReader(source);
+    String line;
+    while ((line = reader.readLine()) != null) {
+      line = line.trim();
+      if (line.isEmpty() || line.startsWith("#")) {
+        continue;
+      }
+      String[] parts = line.split("\\s+");
+      if (parts.length != 4) {
+        logger.debug("Ignoring malformed profile line: {}", line);
+        continue;
+      }
+      try {
+        Class<?> junction = Class.forName(parts[0], false, classLoader);
+        Class<?> variant = Class.forName(parts[1], false, classLoader);
+        Counters counters = result.counters(junction, variant);
+        counters.hits.add(Long.parseLong(parts[2]));
+        counters.misses.add(Long.parseLong(parts[3]));
+      } catch (ClassNotFoundException | LinkageError | NumberFormatException e) {
+        logger.debug("Ignoring profile line '{}': {}", line, e.toString());
+      }
+    }
+    return result;
+  }
+
+  private Counters counters(Class<?> junction, Class<?> variant) {
+    Counters result = find(junction, variant);
+    if (result == null) {
+      result = junctions.computeIfAbsent(junction, type -> new ConcurrentHashMap<>())
+          .computeIfAbsent(variant, type -> new Counters());
+    }
+    return result;
+  }
+
+  private Counters find(Class<?> junction, Class<?> variant) {
+    Map<Class<?>, Counters> variants = junctions.get(junction);
+    return variants == null ? null : variants.get(variant);
+  }
+
+  private static final class Counters {
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+  }
+}
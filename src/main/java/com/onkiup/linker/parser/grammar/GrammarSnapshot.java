@@ -0,0 +1,405 @@
+package com.onkiup.linker.parser.grammar;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Field;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+import org.reflections.util.ClasspathHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.onkiup.linker.parser.Rule;
+
+/**
+ * Compact binary image of a compiled grammar: rules in the order of their ids, junction variant orderings, rule field
+ * layouts, FIRST sets and variant priorities.
+ * Loading a snapshot restores the {@link GrammarModel} without classpath scanning and grammar analysis.
+ * Snapshots are invalidated by a hash of bytecode of all rule classes and junction index resources they reference;
+ * unless all junctions of the grammar list their variants with {@link com.onkiup.linker.parser.annotation.Alternatives},
+ * the hash also covers a fingerprint of the classpath (sizes and modification times of jars, names and modification
+ * times of class files in directories), so that variants added to the classpath later invalidate the snapshot
+ */
+public final class GrammarSnapshot {
+  private static final Logger logger = LoggerFactory.getLogger(GrammarSnapshot.class);
+  private static final int MAGIC = 0x4C4B4753;
+  private static final short VERSION = 2;
+
+  private static final byte CONCRETE = 0;
+  private static final byte JUNCTION = 1;
+
+  private final Class<? extends Rule> root;
+  private final List<Class<?>> rules;
+  private final Map<Class<?>, Class<?>[]> variants;
+  private final Map<Class<?>, String[]> fields;
+  private final Map<Class<?>, FirstSet> firstSets;
+  private final Map<Class<?>, Integer> priorities;
+  private final byte[] hash;
+
+  private GrammarSnapshot(Class<? extends Rule> root, List<Class<?>> rules, Map<Class<?>, Class<?>[]> variants,
+      Map<Class<?>, String[]> fields, Map<Class<?>, FirstSet> firstSets, Map<Class<?>, Integer> priorities, byte[] hash) {
+    this.root = root;
+    this.rules = rules;
+    this.variants = variants;
+    this.fields = fields;
+    this.firstSets = firstSets;
+    this.priorities = priorities;
+    this.hash = hash;
+  }
+
+  /**
+   * Captures current state of a compiled grammar
+   * @param model compiled grammar model
+   * @param priorities variant priorities to store in the snapshot
+   * @return captured snapshot
+   * @throws IOException if bytecode of rule classes cannot be read
+   */
+  public static GrammarSnapshot capture(GrammarModel model, Map<Class<?>, Integer> priorities) throws IOException {
+    Class<? extends Rule> root = model.root();
+    JunctionRegistry registry = JunctionRegistry.forClassLoader(root.getClassLoader());
+    List<Class<?>> rules = new ArrayList<>(model.ruleCount());
+    Map<Class<?>, Class<?>[]> variants = new LinkedHashMap<>();
+    Map<Class<?>, String[]> fields = new LinkedHashMap<>();
+    Map<Class<?>, FirstSet> firstSets = new LinkedHashMap<>();
+    for (int id = 0; id < model.ruleCount(); id++) {
+      Class<?> type = model.ruleType(id);
+      RuleModel<?> rule = model.rule(type);
+      rules.add(type);
+      firstSets.put(type, model.firstSet(type));
+      if (rule.isConcrete()) {
+        fields.put(type, fieldNames(rule));
+      } else {
+        variants.put(type, registry.variants((Class<? extends Rule>) type));
+      }
+    }
+
+    Map<Class<?>, Integer> knownPriorities = new LinkedHashMap<>();
+    priorities.forEach((type, priority) -> {
+      if (firstSets.containsKey(type)) {
+        knownPriorities.put(type, priority);
+      }
+    });
+
+    return new GrammarSnapshot(root, rules, variants, fields, firstSets, knownPriorities,
+        hash(root.getClassLoader(), variants, fields));
+  }
+
+  /**
+   * Writes this snapshot into a stream
+   * @param target stream to write to
+   * @throws IOException
+   */
+  public void write(OutputStream target) throws IOException {
+    DataOutputStream out = new DataOutputStream(target);
+    out.writeInt(MAGIC);
+    out.writeShort(VERSION);
+    out.writeUTF(root.getName());
+    out.writeShort(hash.length);
+    out.write(hash);
+
+    out.writeInt(rules.size());
+    for (Class<?> rule : rules) {
+      out.writeUTF(rule.getName());
+      if (fields.containsKey(rule)) {
+        out.writeByte(CONCRETE);
+        writeNames(out, fields.get(rule));
+      } else {
+        out.writeByte(JUNCTION);
+        Class<?>[] junctionVariants = variants.get(rule);
+        out.writeInt(junctionVariants.length);
+        for (Class<?> variant : junctionVariants) {
+          out.writeUTF(variant.getName());
+        }
+      }
+      writeFirstSet(out, firstSets.get(rule));
+    }
+
+    out.writeInt(priorities.size());
+    for (Map.Entry<Class<?>, Integer> priority : priorities.entrySet()) {
+      out.writeUTF(priority.getKey().getName());
+      out.writeInt(priority.getValue());
+    }
+    out.flush();
+  }
+
+  /**
+   * Reads a snapshot for given root rule from a stream
+   * @param root root rule of the grammar
+   * @param source stream to read from
+   * @return loaded snapshot or empty if the snapshot was created for another grammar or is stale
+   * @throws IOException
+   */
+  public static Optional<GrammarSnapshot> read(Class<? extends Rule> root, InputStream source) throws IOException {
+    DataInputStream in = new DataInputStream(source);
+    if (in.readInt() != MAGIC || in.readShort() != VERSION) {
+      logger.info("Ignoring grammar snapshot: unsupported format");
+      return Optional.empty();
+    }
+    String rootName = in.readUTF();
+    if (!root.getName().equals(rootName)) {
+      logger.info("Ignoring grammar snapshot: created for {}, not {}", rootName, root.getName());
+      return Optional.empty();
+    }
+    byte[] hash = new byte[in.readShort()];
+    in.readFully(hash);
+
+    ClassLoader classLoader = root.getClassLoader();
+    List<Class<?>> rules = new ArrayList<>();
+    Map<Class<?>, Class<?>[]> variants = new LinkedHashMap<>();
+    Map<Class<?>, String[]> fields = new LinkedHashMap<>();
+    Map<Class<?>, FirstSet> firstSets = new LinkedHashMap<>();
+    Map<Class<?>, Integer> priorities = new LinkedHashMap<>();
+    try {
+      int ruleCount = in.readInt();
+      for (int i = 0; i < ruleCount; i++) {
+        Class<?> type = Class.forName(in.readUTF(), false, classLoader);
+        byte kind = in.readByte();
+        if (kind == CONCRETE) {
+          fields.put(type, readNames(in));
+        } else if (kind == JUNCTION) {
+          Class<?>[] junctionVariants = new Class[in.readInt()];
+          for (int j = 0; j < junctionVariants.length; j++) {
+            junctionVariants[j] = Class.forName(in.readUTF(), false, classLoader);
+          }
+          variants.put(type, junctionVariants);
+        } else {
+          throw new IOException("Unknown rule kind: " + kind);
+        }
+        rules.add(type);
+        firstSets.put(type, readFirstSet(in));
+      }
+
+      int priorityCount = in.readInt();
+      for (int i = 0; i < priorityCount; i++) {
+        priorities.put(Class.forName(in.readUTF(), false, classLoader), in.readInt());
+      }
+    } catch (ClassNotFoundException | LinkageError e) {
+      logger.info("Ignoring stale grammar snapshot: {}", e.toString());
+      return Optional.empty();
+    }
+
+    if (!MessageDigest.isEqual(hash, hash(classLoader, variants, fields))) {
+      logger.info("Ignoring stale grammar snapshot: rule classes or classpath were changed");
+      return Optional.empty();
+    }
+
+    for (Map.Entry<Class<?>, String[]> rule : fields.entrySet()) {
+      RuleModel<?> model = RuleModel.forClass(rule.getKey());
+      if (!model.isConcrete() || !Arrays.equals(fieldNames(model), rule.getValue())) {
+        logger.info("Ignoring stale grammar snapshot: field layout of {} was changed", rule.getKey().getName());
+        return Optional.empty();
+      }
+    }
+
+    return Optional.of(new GrammarSnapshot(root, rules, variants, fields, firstSets, priorities, hash));
+  }
+
+  /**
+   * Registers junction variant orderings from this snapshot with the shared {@link JunctionRegistry}, so that parsers
+   * do not scan classpath for them
+   */
+  public void apply() {
+    JunctionRegistry registry = JunctionRegistry.forClassLoader(root.getClassLoader());
+    variants.forEach(registry::variants);
+  }
+
+  /**
+   * @return grammar model restored from this snapshot (rule ids and FIRST sets are the same as in the captured model)
+   */
+  public GrammarModel model() {
+    return GrammarModel.restore(root, rules, firstSets);
+  }
+
+  /**
+   * @return root rule of the grammar
+   */
+  public Class<? extends Rule> root() {
+    return root;
+  }
+
+  /**
+   * @return junction variant orderings stored in this snapshot
+   */
+  Map<Class<?>, Class<?>[]> variants() {
+    return Collections.unmodifiableMap(variants);
+  }
+
+  /**
+   * @return variant priorities stored in this snapshot
+   */
+  public Map<Class<?>, Integer> priorities() {
+    return Collections.unmodifiableMap(priorities);
+  }
+
+  private static String[] fieldNames(RuleModel<?> rule) {
+    Field[] ruleFields = rule.fields();
+    String[] result = new String[ruleFields.length];
+    for (int i = 0; i < ruleFields.length; i++) {
+      result[i] = ruleFields[i].getName();
+    }
+    return result;
+  }
+
+  private static void writeNames(DataOutputStream out, String[] names) throws IOException {
+    out.writeInt(names.length);
+    for (String name : names) {
+      out.writeUTF(name);
+    }
+  }
+
+  private static String[] readNames(DataInputStream in) throws IOException {
+    String[] result = new String[in.readInt()];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = in.readUTF();
+    }
+    return result;
+  }
+
+  private static void writeFirstSet(DataOutputStream out, FirstSet firstSet) throws IOException {
+    BitSet characters = firstSet.characters();
+    out.writeBoolean(characters != null);
+    if (characters != null) {
+      out.writeBoolean(firstSet.isNullable());
+      long[] words = characters.toLongArray();
+      out.writeShort(words.length);
+      for (long word : words) {
+        out.writeLong(word);
+      }
+    }
+  }
+
+  private static FirstSet readFirstSet(DataInputStream in) throws IOException {
+    if (!in.readBoolean()) {
+      return FirstSet.ANY;
+    }
+    boolean nullable = in.readBoolean();
+    long[] words = new long[in.readShort()];
+    for (int i = 0; i < words.length; i++) {
+      words[i] = in.readLong();
+    }
+    return FirstSet.of(BitSet.valueOf(words), nullable);
+  }
+
+  /**
+   * Hashes bytecode of all classes referenced by a snapshot along with junction index resources and, for grammars
+   * with junctions whose variants are looked up on classpath, the classpath fingerprint, so that changed rules as well
+   * as newly added junction variants invalidate the snapshot
+   */
+  private static byte[] hash(ClassLoader classLoader, Map<Class<?>, Class<?>[]> variants, Map<Class<?>, String[]> fields)
+      throws IOException {
+    TreeMap<String, Class<?>> classes = new TreeMap<>();
+    fields.keySet().forEach(type -> classes.put(type.getName(), type));
+    boolean scanned = false;
+    for (Map.Entry<Class<?>, Class<?>[]> junction : variants.entrySet()) {
+      classes.put(junction.getKey().getName(), junction.getKey());
+      for (Class<?> variant : junction.getValue()) {
+        classes.put(variant.getName(), variant);
+      }
+      scanned |= RuleModel.forClass(junction.getKey()).alternatives() == null;
+    }
+
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      byte[] buffer = new byte[8192];
+      List<URL> resources = new ArrayList<>();
+      for (Class<?> type : classes.values()) {
+        digest.update(type.getName().getBytes(StandardCharsets.UTF_8));
+        URL resource = type.getResource(classFile(type));
+        if (resource != null) {
+          resources.add(resource);
+        }
+      }
+      if (classLoader != null) {
+        Enumeration<URL> indexes = classLoader.getResources(JunctionRegistry.INDEX);
+        resources.addAll(Collections.list(indexes));
+      }
+      for (URL resource : resources) {
+        try (InputStream stream = resource.openStream()) {
+          for (int read = stream.read(buffer); read > -1; read = stream.read(buffer)) {
+            digest.update(buffer, 0, read);
+          }
+        }
+      }
+      if (scanned && classLoader != null) {
+        Set<URL> roots = new LinkedHashSet<>(ClasspathHelper.forClassLoader(classLoader));
+        roots.addAll(ClasspathHelper.forJavaClassPath());
+        for (URL root : roots) {
+          fingerprint(digest, root);
+        }
+      }
+      return digest.digest();
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Hashes a classpath root without reading its classes: sizes and modification times of jars, names and modification
+   * times of class files in directories
+   */
+  private static void fingerprint(MessageDigest digest, URL root) throws IOException {
+    digest.update(root.toExternalForm().getBytes(StandardCharsets.UTF_8));
+    Path path;
+    try {
+      path = "file".equals(root.getProtocol()) ? Paths.get(root.toURI()) : null;
+    } catch (URISyntaxException | IllegalArgumentException e) {
+      path = null;
+    }
+    if (path == null || !Files.exists(path)) {
+      return;
+    }
+    if (!Files.isDirectory(path)) {
+      BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+      digest.update(Long.toString(attributes.size()).getBytes(StandardCharsets.UTF_8));
+      digest.update(Long.toString(attributes.lastModifiedTime().toMillis()).getBytes(StandardCharsets.UTF_8));
+      return;
+    }
+    Path directory = path;
+    TreeMap<String, Long> classFiles = new TreeMap<>();
+    try (Stream<Path> files = Files.walk(directory)) {
+      files.filter(file -> file.toString().endsWith(".class")).forEach(file -> {
+        try {
+          classFiles.put(directory.relativize(file).toString(), Files.getLastModifiedTime(file).toMillis());
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      });
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+    for (Map.Entry<String, Long> classFile : classFiles.entrySet()) {
+      digest.update(classFile.getKey().getBytes(StandardCharsets.UTF_8));
+      digest.update(Long.toString(classFile.getValue()).getBytes(StandardCharsets.UTF_8));
+    }
+  }
+
+  private static String classFile(Class<?> type) {
+    String name = type.getName();
+    return name.substring(name.lastIndexOf('.') + 1) + ".class";
+  }
+}
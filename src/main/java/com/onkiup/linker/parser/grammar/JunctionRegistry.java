@@ -0,0 +1,345 @@
+package com.onkiup.linker.parser.grammar;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+import org.reflections.Reflections;
+import org.reflections.scanners.SubTypesScanner;
+import org.reflections.util.ClasspathHelper;
+import org.reflections.util.ConfigurationBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.onkiup.linker.parser.NonParseable;
+import com.onkiup.linker.parser.Rule;
+import com.onkiup.linker.parser.TokenGrammar;
+
+/**
+ * Process-wide registry of grammar junction implementations.
+ * Junction implementations are read from {@link #INDEX} resources generated at compile time by
+ * linker-parser-processor; classpath is scanned (only once per ClassLoader) for junctions that none of the indexes
+ * lists, so grammars from modules built without the processor are still found. Variants of indexed junctions are
+ * merged with the ones found on classpath roots that do not carry an index, so that modules built without the processor
+ * can still extend indexed junctions (jars that merge index resources when shaded should be used with
+ * {@link #IGNORE_INDEX}, as the registry cannot tell which of their variants were dropped from the merged index).
+ * Variant lists for each junction are filtered and sorted by their static priorities only once;
+ * the registry can be safely read by multiple threads.
+ * Registries hold their ClassLoaders weakly and are themselves only softly reachable from the process-wide cache, so
+ * that they do not keep unloaded grammars in memory; callers that look registries up often should keep the returned
+ * instance (as {@link com.onkiup.linker.parser.ParserContext} does) instead of calling {@link #forClassLoader(ClassLoader)}
+ */
+public final class JunctionRegistry {
+  /**
+   * Location of junction index resources
+   */
+  public static final String INDEX = "META-INF/linker-parser/junctions.index";
+  /**
+   * System property that forces the registry to scan classpath even when junction index is available
+   */
+  public static final String IGNORE_INDEX = "linker.parser.ignoreIndex";
+
+  private static final Logger logger = LoggerFactory.getLogger(JunctionRegistry.class);
+  /**
+   * Registries by their classloaders; values are soft because registries reference classes (and, through them,
+   * classloaders) that would otherwise never let the weak keys be collected
+   */
+  private static final Map<ClassLoader, SoftReference<JunctionRegistry>> REGISTRIES = new WeakHashMap<>();
+
+  private final WeakReference<ClassLoader> classLoader;
+  private final Map<String, Set<String>> index;
+  private final Set<String> indexedRoots = new HashSet<>();
+  private volatile Reflections reflections;
+  private volatile Reflections unindexedReflections;
+  private final ConcurrentHashMap<Class<?>, Set<Class<?>>> indexed = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<Class<?>, Class<?>[]> variants = new ConcurrentHashMap<>();
+
+  private JunctionRegistry(ClassLoader classLoader) {
+    this.classLoader = new WeakReference<>(classLoader);
+    this.index = Boolean.getBoolean(IGNORE_INDEX) ? null : readIndex(classLoader, indexedRoots);
+  }
+
+  /**
+   * @param classLoader a classloader to take classpath from
+   * @return shared registry for the classloader
+   */
+  public static JunctionRegistry forClassLoader(ClassLoader classLoader) {
+    if (classLoader == null) {
+      classLoader = TokenGrammar.class.getClassLoader();
+    }
+    synchronized (REGISTRIES) {
+      SoftReference<JunctionRegistry> cached = REGISTRIES.get(classLoader);
+      JunctionRegistry result = cached == null ? null : cached.get();
+      if (result == null) {
+        result = new JunctionRegistry(classLoader);
+        REGISTRIES.put(classLoader, new SoftReference<>(result));
+      }
+      return result;
+    }
+  }
+
+  /**
+   * @return classloader of this registry
+   * @throws IllegalStateException if the classloader was garbage collected
+   */
+  private ClassLoader classLoader() {
+    ClassLoader result = classLoader.get();
+    if (result == null) {
+      throw new IllegalStateException("ClassLoader of this junction registry was garbage collected");
+    }
+    return result;
+  }
+
+  /**
+   * @param parent parent type
+   * @return all known subtypes of the parent type
+   */
+  public <X> Stream<Class<? extends X>> subClasses(Class<X> parent) {
+    if (isIndexed(parent)) {
+      return (Stream) indexed.computeIfAbsent(parent, this::mergeIndexed).stream();
+    }
+    return reflections().getSubTypesOf(parent).stream();
+  }
+
+  /**
+   * @return true if this registry found compile-time junction indexes (junctions they do not list are still scanned for)
+   */
+  public boolean isIndexed() {
+    return index != null;
+  }
+
+  /**
+   * @param parent parent type
+   * @return true if subtypes of the parent type are read from compile-time junction index instead of classpath scanning
+   */
+  public boolean isIndexed(Class<?> parent) {
+    return index != null && index.containsKey(parent.getName());
+  }
+
+  /**
+   * @param junction grammar junction
+   * @return all concrete rules that implement the junction
+   */
+  public <X extends Rule> Stream<Class<? extends X>> implementations(Class<X> junction) {
+    return subClasses(junction)
+        .filter(TokenGrammar::isConcrete)
+        .filter(TokenGrammar::isRule);
+  }
+
+  /**
+   * Returns parseable variants of a grammar junction ordered by their static priorities
+   * (the ones that do not depend on parser state)
+   * @param junction grammar junction
+   * @return shared array of junction variants; callers must not modify it
+   */
+  public <X extends Rule> Class<? extends X>[] variants(Class<X> junction) {
+    return (Class<? extends X>[]) variants.computeIfAbsent(junction, type -> resolveVariants(junction));
+  }
+
+  /**
+   * Registers previously resolved variants of a junction (used when loading {@link GrammarSnapshot}s)
+   * @param junction grammar junction
+   * @param junctionVariants junction variants ordered by their static priorities
+   */
+  void variants(Class<?> junction, Class<?>[] junctionVariants) {
+    variants.putIfAbsent(junction, junctionVariants);
+  }
+
+  /**
+   * Calculates the part of variant priority that does not depend on parser state
+   * @param junction grammar junction
+   * @param variant junction variant
+   * @return static variant priority (smaller priorities are tested first)
+   */
+  public static int staticPriority(Class<?> junction, Class<?> variant) {
+    RuleModel<?> model = RuleModel.forClass(variant);
+    int result = 0;
+    if (!model.isConcrete()) {
+      result += 1000;
+    }
+
+    Class<?> leadingFieldType = model.leadingFieldType();
+    if (leadingFieldType != null && junction.isAssignableFrom(leadingFieldType)) {
+      // left-recursive variants are tested last
+      result += 99999;
+    }
+
+    return result + model.priorityAdjustment();
+  }
+
+  private Reflections reflections() {
+    if (reflections == null) {
+      synchronized (this) {
+        if (reflections == null) {
+          ClassLoader classLoader = classLoader();
+          logger.debug("Scanning classpath of {}{}", classLoader, index == null ? "" : " for junctions missing from the index");
+          reflections = new Reflections(new ConfigurationBuilder()
+              .setUrls(ClasspathHelper.forClassLoader(classLoader))
+              .setScanners(new SubTypesScanner(true))
+          );
+        }
+      }
+    }
+    return reflections;
+  }
+
+  /**
+   * @return scanner over classpath roots that do not carry a junction index or null if every root has one
+   */
+  private Reflections unindexedReflections() {
+    if (unindexedReflections == null) {
+      synchronized (this) {
+        if (unindexedReflections == null) {
+          List<URL> roots = new ArrayList<>();
+          for (URL root : ClasspathHelper.forClassLoader(classLoader())) {
+            if (!indexedRoots.contains(root(root.toExternalForm()))) {
+              roots.add(root);
+            }
+          }
+          if (roots.isEmpty()) {
+            return null;
+          }
+          logger.debug("Scanning {} classpath roots without junction index: {}", roots.size(), roots);
+          unindexedReflections = new Reflections(new ConfigurationBuilder()
+              .setUrls(roots)
+              .setScanners(new SubTypesScanner(true))
+          );
+        }
+      }
+    }
+    return unindexedReflections;
+  }
+
+  /**
+   * Normalizes a classpath root or index resource location so that both can be compared
+   * @param location external form of the location
+   * @return location of the classpath root without jar protocol, trailing separators and index resource path
+   */
+  private static String root(String location) {
+    if (location.endsWith(INDEX)) {
+      location = location.substring(0, location.length() - INDEX.length());
+    }
+    if (location.startsWith("jar:")) {
+      location = location.substring(4);
+    }
+    while (location.endsWith("/") || location.endsWith("!")) {
+      location = location.substring(0, location.length() - 1);
+    }
+    return location;
+  }
+
+  /**
+   * Reads all junction index resources available to the classloader
+   * @param classLoader classloader to read resources from
+   * @param roots receives classpath roots the index resources were read from
+   * @return junction binary names mapped to binary names of their implementations or null if there is no index
+   */
+  private static Map<String, Set<String>> readIndex(ClassLoader classLoader, Set<String> roots) {
+    try {
+      Enumeration<URL> resources = classLoader.getResources(INDEX);
+      if (!resources.hasMoreElements()) {
+        return null;
+      }
+      Map<String, Set<String>> result = new HashMap<>();
+      while (resources.hasMoreElements()) {
+        URL resource = resources.nextElement();
+        logger.debug("Reading junction index from {}", resource);
+        roots.add(root(resource.toExternalForm()));
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(resource.openStream(), StandardCharsets.UTF_8))) {
+          String line;
+          while ((line = reader.readLine()) != null) {
+            line = line.trim();
+            int separator = line.indexOf(' ');
+            if (separator < 1 || line.startsWith("#")) {
+              continue;
+            }
+            result.computeIfAbsent(line.substring(0, separator), junction -> new LinkedHashSet<>())
+                .add(line.substring(separator + 1).trim());
+          }
+        }
+      }
+      return result;
+    } catch (IOException e) {
+      logger.warn("Failed to read junction index, falling back to classpath scanning", e);
+      return null;
+    }
+  }
+
+  private Set<Class<?>> loadIndexed(Class<?> parent) {
+    Set<Class<?>> result = new LinkedHashSet<>();
+    for (String name : index.getOrDefault(parent.getName(), Collections.emptySet())) {
+      try {
+        Class<?> type = Class.forName(name, false, classLoader());
+        if (parent.isAssignableFrom(type)) {
+          result.add(type);
+        }
+      } catch (ClassNotFoundException | LinkageError e) {
+        logger.debug("Ignoring indexed subtype {} of {}: {}", name, parent.getName(), e.toString());
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Merges indexed subtypes of a junction with the ones found on classpath roots without junction index
+   * @param parent indexed junction
+   * @return all known subtypes of the junction
+   */
+  private Set<Class<?>> mergeIndexed(Class<?> parent) {
+    Set<Class<?>> result = loadIndexed(parent);
+    Reflections unindexed = unindexedReflections();
+    if (unindexed != null) {
+      for (Class<?> type : unindexed.getSubTypesOf(parent)) {
+        if (result.add(type)) {
+          logger.debug("Found subtype {} of indexed junction {} outside of indexed classpath roots", type.getName(),
+              parent.getName());
+        }
+      }
+    }
+    return result;
+  }
+
+  private <X extends Rule> Class<? extends X>[] resolveVariants(Class<X> junction) {
+    RuleModel<X> junctionModel = RuleModel.forClass(junction);
+    if (junctionModel.alternatives() != null) {
+      return junctionModel.alternatives();
+    }
+
+    Class<? extends X>[] result = implementations(junction)
+        .filter(type -> {
+          if (RuleModel.forClass(type).isIgnoredVariant()) {
+            logger.debug("Ignoring variant {} of {} -- marked with @IgnoreVariant", type.getSimpleName(), junction.getSimpleName());
+            return false;
+          }
+          if (NonParseable.class.isAssignableFrom(type)) {
+            logger.debug("Ignoring non-parseable variant {} of {}", type.getSimpleName(), junction.getSimpleName());
+            return false;
+          }
+          return true;
+        })
+        .sorted(Comparator.<Class<? extends X>>comparingInt(type -> staticPriority(junction, type))
+            .thenComparing(Class::getName))
+        .toArray(Class[]::new);
+
+    logger.debug("Resolved {} variants for junction {}: {}", result.length, junction.getName(), Arrays.toString(result));
+    return result;
+  }
+}
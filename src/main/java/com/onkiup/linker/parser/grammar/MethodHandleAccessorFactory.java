@@ -0,0 +1,155 @@
+package com.onkiup.linker.parser.grammar;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.function.Supplier;
+
+/**
+ * Default {@link AccessorFactory} that resolves {@link MethodHandle}s once and adapts them to generic signatures
+ * so they can be invoked with {@link MethodHandle#invokeExact}
+ */
+public class MethodHandleAccessorFactory implements AccessorFactory {
+  static volatile AccessorFactory installed = new MethodHandleAccessorFactory();
+
+  private static final MethodType GETTER = MethodType.methodType(Object.class, Object.class);
+  private static final MethodType SETTER = MethodType.methodType(void.class, Object.class, Object.class);
+  private static final MethodType FACTORY = MethodType.methodType(Object.class);
+  private static final MethodType CONVERTER = MethodType.methodType(Object.class, String.class);
+
+  private final MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+  @Override
+  public FieldAccessor accessor(Field field) {
+    try {
+      field.setAccessible(true);
+      MethodHandle getter = lookup.unreflectGetter(field);
+      MethodHandle setter = null;
+      if (Modifier.isStatic(field.getModifiers())) {
+        getter = MethodHandles.dropArguments(getter, 0, Object.class);
+      } else {
+        setter = lookup.unreflectSetter(field).asType(SETTER);
+      }
+      return new HandleAccessor(field, getter.asType(GETTER), setter);
+    } catch (IllegalAccessException e) {
+      throw new IllegalArgumentException("Failed to create accessor for field " + field, e);
+    }
+  }
+
+  @Override
+  public <X> Supplier<X> instantiator(Class<X> type) {
+    try {
+      Constructor<X> constructor = type.getDeclaredConstructor();
+      constructor.setAccessible(true);
+      MethodHandle factory = lookup.unreflectConstructor(constructor).asType(FACTORY);
+      return () -> {
+        try {
+          return (X) factory.invokeExact();
+        } catch (Throwable e) {
+          throw new IllegalArgumentException("Failed to instantiate rule token " + type, e);
+        }
+      };
+    } catch (NoSuchMethodException | IllegalAccessException | RuntimeException e) {
+      return () -> {
+        throw new IllegalArgumentException("Failed to instantiate rule token " + type, e);
+      };
+    }
+  }
+
+  @Override
+  public ValueConverter converter(Class<?> into) {
+    if (into.isArray()) {
+      Class<?> memberType = into.getComponentType();
+      return what -> {
+        Object[] collection = (Object[]) what;
+        Object result = Array.newInstance(memberType, collection.length);
+        for (int i = 0; i < collection.length; i++) {
+          Array.set(result, i, collection[i]);
+        }
+        return result;
+      };
+    }
+
+    MethodHandle factory = factory(into);
+    return what -> {
+      if (what == null || into.isAssignableFrom(what.getClass())) {
+        return what;
+      }
+      if (factory == null) {
+        throw new IllegalArgumentException("Unable to convert '" + what + "' into " + into
+            + ": the type has no String constructor, fromString or valueOf methods");
+      }
+      try {
+        return (Object) factory.invokeExact(what.toString());
+      } catch (Throwable e) {
+        throw new IllegalArgumentException("Unable to convert '" + what + "' into " + into, e);
+      }
+    };
+  }
+
+  /**
+   * Resolves the first available of: a public String constructor, a static fromString method and a static valueOf
+   * method, so that converters invoke a single factory instead of trying them in turn on every value
+   * @param into target type
+   * @return handle of the factory or null if the type has none
+   */
+  private MethodHandle factory(Class<?> into) {
+    try {
+      Constructor<?> constructor = into.getConstructor(String.class);
+      constructor.setAccessible(true);
+      return lookup.unreflectConstructor(constructor).asType(CONVERTER);
+    } catch (NoSuchMethodException | IllegalAccessException | RuntimeException e) {
+      // nothing to do
+    }
+    for (String name : new String[] {"fromString", "valueOf"}) {
+      try {
+        Method method = into.getMethod(name, String.class);
+        if (Modifier.isStatic(method.getModifiers())) {
+          method.setAccessible(true);
+          return lookup.unreflect(method).asType(CONVERTER);
+        }
+      } catch (NoSuchMethodException | IllegalAccessException | RuntimeException e) {
+        // nothing to do
+      }
+    }
+    return null;
+  }
+
+  private static class HandleAccessor implements FieldAccessor {
+    private final Field field;
+    private final MethodHandle getter;
+    private final MethodHandle setter;
+
+    private HandleAccessor(Field field, MethodHandle getter, MethodHandle setter) {
+      this.field = field;
+      this.getter = getter;
+      this.setter = setter;
+    }
+
+    @Override
+    public Object get(Object target) {
+      try {
+        return (Object) getter.invokeExact(target);
+      } catch (Throwable e) {
+        throw new RuntimeException("Failed to read field " + field, e);
+      }
+    }
+
+    @Override
+    public void set(Object target, Object value) {
+      if (setter == null) {
+        throw new IllegalStateException("Unable to set static field " + field);
+      }
+      try {
+        setter.invokeExact(target, value);
+      } catch (Throwable e) {
+        throw new RuntimeException("Failed to populate field " + field, e);
+      }
+    }
+  }
+}
@@ -0,0 +1,392 @@
+package com.onkiup.linker.parser.grammar;
+
+import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import com.onkiup.linker.parser.LiteralMatcher;
+import com.onkiup.linker.parser.PatternMatcher;
+import com.onkiup.linker.parser.Rule;
+import com.onkiup.linker.parser.TerminalMatcher;
+import com.onkiup.linker.parser.TokenMatcher;
+import com.onkiup.linker.parser.annotation.AdjustPriority;
+import com.onkiup.linker.parser.annotation.Alternatives;
+import com.onkiup.linker.parser.annotation.CapturePattern;
+import com.onkiup.linker.parser.annotation.IgnoreCharacters;
+import com.onkiup.linker.parser.annotation.IgnoreVariant;
+import com.onkiup.linker.parser.annotation.MatchTerminal;
+import com.onkiup.linker.parser.util.Utils;
+import com.onkiup.linker.util.TypeUtils;
+
+/**
+ * Immutable description of a grammar rule (concrete rule, grammar junction or enum terminal).
+ * Created once per class and shared between all grammars and tokens
+ * @param <X> described rule type
+ */
+public final class RuleModel<X> {
+  private static final ClassValue<RuleModel<?>> MODELS = new ClassValue<RuleModel<?>>() {
+    @Override
+    protected RuleModel<?> computeValue(Class<?> type) {
+      return new RuleModel<>(type);
+    }
+  };
+
+  private final Class<X> type;
+  private final boolean concrete;
+  private final Field[] fields;
+  private final FieldModel[] fieldModels;
+  private final String ignoreCharacters;
+  private final boolean inheritIgnoreCharacters;
+  private final Class<? extends X>[] alternatives;
+  private final boolean ignoredVariant;
+  private final boolean adjustsPriority;
+  private final int priorityAdjustment;
+  private final boolean propagatePriority;
+  private final Class<?> leadingFieldType;
+  private final boolean[] recursiveFields;
+  private final ConcurrentHashMap<String, FieldAccessor> contextFields = new ConcurrentHashMap<>();
+  private volatile Supplier<X> instantiator;
+  private volatile EnumVariants<X> enumVariants, enumVariantsIgnoringCase;
+
+  private RuleModel(Class<X> type) {
+    this.type = type;
+    this.concrete = TypeUtils.isConcrete(type);
+
+    if (concrete && !type.isEnum() && Rule.class.isAssignableFrom(type)) {
+      // 0.9:  token inheritance
+      fieldModels = Arrays.stream(Utils.getTokenFields((Class<? extends Rule>) type))
+          .map(FieldModel::forField)
+          .toArray(FieldModel[]::new);
+    } else {
+      fieldModels = new FieldModel[0];
+    }
+    fields = Arrays.stream(fieldModels).map(FieldModel::field).toArray(Field[]::new);
+
+    IgnoreCharacters ignore = type.getAnnotation(IgnoreCharacters.class);
+    ignoreCharacters = ignore == null ? null : ignore.value();
+    inheritIgnoreCharacters = ignore == null || ignore.inherit();
+
+    Alternatives alternatives = type.getAnnotation(Alternatives.class);
+    this.alternatives = alternatives == null ? null : (Class<? extends X>[]) alternatives.value();
+    ignoredVariant = type.isAnnotationPresent(IgnoreVariant.class);
+
+    AdjustPriority adjustPriority = type.getAnnotation(AdjustPriority.class);
+    adjustsPriority = adjustPriority != null;
+    priorityAdjustment = adjustsPriority ? adjustPriority.value() : 0;
+    propagatePriority = adjustsPriority && adjustPriority.propagate();
+
+    recursiveFields = new boolean[fields.length];
+    for (int i = 0; i < fields.length; i++) {
+      Class<?> fieldType = fields[i].getType();
+      recursiveFields[i] = Rule.class.isAssignableFrom(fieldType) && !TypeUtils.isConcrete(fieldType)
+          && fieldType.isAssignableFrom(type);
+    }
+
+    Field[] declared = type.getDeclaredFields();
+    leadingFieldType = declared.length > 0 ? declared[0].getType() : null;
+  }
+
+  /**
+   * @param type rule class
+   * @return shared model for the class
+   */
+  public static <X> RuleModel<X> forClass(Class<X> type) {
+    return (RuleModel<X>) MODELS.get(type);
+  }
+
+  /**
+   * @return described type
+   */
+  public Class<X> type() {
+    return type;
+  }
+
+  /**
+   * @return true if the described type is neither an interface nor an abstract class
+   */
+  public boolean isConcrete() {
+    return concrete;
+  }
+
+  /**
+   * @return token fields of the described rule; the returned array is shared and must not be modified
+   */
+  public Field[] fields() {
+    return fields;
+  }
+
+  /**
+   * @return models for token fields of the described rule; the returned array is shared and must not be modified
+   */
+  public FieldModel[] fieldModels() {
+    return fieldModels;
+  }
+
+  /**
+   * @return characters configured with {@link IgnoreCharacters} on the described type or null
+   */
+  public String ignoreCharacters() {
+    return ignoreCharacters;
+  }
+
+  /**
+   * @return false if the type is marked with {@link IgnoreCharacters} that does not inherit parent's ignored characters
+   */
+  public boolean inheritIgnoreCharacters() {
+    return inheritIgnoreCharacters;
+  }
+
+  /**
+   * Combines ignored characters of a parent token with characters ignored by the described rule
+   * @param inherited characters ignored by parent token
+   * @return characters that should be ignored by tokens of the described type
+   */
+  public String ignoreCharacters(String inherited) {
+    if (ignoreCharacters == null) {
+      return inherited;
+    }
+    if (!inheritIgnoreCharacters || inherited == null || inherited.length() == 0) {
+      return ignoreCharacters;
+    }
+    return inherited + ignoreCharacters;
+  }
+
+  /**
+   * @return variants listed with {@link Alternatives} annotation or null
+   */
+  public Class<? extends X>[] alternatives() {
+    return alternatives;
+  }
+
+  /**
+   * @return true if the type is marked with {@link IgnoreVariant}
+   */
+  public boolean isIgnoredVariant() {
+    return ignoredVariant;
+  }
+
+  /**
+   * @return true if the type is marked with {@link AdjustPriority}
+   */
+  public boolean adjustsPriority() {
+    return adjustsPriority;
+  }
+
+  /**
+   * @return value of {@link AdjustPriority} annotation or zero
+   */
+  public int priorityAdjustment() {
+    return priorityAdjustment;
+  }
+
+  /**
+   * @return value of {@link AdjustPriority#propagate()} or false
+   */
+  public boolean propagatePriority() {
+    return propagatePriority;
+  }
+
+  /**
+   * @return the type of the first field declared by the described class or null
+   */
+  public Class<?> leadingFieldType() {
+    return leadingFieldType;
+  }
+
+  /**
+   * Junctions do not test a rule as their variant when they populate the field of a token of that rule whose index
+   * is equal to the child number of the token (see left recursion handling in
+   * {@link com.onkiup.linker.parser.token.VariantToken}), so results of matching the rule may depend on that number
+   * @param childNumber child number of a token of the described rule
+   * @return the child number if results of the token depend on it or -1
+   */
+  public int recursionContext(int childNumber) {
+    return childNumber > -1 && childNumber < recursiveFields.length && recursiveFields[childNumber] ? childNumber : -1;
+  }
+
+  /**
+   * @return true if results of matching the described rule may depend on child numbers of its tokens
+   * @see #recursionContext(int)
+   */
+  public boolean hasRecursiveFields() {
+    for (boolean recursive : recursiveFields) {
+      if (recursive) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Resolves (once) an accessor for a public field that is referenced by context-aware annotations
+   * @param name field name
+   * @return shared accessor for the field
+   * @throws NoSuchFieldException if there is no such public field
+   */
+  public FieldAccessor contextField(String name) throws NoSuchFieldException {
+    FieldAccessor result = contextFields.get(name);
+    if (result == null) {
+      result = AccessorFactory.get().accessor(type.getField(name));
+      contextFields.put(name, result);
+    }
+    return result;
+  }
+
+  /**
+   * Resolves (once) a supplier of new instances of the described rule
+   * @return shared instantiator for the described rule
+   */
+  public Supplier<X> instantiator() {
+    Supplier<X> result = instantiator;
+    if (result == null) {
+      result = instantiator = AccessorFactory.get().instantiator(type);
+    }
+    return result;
+  }
+
+  /**
+   * Resolves (once) matchers for constants of the described enum
+   * @param ignoreCase whether the target field ignores character case
+   * @return enum constants and matchers for them
+   */
+  public EnumVariants<X> enumVariants(boolean ignoreCase) {
+    EnumVariants<X> result = ignoreCase ? enumVariantsIgnoringCase : enumVariants;
+    if (result == null) {
+      result = new EnumVariants<>(type, ignoreCase);
+      if (ignoreCase) {
+        enumVariantsIgnoringCase = result;
+      } else {
+        enumVariants = result;
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public String toString() {
+    return "RuleModel[" + type.getName() + "]";
+  }
+
+  /**
+   * Enum constants along with matchers for them.
+   * Constants matched by literals (terminals or constant names) are combined into a single {@link LiteralMatcher}
+   * that resolves them in one pass with longest-match semantics; constants with capture patterns are tested one by
+   * one after it, in declaration order
+   * @param <X> enum type
+   */
+  public static final class EnumVariants<X> {
+    private final X[] constants;
+    private final TokenMatcher[] matchers;
+    private final LiteralMatcher literals;
+    /**
+     * Indexes of constants matched by {@link #literals}, by literal index
+     */
+    private final int[] literalConstants;
+    /**
+     * Indexes of constants matched by capture patterns (or by empty terminals)
+     */
+    private final int[] patternConstants;
+
+    private EnumVariants(Class<X> enumType, boolean ignoreCaseFromTarget) {
+      constants = enumType.getEnumConstants();
+      matchers = new TokenMatcher[constants.length];
+      String[] literalValues = new String[constants.length];
+      boolean[] literalCases = new boolean[constants.length];
+      int[] literalConstants = new int[constants.length];
+      int[] patternConstants = new int[constants.length];
+      int literalCount = 0, patternCount = 0;
+      for (int i = 0; i < constants.length; i++) {
+        X variant = constants[i];
+        try {
+          Field variantField = enumType.getDeclaredField(((Enum) variant).name());
+          CapturePattern pattern = variantField.getAnnotation(CapturePattern.class);
+          MatchTerminal terminal = variantField.getAnnotation(MatchTerminal.class);
+          boolean ignoreCase = ignoreCaseFromTarget || Utils.ignoreCase(variantField);
+          if (pattern != null) {
+            matchers[i] = new PatternMatcher(pattern, ignoreCase);
+            patternConstants[patternCount++] = i;
+          } else {
+            String literal = terminal != null ? terminal.value() : variant.toString();
+            matchers[i] = new TerminalMatcher(literal, ignoreCase);
+            if (literal.length() > 0) {
+              literalValues[literalCount] = literal;
+              literalCases[literalCount] = ignoreCase;
+              literalConstants[literalCount++] = i;
+            } else {
+              patternConstants[patternCount++] = i;
+            }
+          }
+        } catch (Exception e) {
+          throw new IllegalArgumentException("Failed to read field for enum value " + variant, e);
+        }
+      }
+      this.literals = literalCount == 0 ? null : new LiteralMatcher(Arrays.copyOf(literalValues, literalCount),
+          Arrays.copyOf(literalCases, literalCount));
+      this.literalConstants = Arrays.copyOf(literalConstants, literalCount);
+      this.patternConstants = Arrays.copyOf(patternConstants, patternCount);
+    }
+
+    /**
+     * @return number of matchers an enum token should test, one after another (see {@link #alternative(int)})
+     */
+    public int alternatives() {
+      return (literals == null ? 0 : 1) + patternConstants.length;
+    }
+
+    /**
+     * @param index alternative index
+     * @return the literal matcher (for the first alternative of enums with literal constants) or a capture pattern
+     * matcher
+     */
+    public TokenMatcher alternative(int index) {
+      if (literals != null) {
+        return index == 0 ? literals : matchers[patternConstants[index - 1]];
+      }
+      return matchers[patternConstants[index]];
+    }
+
+    /**
+     * @param index alternative index
+     * @param value token value matched by the alternative
+     * @return enum constant matched by the alternative
+     */
+    public X resolve(int index, Object value) {
+      if (literals != null) {
+        if (index == 0) {
+          int literal = literals.indexOf(String.valueOf(value));
+          if (literal < 0) {
+            throw new IllegalArgumentException("'" + value + "' does not match any literal of "
+                + constants.getClass().getComponentType().getName());
+          }
+          return constants[literalConstants[literal]];
+        }
+        index--;
+      }
+      return constants[patternConstants[index]];
+    }
+
+    /**
+     * @return number of enum constants
+     */
+    public int size() {
+      return constants.length;
+    }
+
+    /**
+     * @param index constant index
+     * @return enum constant
+     */
+    public X constant(int index) {
+      return constants[index];
+    }
+
+    /**
+     * @param index constant index
+     * @return matcher for the enum constant
+     */
+    public TokenMatcher matcher(int index) {
+      return matchers[index];
+    }
+  }
+}
@@ -0,0 +1,15 @@
+package com.onkiup.linker.parser.grammar;
+
+/**
+ * Converts matched token values into values of field types
+ * @see AccessorFactory
+ */
+@FunctionalInterface
+public interface ValueConverter {
+
+  /**
+   * @param value value to convert
+   * @return converted value
+   */
+  Object convert(Object value);
+}
@@ -0,0 +1,123 @@
+package com.onkiup.linker.parser.grammar;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Adaptive (dynamic) priorities of junction variants collected by a single grammar.
+ * Variants that fail often are moved towards the end of junction variant lists and variants that match often are
+ * moved towards the beginning. Counters are striped, so concurrent parses update them without contention, and
+ * periodically decayed, so that variant order follows changes in parsed sources.
+ * Updates that race with decay may be lost, which is acceptable for ordering heuristics
+ */
+public final class VariantPriorities {
+  /**
+   * Default average number of updates between two decays
+   */
+  public static final int DEFAULT_DECAY_INTERVAL = 10000;
+  /**
+   * Absolute limit of dynamic priorities, which keeps them below static penalties of left-recursive variants
+   */
+  public static final int LIMIT = 10000;
+
+  private final ConcurrentHashMap<Class<?>, LongAdder> priorities = new ConcurrentHashMap<>();
+  private final AtomicBoolean decaying = new AtomicBoolean();
+  private final int decayInterval;
+
+  public VariantPriorities() {
+    this(DEFAULT_DECAY_INTERVAL);
+  }
+
+  /**
+   * @param decayInterval average number of updates between two decays (zero or less disables decay)
+   */
+  public VariantPriorities(int decayInterval) {
+    this.decayInterval = decayInterval;
+  }
+
+  /**
+   * @param variant junction variant
+   * @return dynamic priority of the variant (smaller priorities are tested first)
+   */
+  public int priority(Class<?> variant) {
+    LongAdder counter = priorities.get(variant);
+    if (counter == null) {
+      return 0;
+    }
+    return (int) Math.max(-LIMIT, Math.min(LIMIT, counter.sum()));
+  }
+
+  /**
+   * Sets dynamic priority of a variant (used to restore priorities from grammar snapshots)
+   * @param variant junction variant
+   * @param priority dynamic priority
+   */
+  public void priority(Class<?> variant, int priority) {
+    LongAdder counter = counter(variant);
+    counter.reset();
+    counter.add(priority);
+  }
+
+  /**
+   * Changes dynamic priority of a variant
+   * @param variant junction variant
+   * @param change priority change
+   */
+  public void update(Class<?> variant, int change) {
+    counter(variant).add(change);
+    if (decayInterval > 0 && ThreadLocalRandom.current().nextInt(decayInterval) == 0) {
+      decay();
+    }
+  }
+
+  /**
+   * Halves all dynamic priorities (unless another thread is already doing so)
+   */
+  public void decay() {
+    if (!decaying.compareAndSet(false, true)) {
+      return;
+    }
+    try {
+      for (LongAdder counter : priorities.values()) {
+        long value = counter.sumThenReset();
+        counter.add(value / 2);
+      }
+    } finally {
+      decaying.set(false);
+    }
+  }
+
+  /**
+   * @return a copy of current dynamic priorities
+   */
+  public Map<Class<?>, Integer> snapshot() {
+    Map<Class<?>, Integer> result = new HashMap<>();
+    for (Class<?> variant : priorities.keySet()) {
+      result.put(variant, priority(variant));
+    }
+    return result;
+  }
+
+  /**
+   * @return independent copy of current dynamic priorities with the same decay interval
+   */
+  public VariantPriorities copy() {
+    VariantPriorities result = new VariantPriorities(decayInterval);
+    for (Class<?> variant : priorities.keySet()) {
+      result.priority(variant, priority(variant));
+    }
+    return result;
+  }
+
+  private LongAdder counter(Class<?> variant) {
+    LongAdder result = priorities.get(variant);
+    if (result == null) {
+      result = priorities.computeIfAbsent(variant, type -> new LongAdder());
+    }
+    return result;
+  }
+}
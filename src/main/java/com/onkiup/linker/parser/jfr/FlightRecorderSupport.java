@@ -0,0 +1,63 @@
+package com.onkiup.linker.parser.jfr;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.onkiup.linker.parser.trace.ParserListener;
+
+/**
+ * Provides the listener that emits Java Flight Recorder events for parser phases (see {@link JfrListener}).
+ * This class does not refer to JFR classes itself, so it can be loaded on JVMs without Flight Recorder, where
+ * {@link #listener()} simply returns null. Grammars only pass parser events to the listener while
+ * {@link #isRecording()}, so parses that start while no recording enables parser events run without it.
+ * Set system property {@value #PROPERTY} to {@code false} to disable the events altogether
+ */
+public final class FlightRecorderSupport {
+  /**
+   * System property that disables Flight Recorder events when set to {@code false}
+   */
+  public static final String PROPERTY = "linker.parser.jfr";
+
+  private static final Logger logger = LoggerFactory.getLogger(FlightRecorderSupport.class);
+  /**
+   * Updated by {@link JfrListener} whenever a recording starts or stops
+   */
+  private static volatile boolean recording;
+  private static final ParserListener LISTENER = create();
+
+  private FlightRecorderSupport() {
+
+  }
+
+  /**
+   * @return listener that emits Flight Recorder events or null if Flight Recorder is not available or disabled
+   */
+  public static ParserListener listener() {
+    return LISTENER;
+  }
+
+  /**
+   * @return true if Flight Recorder is available and a running recording enables at least one of parser events
+   */
+  public static boolean isRecording() {
+    return recording;
+  }
+
+  static void recording(boolean recording) {
+    FlightRecorderSupport.recording = recording;
+  }
+
+  private static ParserListener create() {
+    if ("false".equalsIgnoreCase(System.getProperty(PROPERTY))) {
+      return null;
+    }
+    try {
+      Class.forName("jdk.jfr.FlightRecorder");
+      return (ParserListener) Class.forName(FlightRecorderSupport.class.getPackage().getName() + ".JfrListener")
+          .getConstructor().newInstance();
+    } catch (ReflectiveOperationException | LinkageError | RuntimeException e) {
+      logger.debug("Flight Recorder events are not available", e);
+      return null;
+    }
+  }
+}
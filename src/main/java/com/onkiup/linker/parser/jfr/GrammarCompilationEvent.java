@@ -0,0 +1,25 @@
+package com.onkiup.linker.parser.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+@Name("com.onkiup.linker.parser.GrammarCompilation")
+@Label("Grammar Compilation")
+@Description("Compilation of a grammar model")
+@Category({"Linker", "Parser"})
+@StackTrace(false)
+class GrammarCompilationEvent extends jdk.jfr.Event {
+  @Label("Root Rule")
+  Class<?> root;
+
+  @Label("Rules")
+  int rules;
+
+  @Label("Compilation Time")
+  @Timespan(Timespan.NANOSECONDS)
+  long compilationTime;
+}
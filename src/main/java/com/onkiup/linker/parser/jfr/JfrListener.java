@@ -0,0 +1,232 @@
+package com.onkiup.linker.parser.jfr;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import com.onkiup.linker.parser.grammar.GrammarModel;
+import com.onkiup.linker.parser.token.CompoundToken;
+import com.onkiup.linker.parser.token.ConsumingToken;
+import com.onkiup.linker.parser.token.PartialToken;
+import com.onkiup.linker.parser.token.VariantToken;
+import com.onkiup.linker.parser.trace.ParserListener;
+
+import jdk.jfr.EventType;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.FlightRecorderListener;
+import jdk.jfr.Recording;
+
+/**
+ * Emits Java Flight Recorder events for grammar compilation, parses, junction resolutions, rotations and
+ * tracebacks. Junction events are recorded only for resolutions longer than 1 ms and rotation and traceback events
+ * are disabled by default; all of them can be enabled in recording settings without restarting the application.
+ * Which events are enabled is re-evaluated each time a recording starts or stops; while none of them is, grammars
+ * do not call this listener at all (see {@link FlightRecorderSupport#isRecording()}).
+ * Use {@link FlightRecorderSupport#listener()} to obtain an instance: this class can only be loaded on JVMs that
+ * include Flight Recorder
+ */
+public class JfrListener implements ParserListener {
+  private static volatile boolean compilations;
+  private static volatile boolean parses;
+  private static volatile boolean junctions;
+  private static volatile boolean rotations;
+  private static volatile boolean tracebacks;
+
+  private final ThreadLocal<Deque<Frame>> frames = ThreadLocal.withInitial(ArrayDeque::new);
+
+  static {
+    refresh();
+    FlightRecorder.addListener(new FlightRecorderListener() {
+      @Override
+      public void recordingStateChanged(Recording recording) {
+        refresh();
+      }
+    });
+  }
+
+  public JfrListener() {
+    if (!FlightRecorder.isAvailable()) {
+      throw new IllegalStateException("Flight Recorder is not available");
+    }
+  }
+
+  private static void refresh() {
+    compilations = EventType.getEventType(GrammarCompilationEvent.class).isEnabled();
+    parses = EventType.getEventType(ParseEvent.class).isEnabled();
+    junctions = EventType.getEventType(JunctionEvent.class).isEnabled();
+    rotations = EventType.getEventType(RotationEvent.class).isEnabled();
+    tracebacks = EventType.getEventType(TracebackEvent.class).isEnabled();
+    FlightRecorderSupport.recording(compilations || parses || junctions || rotations || tracebacks);
+  }
+
+  @Override
+  public void grammarCompiled(GrammarModel model, long nanos) {
+    if (!compilations) {
+      return;
+    }
+    GrammarCompilationEvent event = new GrammarCompilationEvent();
+    if (event.shouldCommit()) {
+      event.root = model.root();
+      event.rules = model.ruleCount();
+      event.compilationTime = nanos;
+      event.commit();
+    }
+  }
+
+  @Override
+  public void parseStarted(String sourceName, CharSequence buffer) {
+    Frame frame = new Frame(sourceName);
+    if (parses) {
+      frame.event = new ParseEvent();
+      frame.event.source = sourceName;
+      frame.event.length = buffer.length();
+      frame.event.begin();
+    }
+    frames.get().push(frame);
+  }
+
+  @Override
+  public void parseFinished(String sourceName, Throwable error) {
+    Deque<Frame> stack = frames.get();
+    Frame frame = stack.poll();
+    if (stack.isEmpty()) {
+      frames.remove();
+    }
+    if (frame == null || frame.event == null) {
+      return;
+    }
+    ParseEvent event = frame.event;
+    event.end();
+    if (event.shouldCommit()) {
+      event.steps = frame.steps;
+      event.tracebacks = frame.tracebacks;
+      event.failed = error != null;
+      event.commit();
+    }
+  }
+
+  @Override
+  public void step(CompoundToken<?> root, ConsumingToken<?> consumer) {
+    if (!parses) {
+      return;
+    }
+    Frame frame = frame();
+    if (frame != null && frame.event != null) {
+      frame.steps++;
+      if (frame.event.rule == null) {
+        frame.event.rule = root.tokenType();
+      }
+    }
+  }
+
+  @Override
+  public void tokenCreated(PartialToken<?> token) {
+    if (!junctions || !(token instanceof VariantToken)) {
+      return;
+    }
+    Frame frame = frame();
+    if (frame != null) {
+      JunctionEvent event = new JunctionEvent();
+      event.begin();
+      frame.junctions.put(token, event);
+    }
+  }
+
+  @Override
+  public void tokenPopulated(PartialToken<?> token) {
+    if (token instanceof VariantToken) {
+      resolved((VariantToken<?>) token, true);
+    }
+  }
+
+  @Override
+  public void tokenFailed(PartialToken<?> token) {
+    if (token instanceof VariantToken) {
+      resolved((VariantToken<?>) token, false);
+    }
+  }
+
+  private void resolved(VariantToken<?> junction, boolean populated) {
+    Frame frame = frame();
+    JunctionEvent event = frame == null || frame.junctions.isEmpty() ? null : frame.junctions.remove(junction);
+    if (event == null) {
+      return;
+    }
+    event.end();
+    if (event.shouldCommit()) {
+      event.source = frame.source;
+      event.junction = junction.tokenType();
+      event.position = junction.location().position();
+      event.tried = junction.tried().size();
+      event.variants = junction.tried().stream().map(Class::getName).collect(Collectors.joining(", "));
+      PartialToken<?> winner = populated ? junction.resolvedAs().orElse(null) : null;
+      event.winner = winner == null ? null : winner.tokenType();
+      event.commit();
+    }
+  }
+
+  @Override
+  public void traceback(CompoundToken<?> parent, PartialToken<?> child) {
+    if (!parses && !tracebacks) {
+      return;
+    }
+    Frame frame = frame();
+    if (frame == null) {
+      return;
+    }
+    frame.tracebacks++;
+    if (tracebacks) {
+      TracebackEvent event = new TracebackEvent();
+      event.source = frame.source;
+      event.parent = parent.tokenType();
+      event.failed = child.tokenType();
+      event.position = child.location().position();
+      event.commit();
+    }
+  }
+
+  @Override
+  public void rotated(PartialToken<?> token) {
+    if (rotations) {
+      rotation(token, false);
+    }
+  }
+
+  @Override
+  public void rotatedBack(PartialToken<?> token) {
+    if (rotations) {
+      rotation(token, true);
+    }
+  }
+
+  private void rotation(PartialToken<?> token, boolean back) {
+    Frame frame = frame();
+    RotationEvent event = new RotationEvent();
+    event.source = frame == null ? null : frame.source;
+    event.rule = token.tokenType();
+    event.position = token.location().position();
+    event.back = back;
+    event.commit();
+  }
+
+  private Frame frame() {
+    return frames.get().peek();
+  }
+
+  /**
+   * Per-parse state
+   */
+  private static final class Frame {
+    private final String source;
+    private final Map<PartialToken<?>, JunctionEvent> junctions = new IdentityHashMap<>();
+    private ParseEvent event;
+    private long steps;
+    private long tracebacks;
+
+    private Frame(String source) {
+      this.source = source;
+    }
+  }
+}
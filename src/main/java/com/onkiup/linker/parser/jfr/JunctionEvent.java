@@ -0,0 +1,34 @@
+package com.onkiup.linker.parser.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+@Name("com.onkiup.linker.parser.Junction")
+@Label("Junction Resolution")
+@Description("Resolution of a grammar junction by testing its variants")
+@Category({"Linker", "Parser"})
+@StackTrace(false)
+@Threshold("1 ms")
+class JunctionEvent extends jdk.jfr.Event {
+  @Label("Source")
+  String source;
+
+  @Label("Junction")
+  Class<?> junction;
+
+  @Label("Position")
+  int position;
+
+  @Label("Variants Tried")
+  int tried;
+
+  @Label("Tried Variants")
+  String variants;
+
+  @Label("Winner")
+  Class<?> winner;
+}
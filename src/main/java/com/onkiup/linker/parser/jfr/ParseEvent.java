@@ -0,0 +1,32 @@
+package com.onkiup.linker.parser.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("com.onkiup.linker.parser.Parse")
+@Label("Parse")
+@Description("A single TokenGrammar.tokenize call")
+@Category({"Linker", "Parser"})
+@StackTrace(false)
+class ParseEvent extends jdk.jfr.Event {
+  @Label("Source")
+  String source;
+
+  @Label("Root Rule")
+  Class<?> rule;
+
+  @Label("Input Length")
+  int length;
+
+  @Label("Steps")
+  long steps;
+
+  @Label("Tracebacks")
+  long tracebacks;
+
+  @Label("Failed")
+  boolean failed;
+}
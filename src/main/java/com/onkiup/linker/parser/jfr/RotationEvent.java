@@ -0,0 +1,29 @@
+package com.onkiup.linker.parser.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("com.onkiup.linker.parser.Rotation")
+@Label("Token Rotation")
+@Description("Rotation of a left-recursive rule token (or its restoration)")
+@Category({"Linker", "Parser"})
+@StackTrace(false)
+@Enabled(false)
+class RotationEvent extends jdk.jfr.Event {
+  @Label("Source")
+  String source;
+
+  @Label("Rule")
+  Class<?> rule;
+
+  @Label("Position")
+  int position;
+
+  @Label("Back")
+  @Description("True if the token was restored to its original arrangement")
+  boolean back;
+}
@@ -0,0 +1,28 @@
+package com.onkiup.linker.parser.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("com.onkiup.linker.parser.Traceback")
+@Label("Traceback")
+@Description("The parser traced back from a failed token to its parent")
+@Category({"Linker", "Parser"})
+@StackTrace(false)
+@Enabled(false)
+class TracebackEvent extends jdk.jfr.Event {
+  @Label("Source")
+  String source;
+
+  @Label("Parent Rule")
+  Class<?> parent;
+
+  @Label("Failed Rule")
+  Class<?> failed;
+
+  @Label("Position")
+  int position;
+}
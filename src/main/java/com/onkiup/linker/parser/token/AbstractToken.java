@@ -7,9 +7,12 @@ import java.util.Optional;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.slf4j.helpers.NOPLogger;
 
+import com.onkiup.linker.parser.ParseSession;
 import com.onkiup.linker.parser.ParserLocation;
-import com.onkiup.linker.parser.TokenFactory;
+import com.onkiup.linker.parser.grammar.FieldModel;
+import com.onkiup.linker.parser.trace.ParserListener;
 
 /**
  * Common implementation for PartialTokens
@@ -23,6 +26,10 @@ public abstract class AbstractToken<X> implements PartialToken<X>, Serializable
    * The field for which this token was created
    */
   private Field field;
+  /**
+   * Shared model of the target field
+   */
+  private transient FieldModel fieldModel;
   /**
    * location of the first character matched with the token and the next character after the last character matched with the token
    */
@@ -35,6 +42,10 @@ public abstract class AbstractToken<X> implements PartialToken<X>, Serializable
    * Token optionality condition
    */
   private CharSequence optionalCondition;
+  /**
+   * State of the parse this token belongs to
+   */
+  private transient ParseSession session;
   private transient Logger logger;
   private LinkedList metatokens = new LinkedList();
   private final int childNumber;
@@ -50,10 +61,43 @@ public abstract class AbstractToken<X> implements PartialToken<X>, Serializable
     this.field = targetField;
     this.location = location;
     this.childNumber = childNumber;
+    this.session = parent == null ? ParseSession.current() : ParseSession.of(parent);
 
     readFlags(field);
   }
 
+  /**
+   * @return state of the parse this token belongs to
+   */
+  public ParseSession session() {
+    if (session == null) {
+      session = ParseSession.current();
+    }
+    return session;
+  }
+
+  /**
+   * Moves this token and its subtree into another parse, making this token a child of given parent; used to take over
+   * results matched by speculative parses in their own sessions (see {@link RuleToken#speculated})
+   * @param parent new parent token
+   * @param session session of the parse that takes the token over
+   */
+  void adopt(CompoundToken<?> parent, ParseSession session) {
+    this.parent = parent;
+    rehome(session);
+  }
+
+  private void rehome(ParseSession session) {
+    this.session = session;
+    if (this instanceof CompoundToken) {
+      for (PartialToken<?> child : ((CompoundToken<?>) this).children()) {
+        if (child instanceof AbstractToken) {
+          ((AbstractToken<?>) child).rehome(session);
+        }
+      }
+    }
+  }
+
   public void previousToken(PartialToken<?> previousToken) {
     this.previousToken = previousToken;
   }
@@ -154,19 +198,32 @@ public abstract class AbstractToken<X> implements PartialToken<X>, Serializable
     populated = true;
     failed = false;
     this.end = end;
+    ParserListener listener = session().listener();
+    if (listener != null) {
+      listener.tokenPopulated(this);
+    }
   }
 
   /**
-   * @return logger configured with information about matching token
+   * @return logger configured with information about matching token, or a no-op logger unless the listener of the
+   * parse enabled token logging (see {@link ParserListener#tokenLogging()})
    */
   @Override
   public Logger logger() {
     if (logger == null) {
-      logger = LoggerFactory.getLogger(tag());
+      logger = tracing() ? LoggerFactory.getLogger(tag()) : NOPLogger.NOP_LOGGER;
     }
     return logger;
   }
 
+  /**
+   * @return true if the listener of the parse enabled token logging
+   */
+  protected boolean tracing() {
+    ParserListener listener = session().listener();
+    return listener != null && listener.tokenLogging();
+  }
+
   /**
    * @return token identifier to be used in logs
    */
@@ -193,13 +250,24 @@ public abstract class AbstractToken<X> implements PartialToken<X>, Serializable
         .orElseGet(super::toString);
   }
 
+  /**
+   * @return shared model of the field for which this token was created or null
+   */
+  protected FieldModel fieldModel() {
+    if (fieldModel == null && field != null) {
+      fieldModel = FieldModel.forField(field);
+    }
+    return fieldModel;
+  }
+
   /**
    * reads optionality configuration for the field
    * @param field field to read the configuration from
    */
   protected void readFlags(Field field) {
-    optionalCondition = PartialToken.getOptionalCondition(field).orElse(null);
-    optional = optionalCondition == null && TokenFactory.hasOptionalAnnotation(field);
+    FieldModel model = field == null ? null : FieldModel.forField(field);
+    optionalCondition = model == null ? null : model.optionalCondition();
+    optional = optionalCondition == null && model != null && model.hasOptionalAnnotation();
   }
 
   /**
@@ -211,6 +279,10 @@ public abstract class AbstractToken<X> implements PartialToken<X>, Serializable
     populated = false;
     end = location;
     PartialToken.super.onFail();
+    ParserListener listener = session().listener();
+    if (listener != null) {
+      listener.tokenFailed(this);
+    }
   }
 
   /**
@@ -55,9 +55,7 @@ public class CollectionToken<X> extends AbstractToken<X> implements CompoundToke
     lastTokenEnd = location;
     this.fieldType = tokenType;
     this.memberType = fieldType.getComponentType();
-    if (field.isAnnotationPresent(CaptureLimit.class)) {
-      captureLimit = field.getAnnotation(CaptureLimit.class);
-    }
+    captureLimit = fieldModel().captureLimit();
   }
 
   /**
@@ -74,7 +72,9 @@ public class CollectionToken<X> extends AbstractToken<X> implements CompoundToke
       children.pollLast();
       return;
     }
-    log("Populated collection token #{}: {}", children.size(), current.tag());
+    if (tracing()) {
+      log("Populated collection token #{}: {}", children.size(), current.tag());
+    }
     lastTokenEnd = current.end();
     if (captureLimit != null && children.size() >= captureLimit.max()) {
       onPopulated(lastTokenEnd);
@@ -193,7 +193,9 @@ public class CollectionToken<X> extends AbstractToken<X> implements CompoundToke
         current = children.get(nextMember);
       }
       nextMember++;
-      log("nextChild = [{}]{}", children.size(), current.tag());
+      if (tracing()) {
+        log("nextChild = [{}]{}", children.size(), current.tag());
+      }
       return Optional.of(current);
     }
     return Optional.empty();
@@ -236,9 +238,13 @@ public class CollectionToken<X> extends AbstractToken<X> implements CompoundToke
   public boolean alternativesLeft() {
     for (int i = children.size() - 1; i > -1; i--) {
       PartialToken<?> child = children.get(i);
-      log("getting alternatives from [{}]{}", i, child.tag());
+      if (tracing()) {
+        log("getting alternatives from [{}]{}", i, child.tag());
+      }
       if (child.alternativesLeft()) {
-        log("found alternatives at [{}]{}", i, child.tag());
+        if (tracing()) {
+          log("found alternatives at [{}]{}", i, child.tag());
+        }
         return true;
       }
     }
@@ -2,27 +2,17 @@ package com.onkiup.linker.parser.token;
 
 import java.io.Serializable;
 import java.lang.reflect.Field;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Map;
 import java.util.Optional;
-import java.util.Set;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.onkiup.linker.parser.MatchState;
 import com.onkiup.linker.parser.ParserLocation;
-import com.onkiup.linker.parser.PatternMatcher;
 import com.onkiup.linker.parser.Rule;
-import com.onkiup.linker.parser.TerminalMatcher;
 import com.onkiup.linker.parser.TestResult;
 import com.onkiup.linker.parser.TokenMatcher;
 import com.onkiup.linker.parser.TokenTestResult;
-import com.onkiup.linker.parser.annotation.CapturePattern;
-import com.onkiup.linker.parser.annotation.MatchTerminal;
+import com.onkiup.linker.parser.grammar.RuleModel;
 import com.onkiup.linker.parser.util.ParserError;
-import com.onkiup.linker.parser.util.Utils;
 
 /**
  * Partial token used to populate Enum fields
@@ -32,46 +22,34 @@ import com.onkiup.linker.parser.util.Utils;
 public class EnumToken<X extends Enum & Rule> extends AbstractToken<X> implements ConsumingToken<X>, Serializable {
 
   private Class<X> enumType;
-  private transient Map<X,TokenMatcher> variants = new HashMap<>();
+  private transient RuleModel.EnumVariants<X> variants;
+  private transient MatchState matchState = new MatchState();
   private X token;
-  private List<X> variantKeys;
   private int currentKeyIndex = 0;
 
   public EnumToken(CompoundToken parent, int position, Field field, Class<X> enumType, ParserLocation location) {
     super(parent, position, field, location);
     this.enumType = enumType;
-    boolean ignoreCaseFromTarget = Utils.ignoreCase(field);
-
-    for (X variant : enumType.getEnumConstants()) {
-      try {
-        Field variantField = enumType.getDeclaredField(variant.name());
-        CapturePattern pattern = variantField.getAnnotation(CapturePattern.class);
-        MatchTerminal terminal = variantField.getAnnotation(MatchTerminal.class);
-        boolean ignoreCase = ignoreCaseFromTarget || Utils.ignoreCase(variantField);
-        TokenMatcher matcher = pattern != null ? new PatternMatcher(pattern, ignoreCase) :
-            terminal != null ? new TerminalMatcher(terminal.value(), ignoreCase) :
-              new TerminalMatcher(variant.toString(), ignoreCase);
-        variants.put(variant, matcher);
-      } catch (ParserError pe) {
-        throw pe;
-      } catch (Exception e) {
-        throw new ParserError("Failed to read field for enum value " + variant, this, e);
-      }
-    }
+    boolean ignoreCaseFromTarget = fieldModel() != null && fieldModel().ignoreCase();
 
-    variantKeys = new ArrayList<>(variants.keySet());
+    try {
+      variants = RuleModel.forClass(enumType).enumVariants(ignoreCaseFromTarget);
+    } catch (Exception e) {
+      throw new ParserError("Failed to read enum values for " + enumType, this, e);
+    }
 
     setTokenMatcher(buffer -> {
-      if (variantKeys.size() == 0) {
+      if (variants.alternatives() == 0) {
         return TestResult.fail();
       }
 
       TokenTestResult result;
       do {
-        TokenMatcher variantMatcher = variants.get(variantKeys.get(currentKeyIndex));
-        result = variantMatcher.apply(buffer);
+        TokenMatcher variantMatcher = variants.alternative(currentKeyIndex);
+        result = matchState.test(variantMatcher, buffer);
         if (result.isFailed()) {
-          if (++currentKeyIndex < variantKeys.size()) {
+          if (++currentKeyIndex < variants.alternatives()) {
+            matchState.reset();
             result = null;
           } else {
             return result;
@@ -86,6 +64,7 @@ public class EnumToken<X extends Enum & Rule> extends AbstractToken<X> implement
   @VisibleForTesting
   void reset() {
     currentKeyIndex = 0;
+    matchState.reset();
   }
 
   @Override
@@ -105,7 +84,7 @@ public class EnumToken<X extends Enum & Rule> extends AbstractToken<X> implement
 
   @Override
   public void onConsumeSuccess(Object value) {
-    token = variantKeys.get(currentKeyIndex);
+    token = variants.resolve(currentKeyIndex, value);
   }
 
   /**
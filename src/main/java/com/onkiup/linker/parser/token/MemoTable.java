@@ -0,0 +1,198 @@
+package com.onkiup.linker.parser.token;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import com.onkiup.linker.parser.ParserLocation;
+import com.onkiup.linker.parser.Rule;
+import com.onkiup.linker.parser.grammar.RuleModel;
+
+/**
+ * Packrat memo table that stores results of matching concrete rules at given buffer positions.
+ * Tables are scoped to a single parse: when the parser needs the same rule at the same position again (usually after
+ * backtracking out of a junction variant that shared a prefix with the next variant), the recorded subtree is reused
+ * instead of being matched character by character, and recorded failures fail immediately.
+ *
+ * Reused subtrees are final, so only results that tracing back could not change are recorded: the first match of a
+ * token that has no alternatives left (which is then the only way the rule can match at the position) and failures of
+ * tokens that never matched. Recorded tokens are not traced back into, so that the subtrees they share with the table
+ * stay intact. Results of left-recursive rules are additionally keyed by the child number that decides which
+ * variants their junctions exclude (see {@link RuleModel#recursionContext(int)})
+ */
+public final class MemoTable {
+  /**
+   * Tables that recorded more results are reallocated when cleared, so that idle tables do not keep hash tables sized
+   * for huge inputs
+   */
+  private static final int MAX_RETAINED_ENTRIES = 4096;
+
+  private Map<Key, Entry> entries = new HashMap<>();
+  private int hits, misses;
+
+  /**
+   * @param type concrete rule type
+   * @param position buffer position
+   * @param ignoredCharacters characters ignored by the token
+   * @param context recursion context of the token (see {@link RuleModel#recursionContext(int)})
+   * @return recorded result or null
+   */
+  public Entry get(Class<?> type, int position, String ignoredCharacters, int context) {
+    Entry result = entries.get(new Key(type, position, ignoredCharacters, context));
+    if (result == null) {
+      misses++;
+    } else {
+      hits++;
+    }
+    return result;
+  }
+
+  /**
+   * Records a successfully populated token; successful results are never replaced
+   * @param token populated token
+   * @return true if the token was recorded
+   */
+  boolean populated(RuleToken<?> token) {
+    Key key = key(token);
+    Entry previous = entries.get(key);
+    if (previous == null || previous.isFailed()) {
+      entries.put(key, entry(token));
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Records a failed token unless the same rule was already matched at the same position
+   * @param token failed token
+   */
+  void failed(RuleToken<?> token) {
+    entries.putIfAbsent(key(token), Entry.FAILED);
+  }
+
+  /**
+   * @param token populated token
+   * @return result of the token
+   */
+  static Entry entry(RuleToken<?> token) {
+    return new Entry(token.token().orElse(null), token.children().clone(), token.end());
+  }
+
+  private static Key key(RuleToken<?> token) {
+    Class<?> type = token.tokenType();
+    int context = RuleModel.forClass(type).recursionContext(token.position());
+    return new Key(type, token.location().position(), token.ignoredCharacters(), context);
+  }
+
+  /**
+   * Removes all recorded results and resets lookup statistics
+   */
+  public void clear() {
+    if (entries.size() > MAX_RETAINED_ENTRIES) {
+      entries = new HashMap<>();
+    } else {
+      entries.clear();
+    }
+    hits = 0;
+    misses = 0;
+  }
+
+  /**
+   * @return number of recorded results
+   */
+  public int size() {
+    return entries.size();
+  }
+
+  /**
+   * @return number of lookups that returned a recorded result
+   */
+  public int hits() {
+    return hits;
+  }
+
+  /**
+   * @return number of lookups that did not find a recorded result
+   */
+  public int misses() {
+    return misses;
+  }
+
+  @Override
+  public String toString() {
+    return "MemoTable[size=" + entries.size() + ", hits=" + hits + ", misses=" + misses + "]";
+  }
+
+  /**
+   * Result of matching a rule at a position
+   */
+  public static final class Entry {
+    private static final Entry FAILED = new Entry(null, null, null);
+
+    private final Rule token;
+    private final PartialToken<?>[] children;
+    private final ParserLocation end;
+
+    private Entry(Rule token, PartialToken<?>[] children, ParserLocation end) {
+      this.token = token;
+      this.children = children;
+      this.end = end;
+    }
+
+    /**
+     * @return true if the rule did not match
+     */
+    public boolean isFailed() {
+      return this == FAILED;
+    }
+
+    Rule token() {
+      return token;
+    }
+
+    PartialToken<?>[] children() {
+      return children;
+    }
+
+    ParserLocation end() {
+      return end;
+    }
+  }
+
+  private static final class Key {
+    private final Class<?> type;
+    private final int position;
+    private final String ignoredCharacters;
+    private final int context;
+    private final int hash;
+
+    private Key(Class<?> type, int position, String ignoredCharacters, int context) {
+      this.type = type;
+      this.position = position;
+      this.ignoredCharacters = ignoredCharacters;
+      this.context = context;
+      int hash = type.hashCode();
+      hash = 31 * hash + position;
+      hash = 31 * hash + (ignoredCharacters == null ? 0 : ignoredCharacters.hashCode());
+      this.hash = 31 * hash + context;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key key = (Key) o;
+      return hash == key.hash && position == key.position && context == key.context && type == key.type
+          && Objects.equals(ignoredCharacters, key.ignoredCharacters);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+  }
+}
@@ -3,29 +3,39 @@ package com.onkiup.linker.parser.token;
 import java.lang.reflect.Field;
 import java.util.Optional;
 
+import com.onkiup.linker.parser.MatchState;
 import com.onkiup.linker.parser.NumberMatcher;
 import com.onkiup.linker.parser.ParserLocation;
 
 public class NumberToken<X extends Number> extends AbstractToken<X> implements ConsumingToken<X> {
 
-  private X token;
+  /**
+   * Parsed number; partial matches may be reported as views of parser input, which are only parsed once requested
+   */
+  private Object token;
   private Class<X> tokenType;
+  private final transient NumberMatcher matcher;
+  private final transient MatchState matchState = new MatchState();
 
   public NumberToken(CompoundToken<?> parent, int position, Field targetField, ParserLocation location) {
     super(parent, position, targetField, location);
     this.tokenType = (Class<X>)targetField.getType();
 
-    setTokenMatcher(new NumberMatcher(tokenType));
+    matcher = new NumberMatcher(tokenType);
+    setTokenMatcher(input -> matchState.test(matcher, input));
   }
 
   @Override
   public void onConsumeSuccess(Object token) {
-    this.token = (X) token;
+    this.token = token;
   }
 
   @Override
   public Optional<X> token() {
-    return Optional.ofNullable(token);
+    if (token instanceof CharSequence) {
+      token = matcher.parse((CharSequence) token);
+    }
+    return Optional.ofNullable((X) token);
   }
 
   /**
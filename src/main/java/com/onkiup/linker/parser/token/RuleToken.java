@@ -1,19 +1,18 @@
 package com.onkiup.linker.parser.token;
 
 import java.io.Serializable;
-import java.lang.reflect.Array;
-import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
-import java.lang.reflect.Method;
-import java.lang.reflect.Modifier;
 import java.util.Optional;
 import java.util.function.Function;
 
 import com.onkiup.linker.parser.ParserLocation;
 import com.onkiup.linker.parser.Rule;
 import com.onkiup.linker.parser.TokenFactory;
-import com.onkiup.linker.parser.annotation.IgnoreCharacters;
-import com.onkiup.linker.parser.util.Utils;
+import com.onkiup.linker.parser.grammar.AccessorFactory;
+import com.onkiup.linker.parser.grammar.FieldModel;
+import com.onkiup.linker.parser.grammar.RuleModel;
+import com.onkiup.linker.parser.grammar.ValueConverter;
+import com.onkiup.linker.parser.trace.ParserListener;
 import com.onkiup.linker.util.LoggerLayout;
 
 /**
@@ -21,6 +20,13 @@ import com.onkiup.linker.util.LoggerLayout;
  * @param <X>
  */
 public class RuleToken<X extends Rule> extends AbstractToken<X> implements ParentToken<X>, Rotatable, Serializable {
+  private static final ClassValue<ValueConverter> CONVERTERS = new ClassValue<ValueConverter>() {
+    @Override
+    protected ValueConverter computeValue(Class<?> type) {
+      return AccessorFactory.get().converter(type);
+    }
+  };
+
   private X token;
   private Class<X> tokenType;
   private Field[] fields;
@@ -29,34 +35,101 @@ public class RuleToken<X extends Rule> extends AbstractToken<X> implements Paren
   private String ignoreCharacters = ""; 
   private boolean rotated = false;
   private transient ParserLocation lastTokenEnd;
+  /**
+   * true if this token replays a result recorded in {@link MemoTable}
+   */
+  private transient boolean memoized;
+  /**
+   * true if this token's subtree is shared with {@link MemoTable}
+   */
+  private transient boolean recorded;
+  /**
+   * true if this token was populated at least once
+   */
+  private transient boolean matched;
+  /**
+   * true if the current match of this token is its first one and tracing back could not change it
+   */
+  private transient boolean finalMatch;
 
   public RuleToken(CompoundToken parent, int position, Field field, Class<X> type, ParserLocation location) {
     super(parent, position, field, location);
     this.tokenType = type;
     this.lastTokenEnd = location;
 
-    try {
-      this.token = type.newInstance();
-      Rule.Metadata.metadata(token, this);
-    } catch (Exception e) {
-      throw new IllegalArgumentException("Failed to instantiate rule token " + type, e);
-    }
+    RuleModel<X> model = RuleModel.forClass(type);
+    this.token = model.instantiator().get();
+    Rule.Metadata.metadata(token, this);
 
     // 0.9:  token inheritance
-    fields = Utils.getTokenFields(type);
+    fields = model.fields();
 
     values = new PartialToken[fields.length];
 
-    if (parent != null) {
-      ignoreCharacters = parent.ignoredCharacters();
-    }
+    ignoreCharacters = model.ignoreCharacters(parent == null ? session().rootIgnoredCharacters() : parent.ignoredCharacters());
+  }
+
+  /**
+   * Creates a token that replays a result of matching the same rule at the same position
+   * @param parent parent token
+   * @param position child number
+   * @param field target field
+   * @param type rule type
+   * @param location token location
+   * @param ignoreCharacters characters ignored by the token
+   * @param memoized recorded result
+   * @return populated or failed token
+   */
+  public static <X extends Rule> RuleToken<X> memoized(CompoundToken parent, int position, Field field, Class<X> type,
+      ParserLocation location, String ignoreCharacters, MemoTable.Entry memoized) {
+    return new RuleToken<>(parent, position, field, type, location, ignoreCharacters, memoized);
+  }
 
-    if (type.isAnnotationPresent(IgnoreCharacters.class)) {
-      IgnoreCharacters annotation = type.getAnnotation(IgnoreCharacters.class);
-      if (!annotation.inherit()) {
-        ignoreCharacters = "";
+  /**
+   * Creates a token that takes over a match of the same rule at the same position from a speculative parse
+   * (see {@link com.onkiup.linker.parser.VariantSpeculator}): the matched subtree is moved into the session of the
+   * parent token, so that it no longer references the closed speculative session
+   * @param parent parent token
+   * @param position child number
+   * @param field target field
+   * @param type rule type
+   * @param location token location
+   * @param ignoreCharacters characters ignored by the token
+   * @param match result of the speculative parse (see {@link #replay()})
+   * @return populated token
+   */
+  public static <X extends Rule> RuleToken<X> speculated(CompoundToken parent, int position, Field field, Class<X> type,
+      ParserLocation location, String ignoreCharacters, MemoTable.Entry match) {
+    RuleToken<X> result = new RuleToken<>(parent, position, field, type, location, ignoreCharacters, match);
+    for (PartialToken<?> child : result.values) {
+      if (child instanceof AbstractToken) {
+        ((AbstractToken<?>) child).adopt(result, result.session());
       }
-      ignoreCharacters += type.getAnnotation(IgnoreCharacters.class).value();
+    }
+    return result;
+  }
+
+  private RuleToken(CompoundToken parent, int position, Field field, Class<X> type, ParserLocation location,
+      String ignoreCharacters, MemoTable.Entry memoized) {
+    super(parent, position, field, location);
+    this.tokenType = type;
+    this.memoized = true;
+    this.ignoreCharacters = ignoreCharacters;
+    this.fields = RuleModel.forClass(type).fields();
+    this.nextChild = fields.length;
+
+    if (memoized.isFailed()) {
+      this.values = new PartialToken[fields.length];
+      this.lastTokenEnd = location;
+      log("Replaying memoized failure");
+      super.onFail();
+    } else {
+      this.token = (X) memoized.token();
+      this.values = memoized.children().clone();
+      this.lastTokenEnd = memoized.end();
+      Rule.Metadata.metadata(token, this);
+      log("Replaying memoized match up to {}", lastTokenEnd.position());
+      super.onPopulated(lastTokenEnd);
     }
   }
 
@@ -104,7 +177,9 @@ public class RuleToken<X extends Rule> extends AbstractToken<X> implements Paren
       log("Creating partial token for child#{} at position {}", nextChild, lastTokenEnd.position());
       values[nextChild] = TokenFactory.forField(this, nextChild  , childField, lastTokenEnd);
     }
-    log("nextChild#{} = {}", nextChild, values[nextChild].tag());
+    if (tracing()) {
+      log("nextChild#{} = {}", nextChild, values[nextChild].tag());
+    }
     return Optional.of(values[nextChild++]);
   }
 
@@ -151,64 +226,28 @@ public class RuleToken<X extends Rule> extends AbstractToken<X> implements Paren
   }
 
   private void set(Field field, Object value) {
-    log("Trying to set field ${} to '{}'", field.getName(), LoggerLayout.sanitize(value));
-    try {
-      if (!Modifier.isStatic(field.getModifiers())) {
+    FieldModel model = FieldModel.forField(field);
+    if (!model.isStatic()) {
+      if (tracing()) {
         log("Setting field ${} to '{}'", field.getName(), LoggerLayout.sanitize(value));
-        field.setAccessible(true);
-        field.set(token, convert(field.getType(), value));
-        try {
-          token.reevaluate();
-        } catch (Exception e) {
-          error("Failed to reevaluate", e);
-        }
-      } else {
-        log("NOT Setting field {} to '{}' -- the field is static", field.getName(), LoggerLayout.sanitize(value));
       }
-    } catch (Exception e) {
-      throw new RuntimeException("Failed to populate field " + field, e);
-    }
-  }
-
-  protected <T> T convert(Class<T> into, Object what) { 
-    if (into.isArray()) {
-      Object[] collection = (Object[]) what;
-      T[] result = (T[]) Array.newInstance(into.getComponentType(), collection.length);
-      int i = 0;
-      for (Object item : collection) {
-        result[i++] = (T)item;
+      try {
+        model.accessor().set(token, model.converter().convert(value));
+      } catch (Exception e) {
+        throw new RuntimeException("Failed to populate field " + field, e);
       }
-      return (T) result;
-    }
-
-
-    if (what == null || into.isAssignableFrom(what.getClass())) {
-      return (T) what;
-    }
-
-    try {
-      Constructor<T> constructor = into.getConstructor(String.class);
-      constructor.setAccessible(true);
-      return constructor.newInstance(what.toString());
-    } catch (Exception e) {
-      // nothiing to do
-    }
-
-    try {
-      Method converter = into.getMethod("fromString", String.class);
-      converter.setAccessible(true);
-      return (T) converter.invoke(null, what.toString());
-    } catch (Exception e) {
-      // nothiing to do
+      try {
+        token.reevaluate();
+      } catch (Exception e) {
+        error("Failed to reevaluate", e);
+      }
+    } else if (tracing()) {
+      log("NOT Setting field {} to '{}' -- the field is static", field.getName(), LoggerLayout.sanitize(value));
     }
+  }
 
-    try {
-      Method converter = into.getMethod("valueOf", String.class);
-      converter.setAccessible(true);
-      return (T) converter.invoke(null, what.toString());
-    } catch (Exception e) {
-      throw new RuntimeException("Unable to convert '" + what + "' into " + into, e);
-    }
+  protected <T> T convert(Class<T> into, Object what) {
+    return (T) CONVERTERS.get(into).convert(what);
   }
 
   @Override
@@ -238,16 +277,60 @@ public class RuleToken<X extends Rule> extends AbstractToken<X> implements Paren
     } catch (Throwable e) {
       error("Failed to reevaluate on population", e);
     }
+    // later matches and matches of tokens with alternatives left depend on what parents of the token rejected,
+    // rotatable tokens are rearranged after population and rule instances of empty matches can appear in a tree
+    // more than once, so none of them can be replayed
+    finalMatch = !memoized && !matched && !rotatable() && end.position() > location().position()
+        && !ParentToken.super.alternativesLeft();
+    MemoTable memo = session().memo(parent().orElse(null));
+    if (memo != null && finalMatch) {
+      recorded = memo.populated(this);
+    }
+    matched = true;
   }
 
   @Override
   public void onFail() {
     super.onFail();
-    try {
-      token.reevaluate();
-    } catch (Throwable e) {
-      error("Failed to reevaluate on failure", e);
+    if (token != null) {
+      try {
+        token.reevaluate();
+      } catch (Throwable e) {
+        error("Failed to reevaluate on failure", e);
+      }
+    }
+    MemoTable memo = session().memo(parent().orElse(null));
+    if (memo != null && !memoized && !matched) {
+      memo.failed(this);
+    }
+  }
+
+  /**
+   * @return result of this token that can be replayed by {@link #memoized} tokens of other parses of the same input
+   * (with the same ignored characters and child number), or null if the token is not populated or tracing back could
+   * change its match
+   */
+  public MemoTable.Entry replay() {
+    return finalMatch && isPopulated() ? MemoTable.entry(this) : null;
+  }
+
+  @Override
+  public boolean alternativesLeft() {
+    if (memoized) {
+      log("Not searching for alternatives -- memoized");
+      return false;
     }
+    return ParentToken.super.alternativesLeft();
+  }
+
+  @Override
+  public void traceback() {
+    if (memoized || recorded) {
+      log("Failing final token on traceback");
+      onFail();
+      return;
+    }
+    ParentToken.super.traceback();
   }
 
   @Override
@@ -266,6 +349,9 @@ public class RuleToken<X extends Rule> extends AbstractToken<X> implements Paren
 
   @Override
   public ParserLocation end() {
+    if (memoized && !isFailed()) {
+      return lastTokenEnd;
+    }
     return isFailed() ?
         location() :
         nextChild > 0 &&values[nextChild - 1] != null ?
@@ -275,6 +361,11 @@ public class RuleToken<X extends Rule> extends AbstractToken<X> implements Paren
 
   @Override
   public boolean rotatable() {
+    if (memoized) {
+      log("Not rotatable -- memoized");
+      return false;
+    }
+
     if (fields.length < 3) {
       log("Not rotatable -- not enough fields");
       return false;
@@ -304,6 +395,7 @@ public class RuleToken<X extends Rule> extends AbstractToken<X> implements Paren
 
   @Override
   public void rotateForth() {
+    session().step();
     log("Rotating");
     token.invalidate();
     RuleToken wrap = new RuleToken(this, 0, fields[0], fields[0].getType(), location());
@@ -316,10 +408,16 @@ public class RuleToken<X extends Rule> extends AbstractToken<X> implements Paren
     X wrapToken = (X) wrap.token().orElse(null);
     wrap.token = token;
     token = wrapToken;
+    ParserListener listener = session().listener();
+    if (listener != null) {
+      listener.tokenCreated(wrap);
+      listener.rotated(this);
+    }
   }
 
   @Override
   public void rotateBack() {
+    session().step();
     log("Un-rotating");
     PartialToken firstToken = values[0];
 
@@ -349,6 +447,10 @@ public class RuleToken<X extends Rule> extends AbstractToken<X> implements Paren
     tokenType = (Class<X>) childTokenType;
     children(values);
     set(fields[fields.length - 1], values[values.length - 1].token().orElse(null));
+    ParserListener listener = session().listener();
+    if (listener != null) {
+      listener.rotatedBack(this);
+    }
   }
 
   @Override
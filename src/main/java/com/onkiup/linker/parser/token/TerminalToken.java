@@ -4,6 +4,7 @@ import java.io.Serializable;
 import java.lang.reflect.Field;
 import java.util.Optional;
 
+import com.onkiup.linker.parser.MatchState;
 import com.onkiup.linker.parser.MatcherFactory;
 import com.onkiup.linker.parser.ParserLocation;
 import com.onkiup.linker.parser.TokenMatcher;
@@ -14,24 +15,34 @@ import com.onkiup.linker.util.LoggerLayout;
  */
 public class TerminalToken extends AbstractToken<String> implements ConsumingToken<String>, Serializable {
   private transient TokenMatcher matcher;
+  private transient MatchState matchState;
+  /**
+   * Matched text; partial matches may be reported as views of parser input, which are only copied once requested
+   */
   private CharSequence token;
 
   public TerminalToken(CompoundToken parent, int position, Field field, Class tokenType, ParserLocation location) {
     super(parent, position, field, location);
     this.matcher = MatcherFactory.forField(parent, field, tokenType);
+    this.matchState = new MatchState();
 
-    this.setTokenMatcher(matcher);
+    this.setTokenMatcher(input -> matchState.test(matcher, input));
   }
 
   @Override
   public void onConsumeSuccess(Object token) {
-    log("MATCHED '{}'", LoggerLayout.sanitize((String)token));
-    this.token = (String) token;
+    if (tracing()) {
+      log("MATCHED '{}'", LoggerLayout.sanitize(token));
+    }
+    this.token = (CharSequence) token;
   }
 
   @Override
   public Optional<String> token() {
-    return Optional.ofNullable(token).map(CharSequence::toString);
+    if (token != null && !(token instanceof String)) {
+      token = token.toString();
+    }
+    return Optional.ofNullable((String) token);
   }
 
   @Override
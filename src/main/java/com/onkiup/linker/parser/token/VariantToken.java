@@ -2,25 +2,28 @@ package com.onkiup.linker.parser.token;
 
 import java.io.Serializable;
 import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
 import java.util.Optional;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
-import com.onkiup.linker.parser.NonParseable;
 import com.onkiup.linker.parser.ParserContext;
 import com.onkiup.linker.parser.ParserLocation;
 import com.onkiup.linker.parser.Rule;
 import com.onkiup.linker.parser.TokenFactory;
-import com.onkiup.linker.parser.TokenGrammar;
-import com.onkiup.linker.parser.annotation.AdjustPriority;
-import com.onkiup.linker.parser.annotation.Alternatives;
-import com.onkiup.linker.parser.annotation.IgnoreCharacters;
-import com.onkiup.linker.parser.annotation.IgnoreVariant;
+import com.onkiup.linker.parser.VariantSpeculator;
+import com.onkiup.linker.parser.grammar.GrammarModel;
+import com.onkiup.linker.parser.grammar.GrammarProfile;
+import com.onkiup.linker.parser.grammar.JunctionRegistry;
+import com.onkiup.linker.parser.grammar.RuleModel;
+import com.onkiup.linker.parser.trace.ParserListener;
 import com.onkiup.linker.parser.util.ParserError;
+import com.onkiup.linker.parser.util.TagIndex;
+import com.onkiup.linker.util.LoggerLayout;
 
 /**
  * A PartialToken used to resolve grammar junctions (non-concrete rule classes
@@ -39,87 +42,53 @@ import com.onkiup.linker.parser.util.ParserError;
  * performance by allowing it to skip previously tested and failed grammar paths
  * after following a non-matching grammar "dead end" paths
  *
- *  This class can be additionally optimized by implementing concurrent grammar junction testing
+ * When enabled with {@link com.onkiup.linker.parser.TokenGrammar#speculate(int)}, junction variants are also tested
+ * in parallel by {@link VariantSpeculator} before they are tried one by one
  *
  * @param <X> the grammar junction class to be resolved
  */
 public class VariantToken<X extends Rule> extends AbstractToken<X> implements CompoundToken<X>, Serializable {
 
-  private static boolean excludeMatchingParents = true;
-
-  /**
-   * Dynamic priorities registry
-   */
-  private static final ConcurrentHashMap<Class, Integer> dynPriorities = new ConcurrentHashMap<>();
-
-  private static final ConcurrentHashMap<PartialToken, ConcurrentHashMap<Integer, ConcurrentHashMap<Class, Boolean>>> tags = new ConcurrentHashMap<>();
-
   private Class<X> tokenType;
+  private transient RuleModel<X> model;
   private Class<? extends X>[] variants;
   private transient PartialToken<? extends X>[] values;
   private PartialToken<? extends X> result;
   private transient int nextVariant = 0;
   private String ignoreCharacters = "";
   private transient List<Class<? extends X>> tried = new LinkedList<>();
+  private transient boolean speculated;
+  /**
+   * Replayable match of the first variant that matched speculatively and its index
+   */
+  private transient MemoTable.Entry speculatedMatch;
+  private transient int speculatedVariant = -1;
 
   public VariantToken(CompoundToken parent, int position, Field field, Class<X> tokenType, ParserLocation location) {
     super(parent, position, field, location);
 
     this.tokenType = tokenType;
-    if (TokenGrammar.isConcrete(tokenType)) {
+    this.model = RuleModel.forClass(tokenType);
+    if (model.isConcrete()) {
       throw new IllegalArgumentException("Variant token cannot handle concrete type " + tokenType);
     }
 
-    if (tokenType.isAnnotationPresent(Alternatives.class)) {
-      variants = tokenType.getAnnotation(Alternatives.class).value();
+    Class<? extends X>[] candidates = ParserContext.get().junctions().variants(tokenType);
+    if (model.alternatives() != null) {
+      variants = candidates;
     } else {
-      final ConcurrentHashMap<Class, Integer> typePriorities = new ConcurrentHashMap<>();
-      variants = ParserContext.get().implementations(tokenType)
-          .filter(TokenGrammar::isConcrete)
-        .filter(type -> {
-          if (type.isAnnotationPresent(IgnoreVariant.class)) {
-            log("Ignoring variant {} -- marked with @IgnoreVariant", type.getSimpleName());
-            return false;
-          }
-          if (NonParseable.class.isInstance(type)) {
-            log("Ignoring non-parseable variant {}", type.getSimpleName());
-            return false;
-          }
-          if (isLeftRecursive(type)) {
-            log("Ignoring variant {} -- left recursive", type.getSimpleName());
-            return false;
-          }
-
-        Boolean tagged = getTag(type).orElse(null);
-        if (tagged != null && !tagged) {
-          log("Ignoring " + type + " (tagged as failed for this position)");
-          return false;
-        }
-        return true;
-      }).sorted((sub1, sub2) -> {
-        if (!typePriorities.containsKey(sub1)) {
-          typePriorities.put(sub1, calculatePriority(sub1));
-        }
-        if (!typePriorities.containsKey(sub2)) {
-          typePriorities.put(sub2, calculatePriority(sub2));
-        }
-
-          int result = Integer.compare(typePriorities.get(sub1), typePriorities.get(sub2));
-          if (result == 0) {
-            result = sub1.getName().compareTo(sub2.getName());
-          }
-          return result;
-        })
-        .toArray(Class[]::new);
+      variants = prioritize(candidates);
     }
     values = new PartialToken[variants.length];
 
     if (parent != null) {
       ignoreCharacters = parent.ignoredCharacters();
+    } else {
+      ignoreCharacters = session().rootIgnoredCharacters();
     }
 
-    if (tokenType.isAnnotationPresent(IgnoreCharacters.class)) {
-      ignoreCharacters += tokenType.getAnnotation(IgnoreCharacters.class).value();
+    if (model.ignoreCharacters() != null) {
+      ignoreCharacters += model.ignoreCharacters();
     }
   }
 
@@ -127,9 +96,41 @@ public class VariantToken<X extends Rule> extends AbstractToken<X> implements Co
     return parent().map(p -> p.tokenType() == target && p.position() == position()).orElse(false);
   }
 
-  private boolean willLeftRecurse(Class<? extends X> target) {
-    Field[] fields = target.getDeclaredFields();
-    return fields.length > 0 && tokenType.isAssignableFrom(fields[0].getType());
+  /**
+   * Removes variants that cannot match at this token's position from the shared list of junction variants and
+   * re-sorts the rest according to their dynamic priorities
+   * @param candidates junction variants ordered by their static priorities
+   * @return variants to test
+   */
+  private Class<? extends X>[] prioritize(Class<? extends X>[] candidates) {
+    Class<? extends X>[] result = new Class[candidates.length];
+    int[] priorities = new int[candidates.length];
+    int size = 0;
+    for (Class<? extends X> type : candidates) {
+      if (isLeftRecursive(type)) {
+        log("Ignoring variant {} -- left recursive", type.getSimpleName());
+        continue;
+      }
+
+      if (getTag(type, -1) == TagIndex.INCOMPATIBLE) {
+        log("Ignoring {} (tagged as failed for this position)", type);
+        skipped(type);
+        continue;
+      }
+
+      int priority = calculatePriority(type);
+      // candidates are already ordered by static priorities, so this loop rarely moves anything
+      int i = size++;
+      while (i > 0 && (priorities[i - 1] > priority ||
+          (priorities[i - 1] == priority && result[i - 1].getName().compareTo(type.getName()) > 0))) {
+        result[i] = result[i - 1];
+        priorities[i] = priorities[i - 1];
+        i--;
+      }
+      result[i] = type;
+      priorities[i] = priority;
+    }
+    return size == result.length ? result : Arrays.copyOf(result, size);
   }
 
   @Override
@@ -140,10 +141,19 @@ public class VariantToken<X extends Rule> extends AbstractToken<X> implements Co
       onFail();
       return Optional.empty();
     }
-    Boolean tag = getTag(variants[nextVariant]).orElse(null);
-    while (Boolean.FALSE.equals(tag) && ++nextVariant < variants.length) {
-      log("Skipping variant {} -- tagged as failed for position {}", variants[nextVariant], position());
-      tag = getTag(variants[nextVariant]).orElse(null);
+    GrammarModel grammar = session().model();
+    int lookahead = lookahead();
+
+    while (nextVariant < variants.length && skip(nextVariant, grammar, lookahead)) {
+      nextVariant++;
+    }
+
+    if (!speculated && nextVariant < variants.length) {
+      speculated = true;
+      speculate(grammar, lookahead);
+      while (nextVariant < variants.length && skip(nextVariant, grammar, lookahead)) {
+        nextVariant++;
+      }
     }
 
     if (nextVariant >= variants.length) {
@@ -153,15 +163,129 @@ public class VariantToken<X extends Rule> extends AbstractToken<X> implements Co
 
     if (values[nextVariant] == null || values[nextVariant].isFailed() || values[nextVariant].isPopulated()) {
       log("Creating partial token for nextChild#{}", nextVariant);
+      if (RuleModel.forClass(variants[nextVariant]).isConcrete()) {
+        session().variantAttempted(tokenType, getTag(variants[nextVariant], nextVariant) == TagIndex.COMPATIBLE);
+      }
       updateDynPriority(variants[nextVariant], 10);
       tried.add(variants[nextVariant]);
-      values[nextVariant] = TokenFactory.forField(this, nextVariant, targetField().orElse(null), variants[nextVariant], location());
+      Field field = targetField().orElse(null);
+      if (nextVariant == speculatedVariant && speculatedMatch != null) {
+        log("Replaying speculative match of variant {}", variants[nextVariant].getSimpleName());
+        values[nextVariant] = TokenFactory.replay(this, nextVariant, field, variants[nextVariant], location(),
+            speculatedMatch);
+        speculatedMatch = null;
+      } else {
+        values[nextVariant] = TokenFactory.forField(this, nextVariant, field, variants[nextVariant], location());
+      }
     }
 
-    log("nextChild#{} = {}", nextVariant, values[nextVariant].tag());
+    if (tracing()) {
+      log("nextChild#{} = {}", nextVariant, values[nextVariant].tag());
+    }
     return Optional.of(values[nextVariant++]);
   }
 
+  /**
+   * @return next (non-ignored) input character or -1 if it is unknown or variants should not be pruned
+   */
+  private int lookahead() {
+    CharSequence buffer = session().buffer();
+    int position = location().position();
+    if (session().pruneVariants() && buffer != null && position < buffer.length()
+        && ignoreCharacters.indexOf(buffer.charAt(position)) < 0) {
+      return buffer.charAt(position);
+    }
+    return -1;
+  }
+
+  /**
+   * Tests next untried concrete variants in parallel (when speculation is enabled for the session) and tags the
+   * variants that failed as incompatible with this token's position, so that the parser skips them; keeps the match
+   * of the first matching variant when it can be replayed
+   * @param grammar compiled grammar model
+   * @param lookahead next (non-ignored) input character or -1 if it is unknown
+   */
+  private void speculate(GrammarModel grammar, int lookahead) {
+    VariantSpeculator speculator = session().speculator();
+    if (speculator == null || session().buffer() == null) {
+      return;
+    }
+    List<Class<? extends X>> candidates = new ArrayList<>(speculator.width());
+    int[] childNumbers = new int[speculator.width()];
+    for (int i = nextVariant; i < variants.length && candidates.size() < speculator.width(); i++) {
+      Class<? extends X> variant = variants[i];
+      if (RuleModel.forClass(variant).isConcrete() && !skip(i, grammar, lookahead)) {
+        childNumbers[candidates.size()] = i;
+        candidates.add(variant);
+      }
+    }
+    if (candidates.size() < 2) {
+      return;
+    }
+
+    log("Speculatively testing {} variants", candidates.size());
+    VariantSpeculator.Result[] results = speculator.test(candidates.toArray(new Class[0]), childNumbers, location(),
+        session(), ignoredCharacters());
+    for (int i = 0; i < results.length; i++) {
+      if (results[i].tag() == TagIndex.INCOMPATIBLE) {
+        String key = tagKey(candidates.get(i), childNumbers[i]);
+        if (key != null) {
+          session().tag(location().position(), candidates.get(i), key, false);
+        }
+      } else if (results[i].tag() == TagIndex.COMPATIBLE) {
+        log("Speculation matched variant {}", candidates.get(i).getSimpleName());
+        speculatedMatch = results[i].match();
+        speculatedVariant = childNumbers[i];
+        break;
+      }
+    }
+  }
+
+  /**
+   * Tests if a variant can be skipped without creating a token for it
+   * @param index index of the variant to test
+   * @param grammar compiled grammar model
+   * @param lookahead next (non-ignored) input character or -1 if it is unknown
+   * @return true if the variant was tagged as failed for this position or cannot start with the next input character
+   */
+  private boolean skip(int index, GrammarModel grammar, int lookahead) {
+    Class<? extends X> variant = variants[index];
+    if (getTag(variant, index) == TagIndex.INCOMPATIBLE) {
+      log("Skipping variant {} -- tagged as failed for position {}", variant, position());
+      skipped(variant);
+      return true;
+    }
+    if (lookahead > -1 && !grammar.firstSet(variant).test((char) lookahead)) {
+      if (tracing()) {
+        log("Skipping variant {} -- cannot start with '{}'", variant, LoggerLayout.sanitize((char) lookahead));
+      }
+      skipped(variant);
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Tests if a variant can match at this token's position, like {@link #skip(int, GrammarModel, int)} but without
+   * notifying the listener
+   * @param index index of the variant to test
+   * @param grammar compiled grammar model
+   * @param lookahead next (non-ignored) input character or -1 if it is unknown
+   * @return false if the variant would be skipped
+   */
+  private boolean canMatch(int index, GrammarModel grammar, int lookahead) {
+    Class<? extends X> variant = variants[index];
+    return getTag(variant, index) != TagIndex.INCOMPATIBLE
+        && (lookahead < 0 || grammar.firstSet(variant).test((char) lookahead));
+  }
+
+  private void skipped(Class<?> variant) {
+    ParserListener listener = session().listener();
+    if (listener != null) {
+      listener.variantSkipped(this, variant);
+    }
+  }
+
   @Override
   public PartialToken<?>[] children() {
     if (nextVariant >= values.length) {
@@ -179,10 +303,14 @@ public class VariantToken<X extends Rule> extends AbstractToken<X> implements Co
   public void onChildPopulated() {
     int current = currentChild();
     updateDynPriority(variants[current], -20);
+    GrammarProfile profile = session().profile();
+    if (profile != null) {
+      profile.hit(tokenType, variants[current]);
+    }
     if (values[current] == null) {
       throw new ParserError("No current token but onChildToken was called...", this);
     }
-    if (TokenGrammar.isConcrete(variants[current])) {
+    if (RuleModel.forClass(variants[current]).isConcrete()) {
       storeTag(values[current], true);
     }
     if (values[current].isMetaToken()) {
@@ -203,43 +331,48 @@ public class VariantToken<X extends Rule> extends AbstractToken<X> implements Co
   }
 
   private void storeTag(PartialToken token, boolean result) {
-    PartialToken<?> root = root();
-    int position = token.position();
+    int position = token.location().position();
     Class ofType = token.tokenType();
-    if (!tags.containsKey(root)) {
-      tags.put(root, new ConcurrentHashMap<>());
-    }
-    ConcurrentHashMap<Integer, ConcurrentHashMap<Class, Boolean>> myTags = tags.get(root);
-    if (!myTags.containsKey(position)) {
-      myTags.put(position, new ConcurrentHashMap<>());
-    }
-    if (result || !myTags.get(position).containsKey(ofType)) {
-      myTags.get(position).put(ofType, result);
+    String key = tagKey(ofType, token.position());
+    if (key != null && session().tag(position, ofType, key, result)) {
       log("Tagged position {} as {} with type {}", position, result ? "compatible" : "incompatible", ofType.getName());
     }
   }
 
-  private <Z> Optional<Boolean> getTag(Class<Z> forType) {
-    log("Searching for tags on {}", forType.getName());
-    return getTags().map(tags -> tags.get(forType));
+  /**
+   * @param forType junction variant
+   * @param childNumber child number of the variant's token or -1 if it is not known yet
+   * @return compatibility tag of the variant for this token's position
+   */
+  private int getTag(Class<?> forType, int childNumber) {
+    String key = tagKey(forType, childNumber);
+    return key == null ? TagIndex.UNKNOWN : session().tag(location().position(), forType, key);
   }
 
-  private Optional<Map<Class, Boolean>> getTags() {
-    int position = location().position();
-    PartialToken<?> root = root();
-    log("Searching tags for position {}", position);
-    if (!tags.containsKey(root)) {
-      log("Did not find tags for root token");
-      return Optional.empty();
+  /**
+   * Tags are keyed like memoized results (see {@link MemoTable}): by characters that tokens of the variant ignore,
+   * while results of variants that depend on child numbers of their tokens are not tagged at all
+   * @param variant junction variant
+   * @param childNumber child number of the variant's token or -1 if it is not known yet
+   * @return characters ignored by tokens of the variant or null if the variant cannot be tagged
+   */
+  private String tagKey(Class<?> variant, int childNumber) {
+    RuleModel<?> variantModel = RuleModel.forClass(variant);
+    if (childNumber < 0 ? variantModel.hasRecursiveFields() : variantModel.recursionContext(childNumber) > -1) {
+      return null;
     }
-    return Optional.ofNullable(tags.get(root).get(position));
+    return variantModel.ignoreCharacters(ignoredCharacters());
   }
 
   @Override
   public void onChildFailed() {
     int current = currentChild();
     updateDynPriority(variants[current], 30);
-    if (TokenGrammar.isConcrete(variants[current])) {
+    GrammarProfile profile = session().profile();
+    if (profile != null) {
+      profile.miss(tokenType, variants[current]);
+    }
+    if (RuleModel.forClass(variants[current]).isConcrete()) {
       storeTag(values[current], false);
     }
     if (nextVariant >= variants.length) {
@@ -268,7 +401,9 @@ public class VariantToken<X extends Rule> extends AbstractToken<X> implements Co
 
   @Override
   public void onFail() {
-    log("Tried: {}", tried.stream().map(Class::getSimpleName).collect(Collectors.joining(", ")));
+    if (tracing()) {
+      log("Tried: {}", tried.stream().map(Class::getSimpleName).collect(Collectors.joining(", ")));
+    }
     result = null;
     super.onFail();
   }
@@ -306,26 +441,13 @@ public class VariantToken<X extends Rule> extends AbstractToken<X> implements Co
   }
 
   private int calculatePriority(Class<? extends X> type) {
-    int result = dynPriorities.getOrDefault(type, 0);
-    if (!TokenGrammar.isConcrete(type)) {
-      result += 1000;
-    }
+    int result = JunctionRegistry.staticPriority(tokenType, type) + session().priorities().priority(type);
 
     if (findInPath(other -> type == other.tokenType()).isPresent()) {
       result += 1000;
     }
 
-    if (willLeftRecurse(type)) {
-      result += 99999;
-    }
-
-    if (type.isAnnotationPresent(AdjustPriority.class)) {
-      AdjustPriority adjust = type.getAnnotation(AdjustPriority.class);
-      result += adjust.value();
-      log("Adjusted priority by " + adjust.value());
-    }
-
-    log(type.getSimpleName() + " priority " + result);
+    log("{} priority {}", type.getSimpleName(), result);
 
     return result;
   }
@@ -369,8 +491,15 @@ public class VariantToken<X extends Rule> extends AbstractToken<X> implements Co
       return false;
     }
     if (nextVariant < variants.length) {
-      log("some untested variants left -- counting as alternatives");
-      return true;
+      GrammarModel grammar = session().model();
+      int lookahead = lookahead();
+      for (int i = nextVariant; i < variants.length; i++) {
+        if (canMatch(i, grammar, lookahead)) {
+          log("some untested variants left -- counting as alternatives");
+          return true;
+        }
+      }
+      log("untested variants cannot match at this position -- not counting as alternatives");
     }
     for (int i = currentChild(); i > -1; i--) {
       if (values[i] != null) {
@@ -378,10 +507,11 @@ public class VariantToken<X extends Rule> extends AbstractToken<X> implements Co
           log("found alternatives at value#{}: {}", i, values[i]);
           return true;
         }
-      } else {
+      } else if (i == currentChild()) {
         log("value#{} is null -- counting as an alternative", i);
         return true;
       }
+      // variants before the current one that have no tokens were skipped
     }
     log("-- no alternatives left in any of {} variants", variants.length);
     return false;
@@ -397,8 +527,8 @@ public class VariantToken<X extends Rule> extends AbstractToken<X> implements Co
 
   @Override
   public boolean propagatePriority() {
-    if (tokenType.isAnnotationPresent(AdjustPriority.class)) {
-      return tokenType.getAnnotation(AdjustPriority.class).propagate();
+    if (model.adjustsPriority()) {
+      return model.propagatePriority();
     }
     int current = currentChild();
     if (values[current] != null) {
@@ -410,9 +540,7 @@ public class VariantToken<X extends Rule> extends AbstractToken<X> implements Co
   @Override
   public int basePriority() {
     int result = 0;
-    if (tokenType.isAnnotationPresent(AdjustPriority.class)) {
-      result += tokenType.getAnnotation(AdjustPriority.class).value();
-    }
+    result += model.priorityAdjustment();
     int current = currentChild();
     if (values[current].propagatePriority()) {
       result += values[current].basePriority();
@@ -424,6 +552,13 @@ public class VariantToken<X extends Rule> extends AbstractToken<X> implements Co
     return Optional.ofNullable(values[currentChild()]);
   }
 
+  /**
+   * @return variants this token created child tokens for, in order
+   */
+  public List<Class<? extends X>> tried() {
+    return Collections.unmodifiableList(tried);
+  }
+
   @Override
   public int unfilledChildren() {
     return variants.length - currentChild();
@@ -439,11 +574,8 @@ public class VariantToken<X extends Rule> extends AbstractToken<X> implements Co
     throw new UnsupportedOperationException();
   }
 
-  private static void updateDynPriority(Class target, int change) {
-    if (!dynPriorities.containsKey(target)) {
-      dynPriorities.put(target, 0);
-    }
-    dynPriorities.put(target, dynPriorities.get(target) + change);
+  private void updateDynPriority(Class<?> target, int change) {
+    session().priorities().update(target, change);
   }
 
   @Override
@@ -0,0 +1,112 @@
+package com.onkiup.linker.parser.trace;
+
+import com.onkiup.linker.parser.grammar.GrammarModel;
+import com.onkiup.linker.parser.token.CompoundToken;
+import com.onkiup.linker.parser.token.ConsumingToken;
+import com.onkiup.linker.parser.token.PartialToken;
+
+/**
+ * Forwards parser events to several listeners
+ */
+final class CompositeListener implements ParserListener {
+  private final ParserListener[] listeners;
+  private final boolean tokenLogging;
+
+  CompositeListener(ParserListener[] listeners) {
+    this.listeners = listeners.clone();
+    boolean tokenLogging = false;
+    for (ParserListener listener : listeners) {
+      tokenLogging |= listener.tokenLogging();
+    }
+    this.tokenLogging = tokenLogging;
+  }
+
+  @Override
+  public void grammarCompiled(GrammarModel model, long nanos) {
+    for (ParserListener listener : listeners) {
+      listener.grammarCompiled(model, nanos);
+    }
+  }
+
+  @Override
+  public void parseStarted(String sourceName, CharSequence buffer) {
+    for (ParserListener listener : listeners) {
+      listener.parseStarted(sourceName, buffer);
+    }
+  }
+
+  @Override
+  public void parseFinished(String sourceName, Throwable error) {
+    for (ParserListener listener : listeners) {
+      listener.parseFinished(sourceName, error);
+    }
+  }
+
+  @Override
+  public void step(CompoundToken<?> root, ConsumingToken<?> consumer) {
+    for (ParserListener listener : listeners) {
+      listener.step(root, consumer);
+    }
+  }
+
+  @Override
+  public void consumed(ConsumingToken<?> consumer, int from, int to) {
+    for (ParserListener listener : listeners) {
+      listener.consumed(consumer, from, to);
+    }
+  }
+
+  @Override
+  public void tokenCreated(PartialToken<?> token) {
+    for (ParserListener listener : listeners) {
+      listener.tokenCreated(token);
+    }
+  }
+
+  @Override
+  public void tokenPopulated(PartialToken<?> token) {
+    for (ParserListener listener : listeners) {
+      listener.tokenPopulated(token);
+    }
+  }
+
+  @Override
+  public void tokenFailed(PartialToken<?> token) {
+    for (ParserListener listener : listeners) {
+      listener.tokenFailed(token);
+    }
+  }
+
+  @Override
+  public void traceback(CompoundToken<?> parent, PartialToken<?> child) {
+    for (ParserListener listener : listeners) {
+      listener.traceback(parent, child);
+    }
+  }
+
+  @Override
+  public void rotated(PartialToken<?> token) {
+    for (ParserListener listener : listeners) {
+      listener.rotated(token);
+    }
+  }
+
+  @Override
+  public void rotatedBack(PartialToken<?> token) {
+    for (ParserListener listener : listeners) {
+      listener.rotatedBack(token);
+    }
+  }
+
+  @Override
+  public void variantSkipped(CompoundToken<?> junction, Class<?> variant) {
+    for (ParserListener listener : listeners) {
+      listener.variantSkipped(junction, variant);
+    }
+  }
+
+  @Override
+  public boolean tokenLogging() {
+    return tokenLogging;
+  }
+}
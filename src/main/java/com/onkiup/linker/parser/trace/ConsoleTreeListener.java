@@ -0,0 +1,51 @@
+package com.onkiup.linker.parser.trace;
+
+import java.io.PrintStream;
+
+import com.onkiup.linker.parser.token.CompoundToken;
+import com.onkiup.linker.parser.token.ConsumingToken;
+import com.onkiup.linker.util.LoggerLayout;
+
+/**
+ * Clears the console and prints the whole token tree before each parser step, marking the current consuming token.
+ * Useful for watching the parser work through small inputs; far too slow for anything else
+ */
+public class ConsoleTreeListener implements ParserListener {
+  private static final String SEPARATOR =
+      "|----------------------------------------------------------------------------------------";
+
+  private final PrintStream out;
+
+  public ConsoleTreeListener() {
+    this(System.out);
+  }
+
+  /**
+   * @param out stream to print token trees into
+   */
+  public ConsoleTreeListener(PrintStream out) {
+    this.out = out;
+  }
+
+  @Override
+  public void step(CompoundToken<?> root, ConsumingToken<?> consumer) {
+    out.print("\u001B[H\u001Bc");
+    out.println(SEPARATOR);
+    out.println(consumer.location().toString());
+    out.println(SEPARATOR);
+    out.print(root.dumpTree(token -> {
+      StringBuilder result = new StringBuilder();
+      if (token == consumer) {
+        result.append(">>> ");
+      }
+      return result
+          .append(token.getClass().getSimpleName())
+          .append("(").append(token.position()).append(" - ").append(token.end().position()).append(")")
+          .append(" :: '")
+          .append(LoggerLayout.sanitize(token.head(50)))
+          .append("'");
+    }));
+    out.println(SEPARATOR);
+    out.println(SEPARATOR);
+  }
+}
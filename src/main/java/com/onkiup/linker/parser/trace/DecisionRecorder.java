@@ -0,0 +1,209 @@
+package com.onkiup.linker.parser.trace;
+
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.onkiup.linker.parser.ParseSession;
+import com.onkiup.linker.parser.grammar.GrammarModel;
+import com.onkiup.linker.parser.token.CompoundToken;
+import com.onkiup.linker.parser.token.ConsumingToken;
+import com.onkiup.linker.parser.token.PartialToken;
+
+/**
+ * Keeps the last N parser decisions in a fixed-size per-thread ring buffer and dumps them when a parse fails or
+ * takes longer than a configured threshold. Each decision is stored as a kind, a rule id (see
+ * {@link GrammarModel#ruleId(Class)}), a buffer position and an outcome in preallocated arrays. Recording does not
+ * allocate, and decisions are only formatted into text when a dump is written; use {@link ConsoleTreeListener} to
+ * see the whole token tree instead
+ */
+public class DecisionRecorder implements ParserListener {
+  private static final Logger logger = LoggerFactory.getLogger(DecisionRecorder.class);
+
+  /**
+   * Decision kinds
+   */
+  public static final byte STEP = 0;
+  public static final byte POPULATED = 1;
+  public static final byte FAILED = 2;
+  public static final byte TRACEBACK = 3;
+  public static final byte ROTATED = 4;
+  public static final byte ROTATED_BACK = 5;
+
+  private static final String[] KINDS = {"STEP", "POPULATED", "FAILED", "TRACEBACK", "ROTATED", "ROTATED BACK"};
+
+  private final int capacity;
+  private final long thresholdNanos;
+  private final Consumer<String> sink;
+  private final ThreadLocal<Ring> rings;
+
+  /**
+   * Creates a recorder that dumps decisions into this class' logger with WARN level
+   * @param capacity number of decisions to keep
+   * @param thresholdMillis parse duration (in milliseconds) after which decisions are dumped
+   */
+  public DecisionRecorder(int capacity, long thresholdMillis) {
+    this(capacity, thresholdMillis, logger::warn);
+  }
+
+  /**
+   * @param capacity number of decisions to keep
+   * @param thresholdMillis parse duration (in milliseconds) after which decisions are dumped
+   * @param sink receives dumps
+   */
+  public DecisionRecorder(int capacity, long thresholdMillis, Consumer<String> sink) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("Capacity should be positive");
+    }
+    this.capacity = capacity;
+    this.thresholdNanos = thresholdMillis * 1_000_000L;
+    this.sink = sink;
+    this.rings = ThreadLocal.withInitial(() -> new Ring(capacity));
+  }
+
+  /**
+   * @return number of decisions kept by this recorder
+   */
+  public int capacity() {
+    return capacity;
+  }
+
+  @Override
+  public void parseStarted(String sourceName, CharSequence buffer) {
+    Ring ring = rings.get();
+    if (ring.depth++ == 0) {
+      ring.source = sourceName;
+      ring.model = ParseSession.current().model();
+      ring.started = System.nanoTime();
+      ring.count = 0;
+    }
+  }
+
+  @Override
+  public void parseFinished(String sourceName, Throwable error) {
+    Ring ring = rings.get();
+    if (ring.depth == 0 || --ring.depth > 0) {
+      return;
+    }
+    long elapsed = System.nanoTime() - ring.started;
+    if (error != null) {
+      sink.accept(dump(ring, "Parse of " + ring.source + " failed after " + elapsed / 1_000_000 + "ms: " + error));
+    } else if (elapsed > thresholdNanos) {
+      sink.accept(dump(ring, "Parse of " + ring.source + " took " + elapsed / 1_000_000 + "ms"));
+    }
+    ring.model = null;
+    ring.source = null;
+  }
+
+  @Override
+  public void step(CompoundToken<?> root, ConsumingToken<?> consumer) {
+    record(STEP, consumer, consumer.location().position());
+  }
+
+  @Override
+  public void tokenPopulated(PartialToken<?> token) {
+    record(POPULATED, token, token.end().position());
+  }
+
+  @Override
+  public void tokenFailed(PartialToken<?> token) {
+    record(FAILED, token, token.location().position());
+  }
+
+  @Override
+  public void traceback(CompoundToken<?> parent, PartialToken<?> child) {
+    Ring ring = rings.get();
+    record(ring, TRACEBACK, child, ruleId(ring, parent));
+  }
+
+  @Override
+  public void rotated(PartialToken<?> token) {
+    record(ROTATED, token, token.location().position());
+  }
+
+  @Override
+  public void rotatedBack(PartialToken<?> token) {
+    record(ROTATED_BACK, token, token.location().position());
+  }
+
+  private void record(byte kind, PartialToken<?> token, int outcome) {
+    record(rings.get(), kind, token, outcome);
+  }
+
+  private static void record(Ring ring, byte kind, PartialToken<?> token, int outcome) {
+    if (ring.depth == 0) {
+      return;
+    }
+    int index = (int) (ring.count++ % ring.kinds.length);
+    ring.kinds[index] = kind;
+    ring.rules[index] = ruleId(ring, token);
+    ring.positions[index] = token.location().position();
+    ring.outcomes[index] = outcome;
+  }
+
+  /**
+   * @return id of the token's rule or, for terminals, of its parent's rule (-1 if unknown)
+   */
+  private static int ruleId(Ring ring, PartialToken<?> token) {
+    if (ring.model == null) {
+      return -1;
+    }
+    int result = ring.model.ruleId(token.tokenType());
+    if (result < 0) {
+      CompoundToken<?> parent = token.parent().orElse(null);
+      if (parent != null) {
+        result = ring.model.ruleId(parent.tokenType());
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Formats recorded decisions, oldest first
+   */
+  private static String dump(Ring ring, String header) {
+    StringBuilder result = new StringBuilder(header);
+    long first = Math.max(0, ring.count - ring.kinds.length);
+    result.append("; last ").append(ring.count - first).append(" of ").append(ring.count).append(" decisions:");
+    for (long i = first; i < ring.count; i++) {
+      int index = (int) (i % ring.kinds.length);
+      byte kind = ring.kinds[index];
+      result.append("\n  #").append(i).append(' ').append(KINDS[kind]).append(' ')
+          .append(rule(ring, ring.rules[index])).append(" @").append(ring.positions[index]);
+      if (kind == TRACEBACK) {
+        result.append(" -> ").append(rule(ring, ring.outcomes[index]));
+      } else if (kind == POPULATED) {
+        result.append(" .. ").append(ring.outcomes[index]);
+      }
+    }
+    return result.toString();
+  }
+
+  private static String rule(Ring ring, int id) {
+    Class<?> type = ring.model == null ? null : ring.model.ruleType(id);
+    return type == null ? "rule#" + id : type.getName();
+  }
+
+  /**
+   * Per-thread decision buffer
+   */
+  private static final class Ring {
+    private final byte[] kinds;
+    private final int[] rules;
+    private final int[] positions;
+    private final int[] outcomes;
+    private long count;
+    private int depth;
+    private long started;
+    private String source;
+    private GrammarModel model;
+
+    private Ring(int capacity) {
+      kinds = new byte[capacity];
+      rules = new int[capacity];
+      positions = new int[capacity];
+      outcomes = new int[capacity];
+    }
+  }
+}
@@ -0,0 +1,137 @@
+package com.onkiup.linker.parser.trace;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Enumeration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Appender;
+import org.apache.log4j.Layout;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.onkiup.linker.parser.token.CompoundToken;
+import com.onkiup.linker.parser.token.ConsumingToken;
+import com.onkiup.linker.parser.token.PartialToken;
+import com.onkiup.linker.util.LoggerLayout;
+
+/**
+ * Writes parser events into slf4j debug log and enables per-token loggers.
+ * While at least one parse with this listener is running, layouts of log4j root appenders are wrapped with
+ * {@link LoggerLayout}, which prefixes messages logged by parsing threads with the part of input that precedes
+ * current parser position
+ */
+public class LoggingListener implements ParserListener {
+  private static final Logger logger = LoggerFactory.getLogger("PARSER LOOP");
+  private static final Object LAYOUTS = new Object();
+  /**
+   * Number of running parses that use custom log4j layouts
+   */
+  private static int layoutUsers;
+
+  private final ThreadLocal<Deque<Attachment>> attachments = ThreadLocal.withInitial(ArrayDeque::new);
+
+  @Override
+  public void parseStarted(String sourceName, CharSequence buffer) {
+    AtomicInteger position = new AtomicInteger();
+    attachments.get().push(new Attachment(LoggerLayout.attach(buffer, position::get), position));
+    synchronized (LAYOUTS) {
+      if (layoutUsers++ == 0) {
+        Enumeration<Appender> appenders = org.apache.log4j.Logger.getRootLogger().getAllAppenders();
+        while(appenders.hasMoreElements()) {
+          Appender appender = appenders.nextElement();
+          if (!(appender.getLayout() instanceof LoggerLayout)) {
+            appender.setLayout(new LoggerLayout(appender.getLayout()));
+          }
+        }
+      }
+    }
+    logger.debug("Parsing {}", sourceName);
+  }
+
+  @Override
+  public void parseFinished(String sourceName, Throwable error) {
+    if (error == null) {
+      logger.debug("Parsed {}", sourceName);
+    } else {
+      logger.debug("Failed to parse {}", sourceName, error);
+    }
+    Attachment attachment = attachments.get().poll();
+    if (attachment != null) {
+      LoggerLayout.detach(attachment.previous);
+    }
+    synchronized (LAYOUTS) {
+      if (--layoutUsers == 0) {
+        Enumeration<Appender> appenders = org.apache.log4j.Logger.getRootLogger().getAllAppenders();
+        while(appenders.hasMoreElements()) {
+          Appender appender = appenders.nextElement();
+          Layout layout = appender.getLayout();
+          if (layout instanceof LoggerLayout) {
+            appender.setLayout(((LoggerLayout) layout).parent());
+          }
+        }
+      }
+    }
+  }
+
+  @Override
+  public void step(CompoundToken<?> root, ConsumingToken<?> consumer) {
+    Attachment attachment = attachments.get().peek();
+    if (attachment != null) {
+      attachment.position.set(consumer.end().position());
+    }
+    if (logger.isDebugEnabled()) {
+      logger.debug("--->>> NEXT CONSUMER: {}", consumer.tag());
+    }
+  }
+
+  @Override
+  public void tokenPopulated(PartialToken<?> token) {
+    if (logger.isDebugEnabled()) {
+      logger.debug("populated: {}", token.tag());
+    }
+  }
+
+  @Override
+  public void tokenFailed(PartialToken<?> token) {
+    if (logger.isDebugEnabled()) {
+      logger.debug("!!! FAILED !!! {}", token.tag());
+    }
+  }
+
+  @Override
+  public void traceback(CompoundToken<?> parent, PartialToken<?> child) {
+    if (logger.isDebugEnabled()) {
+      logger.debug("^^^--- TRACEBACK: {} <- {}", parent.tag(), child.tag());
+    }
+  }
+
+  @Override
+  public void rotated(PartialToken<?> token) {
+    if (logger.isDebugEnabled()) {
+      logger.debug("Rotated {}", token.tag());
+    }
+  }
+
+  @Override
+  public void variantSkipped(CompoundToken<?> junction, Class<?> variant) {
+    if (logger.isDebugEnabled()) {
+      logger.debug("{} skipped variant {}", junction.tag(), variant.getName());
+    }
+  }
+
+  @Override
+  public boolean tokenLogging() {
+    return true;
+  }
+
+  private static final class Attachment {
+    private final Object previous;
+    private final AtomicInteger position;
+
+    private Attachment(Object previous, AtomicInteger position) {
+      this.previous = previous;
+      this.position = position;
+    }
+  }
+}
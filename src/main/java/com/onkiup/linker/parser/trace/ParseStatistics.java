@@ -0,0 +1,160 @@
+package com.onkiup.linker.parser.trace;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Counters collected by {@link StatisticsListener} during a single parse
+ */
+public final class ParseStatistics {
+  private final String source;
+  private final boolean failed;
+  private final long nanos;
+  private final int inputLength;
+  private final Map<Class<?>, Long> tokensCreated;
+  private final long steps;
+  private final long variantsTested;
+  private final long variantsSkipped;
+  private final long tracebacks;
+  private final long rotations;
+  private final long charactersConsumed;
+  private final long charactersReexamined;
+  private final int peakDepth;
+
+  ParseStatistics(String source, boolean failed, long nanos, int inputLength, Map<Class<?>, Long> tokensCreated,
+      long steps, long variantsTested, long variantsSkipped, long tracebacks, long rotations, long charactersConsumed,
+      long charactersReexamined, int peakDepth) {
+    this.source = source;
+    this.failed = failed;
+    this.nanos = nanos;
+    this.inputLength = inputLength;
+    this.tokensCreated = Collections.unmodifiableMap(tokensCreated);
+    this.steps = steps;
+    this.variantsTested = variantsTested;
+    this.variantsSkipped = variantsSkipped;
+    this.tracebacks = tracebacks;
+    this.rotations = rotations;
+    this.charactersConsumed = charactersConsumed;
+    this.charactersReexamined = charactersReexamined;
+    this.peakDepth = peakDepth;
+  }
+
+  /**
+   * @return the name of the parsed source
+   */
+  public String source() {
+    return source;
+  }
+
+  /**
+   * @return true if the parse terminated with an error
+   */
+  public boolean isFailed() {
+    return failed;
+  }
+
+  /**
+   * @return wall-clock time spent in the parse, in nanoseconds
+   */
+  public long nanos() {
+    return nanos;
+  }
+
+  /**
+   * @return the number of characters read from the source
+   */
+  public int inputLength() {
+    return inputLength;
+  }
+
+  /**
+   * @return the number of created tokens mapped by token types (rule classes, enum classes, array types and
+   * String for terminals)
+   */
+  public Map<Class<?>, Long> tokensCreated() {
+    return tokensCreated;
+  }
+
+  /**
+   * @return total number of created tokens
+   */
+  public long totalTokensCreated() {
+    long result = 0;
+    for (long count : tokensCreated.values()) {
+      result += count;
+    }
+    return result;
+  }
+
+  /**
+   * @return the number of times the parser passed control to a consuming token
+   */
+  public long steps() {
+    return steps;
+  }
+
+  /**
+   * @return the number of junction variants the parser tried to match
+   */
+  public long variantsTested() {
+    return variantsTested;
+  }
+
+  /**
+   * @return the number of junction variants skipped without testing (by tags or first sets)
+   */
+  public long variantsSkipped() {
+    return variantsSkipped;
+  }
+
+  /**
+   * @return the number of times the parser traced back from a failed token
+   */
+  public long tracebacks() {
+    return tracebacks;
+  }
+
+  /**
+   * @return the number of token rotations
+   */
+  public long rotations() {
+    return rotations;
+  }
+
+  /**
+   * @return the number of distinct characters consumed by the parser (the furthest position it reached)
+   */
+  public long charactersConsumed() {
+    return charactersConsumed;
+  }
+
+  /**
+   * @return the number of characters consumed again after the parser had already consumed them once
+   */
+  public long charactersReexamined() {
+    return charactersReexamined;
+  }
+
+  /**
+   * @return how many times, on average, the parser consumed each character it reached
+   */
+  public double reexaminationRatio() {
+    return charactersConsumed == 0 ? 0 : (double) (charactersConsumed + charactersReexamined) / charactersConsumed;
+  }
+
+  /**
+   * @return the maximal depth of a consuming token in the token tree (the root token has depth 0)
+   */
+  public int peakDepth() {
+    return peakDepth;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("ParseStatistics[%s%s: %.3f ms, %d chars (%d consumed, %d re-examined, x%.2f), %d steps, "
+            + "%d tokens, %d variants tested, %d skipped, %d tracebacks, %d rotations, depth %d]",
+        source, failed ? " (failed)" : "", nanos / 1e6, inputLength, charactersConsumed, charactersReexamined,
+        reexaminationRatio(), steps, totalTokensCreated(), variantsTested, variantsSkipped, tracebacks, rotations,
+        peakDepth);
+  }
+}
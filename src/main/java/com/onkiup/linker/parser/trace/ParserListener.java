@@ -0,0 +1,123 @@
+package com.onkiup.linker.parser.trace;
+
+import com.onkiup.linker.parser.grammar.GrammarModel;
+import com.onkiup.linker.parser.token.CompoundToken;
+import com.onkiup.linker.parser.token.ConsumingToken;
+import com.onkiup.linker.parser.token.PartialToken;
+
+/**
+ * Receives parser events. Listeners are installed with
+ * {@link com.onkiup.linker.parser.TokenGrammar#listener(ParserListener)}; when no listener is installed, the parser
+ * neither builds event arguments nor looks up per-token loggers.
+ * Listeners shared by grammars that parse concurrently are called from multiple threads (but events of a single parse
+ * are always delivered from the thread that runs the parse)
+ */
+public interface ParserListener {
+
+  /**
+   * Invoked after a grammar compiled its model
+   * @param model compiled grammar model
+   * @param nanos time spent on compilation, in nanoseconds
+   */
+  default void grammarCompiled(GrammarModel model, long nanos) {
+  }
+
+  /**
+   * Invoked before the parser starts processing a source
+   * @param sourceName the name of the source
+   * @param buffer parser buffer
+   */
+  default void parseStarted(String sourceName, CharSequence buffer) {
+  }
+
+  /**
+   * Invoked after the parser finished processing a source
+   * @param sourceName the name of the source
+   * @param error the error that terminated the parse or null if the source was parsed
+   */
+  default void parseFinished(String sourceName, Throwable error) {
+  }
+
+  /**
+   * Invoked each time the parser passes control to a consuming token
+   * @param root root token of the parse
+   * @param consumer token that is about to consume characters
+   */
+  default void step(CompoundToken<?> root, ConsumingToken<?> consumer) {
+  }
+
+  /**
+   * Invoked after a consuming token stopped consuming characters
+   * @param consumer the token that consumed characters
+   * @param from parser position before the token was given control
+   * @param to parser position after the token stopped consuming
+   */
+  default void consumed(ConsumingToken<?> consumer, int from, int to) {
+  }
+
+  /**
+   * Invoked when a token is created
+   * @param token created token
+   */
+  default void tokenCreated(PartialToken<?> token) {
+  }
+
+  /**
+   * Invoked when a token matches parser input
+   * @param token populated token
+   */
+  default void tokenPopulated(PartialToken<?> token) {
+  }
+
+  /**
+   * Invoked when a token fails to match parser input
+   * @param token failed token
+   */
+  default void tokenFailed(PartialToken<?> token) {
+  }
+
+  /**
+   * Invoked when the parser traces back from a failed token to its parent
+   * @param parent parent token
+   * @param child failed token
+   */
+  default void traceback(CompoundToken<?> parent, PartialToken<?> child) {
+  }
+
+  /**
+   * Invoked when a token is rotated (rearranged to respect priorities of its children)
+   * @param token rotated token
+   */
+  default void rotated(PartialToken<?> token) {
+  }
+
+  /**
+   * Invoked when a rotated token is restored to its original arrangement
+   * @param token un-rotated token
+   */
+  default void rotatedBack(PartialToken<?> token) {
+  }
+
+  /**
+   * Invoked when a junction skips one of its variants without testing it
+   * @param junction junction token
+   * @param variant skipped variant
+   */
+  default void variantSkipped(CompoundToken<?> junction, Class<?> variant) {
+  }
+
+  /**
+   * @return true if tokens should write their own debug messages into per-token loggers
+   */
+  default boolean tokenLogging() {
+    return false;
+  }
+
+  /**
+   * @param listeners listeners to combine
+   * @return a listener that forwards all events to all given listeners in order
+   */
+  static ParserListener all(ParserListener... listeners) {
+    return listeners.length == 1 ? listeners[0] : new CompositeListener(listeners);
+  }
+}
@@ -0,0 +1,133 @@
+package com.onkiup.linker.parser.trace;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Aggregates {@link ParseStatistics} of many parses into totals that can be exported to a metrics system.
+ * Safe to use from multiple threads:
+ * <pre>
+ *   StatisticsCollector collector = new StatisticsCollector();
+ *   grammar.listener(new StatisticsListener(collector));
+ *   ...
+ *   collector.metrics().forEach(registry::gauge);
+ * </pre>
+ */
+public class StatisticsCollector implements Consumer<ParseStatistics> {
+  private final LongAdder parses = new LongAdder();
+  private final LongAdder failures = new LongAdder();
+  private final LongAdder nanos = new LongAdder();
+  private final LongAdder characters = new LongAdder();
+  private final LongAdder steps = new LongAdder();
+  private final LongAdder tokens = new LongAdder();
+  private final LongAdder variantsTested = new LongAdder();
+  private final LongAdder variantsSkipped = new LongAdder();
+  private final LongAdder tracebacks = new LongAdder();
+  private final LongAdder rotations = new LongAdder();
+  private final LongAdder charactersConsumed = new LongAdder();
+  private final LongAdder charactersReexamined = new LongAdder();
+  private final LongAccumulator peakDepth = new LongAccumulator(Math::max, 0);
+  private final Map<Class<?>, LongAdder> tokensByType = new ConcurrentHashMap<>();
+  private final AtomicReference<ParseStatistics> worst = new AtomicReference<>();
+
+  @Override
+  public void accept(ParseStatistics statistics) {
+    parses.increment();
+    if (statistics.isFailed()) {
+      failures.increment();
+    }
+    nanos.add(statistics.nanos());
+    characters.add(statistics.inputLength());
+    steps.add(statistics.steps());
+    tokens.add(statistics.totalTokensCreated());
+    variantsTested.add(statistics.variantsTested());
+    variantsSkipped.add(statistics.variantsSkipped());
+    tracebacks.add(statistics.tracebacks());
+    rotations.add(statistics.rotations());
+    charactersConsumed.add(statistics.charactersConsumed());
+    charactersReexamined.add(statistics.charactersReexamined());
+    peakDepth.accumulate(statistics.peakDepth());
+    statistics.tokensCreated().forEach((type, count) ->
+        tokensByType.computeIfAbsent(type, t -> new LongAdder()).add(count));
+    worst.accumulateAndGet(statistics, (current, candidate) ->
+        current == null || nanosPerCharacter(candidate) > nanosPerCharacter(current) ? candidate : current);
+  }
+
+  private static double nanosPerCharacter(ParseStatistics statistics) {
+    return (double) statistics.nanos() / Math.max(1, statistics.inputLength());
+  }
+
+  /**
+   * @return the number of collected parses
+   */
+  public long parses() {
+    return parses.sum();
+  }
+
+  /**
+   * @return the number of collected parses that failed
+   */
+  public long failures() {
+    return failures.sum();
+  }
+
+  /**
+   * @return statistics of the collected parse that spent the most time per input character or null
+   */
+  public ParseStatistics worst() {
+    return worst.get();
+  }
+
+  /**
+   * @return the number of created tokens mapped by token type, summed over all collected parses
+   */
+  public Map<Class<?>, Long> tokensByType() {
+    Map<Class<?>, Long> result = new LinkedHashMap<>();
+    tokensByType.forEach((type, count) -> result.put(type, count.sum()));
+    return result;
+  }
+
+  /**
+   * @return aggregated counters mapped by metric names
+   */
+  public Map<String, Number> metrics() {
+    Map<String, Number> result = new LinkedHashMap<>();
+    result.put("parses", parses.sum());
+    result.put("failures", failures.sum());
+    result.put("nanos", nanos.sum());
+    result.put("characters", characters.sum());
+    result.put("steps", steps.sum());
+    result.put("tokens", tokens.sum());
+    result.put("variants.tested", variantsTested.sum());
+    result.put("variants.skipped", variantsSkipped.sum());
+    result.put("tracebacks", tracebacks.sum());
+    result.put("rotations", rotations.sum());
+    result.put("characters.consumed", charactersConsumed.sum());
+    result.put("characters.reexamined", charactersReexamined.sum());
+    result.put("depth.peak", peakDepth.get());
+    return result;
+  }
+
+  /**
+   * Drops all collected statistics
+   */
+  public void reset() {
+    for (LongAdder adder : new LongAdder[] {parses, failures, nanos, characters, steps, tokens, variantsTested,
+        variantsSkipped, tracebacks, rotations, charactersConsumed, charactersReexamined}) {
+      adder.reset();
+    }
+    peakDepth.reset();
+    tokensByType.clear();
+    worst.set(null);
+  }
+
+  @Override
+  public String toString() {
+    return "StatisticsCollector" + metrics();
+  }
+}
@@ -0,0 +1,204 @@
+package com.onkiup.linker.parser.trace;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import com.onkiup.linker.parser.token.CompoundToken;
+import com.onkiup.linker.parser.token.ConsumingToken;
+import com.onkiup.linker.parser.token.PartialToken;
+import com.onkiup.linker.parser.token.VariantToken;
+
+/**
+ * Collects {@link ParseStatistics} for every parse. Statistics of the last parse finished by the current thread are
+ * available from {@link #last()}; statistics of all parses can also be passed to a sink, such as
+ * {@link StatisticsCollector}.
+ * Events only update counters of the running parse; parse depth is derived from the ancestors of the previous
+ * consumer, so steps that stay in the same subtree do not walk the token tree up to the root
+ */
+public class StatisticsListener implements ParserListener {
+  private final Consumer<ParseStatistics> sink;
+  private final ThreadLocal<Deque<Recorder>> recorders = ThreadLocal.withInitial(ArrayDeque::new);
+  private final ThreadLocal<ParseStatistics> last = new ThreadLocal<>();
+
+  public StatisticsListener() {
+    this(null);
+  }
+
+  /**
+   * @param sink consumer that receives statistics of each finished parse or null
+   */
+  public StatisticsListener(Consumer<ParseStatistics> sink) {
+    this.sink = sink;
+  }
+
+  /**
+   * @return statistics of the last parse finished by the current thread or null
+   */
+  public ParseStatistics last() {
+    return last.get();
+  }
+
+  @Override
+  public void parseStarted(String sourceName, CharSequence buffer) {
+    recorders.get().push(new Recorder(sourceName, buffer));
+  }
+
+  @Override
+  public void parseFinished(String sourceName, Throwable error) {
+    Deque<Recorder> stack = recorders.get();
+    Recorder recorder = stack.poll();
+    if (stack.isEmpty()) {
+      recorders.remove();
+    }
+    if (recorder == null) {
+      return;
+    }
+    ParseStatistics result = recorder.finish(error != null);
+    last.set(result);
+    if (sink != null) {
+      sink.accept(result);
+    }
+  }
+
+  @Override
+  public void step(CompoundToken<?> root, ConsumingToken<?> consumer) {
+    Recorder recorder = recorder();
+    if (recorder == null) {
+      return;
+    }
+    recorder.steps++;
+    recorder.peakDepth = Math.max(recorder.peakDepth, recorder.depth(consumer.parent().orElse(null)));
+  }
+
+  @Override
+  public void consumed(ConsumingToken<?> consumer, int from, int to) {
+    Recorder recorder = recorder();
+    if (recorder == null || to <= from) {
+      return;
+    }
+    if (from < recorder.reached) {
+      recorder.reexamined += Math.min(to, recorder.reached) - from;
+    }
+    recorder.reached = Math.max(recorder.reached, to);
+  }
+
+  @Override
+  public void tokenCreated(PartialToken<?> token) {
+    Recorder recorder = recorder();
+    if (recorder == null) {
+      return;
+    }
+    recorder.tokens.merge(token.tokenType(), 1L, Long::sum);
+    if (token.parent().orElse(null) instanceof VariantToken) {
+      recorder.variantsTested++;
+    }
+  }
+
+  @Override
+  public void traceback(CompoundToken<?> parent, PartialToken<?> child) {
+    Recorder recorder = recorder();
+    if (recorder != null) {
+      recorder.tracebacks++;
+    }
+  }
+
+  @Override
+  public void rotated(PartialToken<?> token) {
+    Recorder recorder = recorder();
+    if (recorder != null) {
+      recorder.rotations++;
+      recorder.resetPath();
+    }
+  }
+
+  @Override
+  public void rotatedBack(PartialToken<?> token) {
+    Recorder recorder = recorder();
+    if (recorder != null) {
+      recorder.resetPath();
+    }
+  }
+
+  @Override
+  public void variantSkipped(CompoundToken<?> junction, Class<?> variant) {
+    Recorder recorder = recorder();
+    if (recorder != null) {
+      recorder.variantsSkipped++;
+    }
+  }
+
+  private Recorder recorder() {
+    return recorders.get().peek();
+  }
+
+  /**
+   * Mutable counters of a running parse
+   */
+  private static final class Recorder {
+    private final String source;
+    private final CharSequence buffer;
+    private final long started = System.nanoTime();
+    private final Map<Class<?>, Long> tokens = new HashMap<>();
+    private long steps;
+    private long variantsTested;
+    private long variantsSkipped;
+    private long tracebacks;
+    private long rotations;
+    private int reached;
+    private long reexamined;
+    private int peakDepth;
+    /**
+     * Ancestors of the last consumer (starting from the root) and their depths
+     */
+    private final List<PartialToken<?>> path = new ArrayList<>();
+    private final Map<PartialToken<?>, Integer> depths = new IdentityHashMap<>();
+    private final List<PartialToken<?>> added = new ArrayList<>();
+
+    private Recorder(String source, CharSequence buffer) {
+      this.source = source;
+      this.buffer = buffer;
+    }
+
+    /**
+     * @param parent parent of a consumer or null
+     * @return number of tokens between the parent and the root, inclusive
+     */
+    private int depth(PartialToken<?> parent) {
+      Integer known = null;
+      PartialToken<?> token = parent;
+      while (token != null && (known = depths.get(token)) == null) {
+        added.add(token);
+        token = token.parent().orElse(null);
+      }
+      int common = token == null ? 0 : known;
+      for (int i = path.size() - 1; i >= common; i--) {
+        depths.remove(path.remove(i));
+      }
+      for (int i = added.size() - 1; i > -1; i--) {
+        path.add(added.get(i));
+        depths.put(added.get(i), path.size());
+      }
+      added.clear();
+      return path.size();
+    }
+
+    /**
+     * Forgets ancestors of the last consumer (after rotations, which move tokens to other parents)
+     */
+    private void resetPath() {
+      path.clear();
+      depths.clear();
+    }
+
+    private ParseStatistics finish(boolean failed) {
+      return new ParseStatistics(source, failed, System.nanoTime() - started, buffer.length(), tokens, steps,
+          variantsTested, variantsSkipped, tracebacks, rotations, reached, reexamined, peakDepth);
+    }
+  }
+}
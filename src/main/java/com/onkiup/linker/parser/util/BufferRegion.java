@@ -0,0 +1,67 @@
+package com.onkiup.linker.parser.util;
+
+/**
+ * A read-only view over a region of another character sequence that does not copy any characters until
+ * {@link #toString()} is called. Underlying sequence is expected to be immutable for the lifetime of the view
+ */
+public final class BufferRegion implements CharSequence {
+  private final CharSequence source;
+  private final int start;
+  private final int end;
+
+  public BufferRegion(CharSequence source, int start, int end) {
+    if (start < 0 || end > source.length() || start > end) {
+      throw new IndexOutOfBoundsException("Invalid region [" + start + ", " + end + ") of a sequence with length " + source.length());
+    }
+    this.source = source;
+    this.start = start;
+    this.end = end;
+  }
+
+  /**
+   * @return the sequence this region belongs to
+   */
+  public CharSequence source() {
+    return source;
+  }
+
+  /**
+   * @return position in the source sequence at which this region starts
+   */
+  public int start() {
+    return start;
+  }
+
+  /**
+   * @return position in the source sequence at which this region ends (exclusive)
+   */
+  public int end() {
+    return end;
+  }
+
+  @Override
+  public int length() {
+    return end - start;
+  }
+
+  @Override
+  public char charAt(int index) {
+    if (index < 0 || index >= end - start) {
+      throw new IndexOutOfBoundsException("Index " + index + " is out of region bounds (length " + length() + ")");
+    }
+    return source.charAt(start + index);
+  }
+
+  @Override
+  public CharSequence subSequence(int start, int end) {
+    if (start < 0 || end > length() || start > end) {
+      throw new IndexOutOfBoundsException("Invalid subsequence [" + start + ", " + end + ") of a region with length " + length());
+    }
+    return new BufferRegion(source, this.start + start, this.start + end);
+  }
+
+  @Override
+  public String toString() {
+    return new StringBuilder(end - start).append(source, start, end).toString();
+  }
+}
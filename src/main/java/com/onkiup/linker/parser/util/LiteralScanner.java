@@ -0,0 +1,82 @@
+package com.onkiup.linker.parser.util;
+
+import java.util.Arrays;
+
+/**
+ * Searches character sequences for a literal using Boyer-Moore-Horspool skips, so that most characters are skipped
+ * without being compared with the literal.
+ * Searches that extend to the end of a {@link String} or a {@link StringBuilder} are delegated to their own (intrinsic)
+ * indexOf implementations
+ */
+public final class LiteralScanner {
+  private final String literal;
+  /**
+   * Skip distances by the lower byte of the character under the last position of the search window; characters that
+   * share the lower byte share the shortest of their distances
+   */
+  private final int[] skips = new int[256];
+
+  public LiteralScanner(String literal) {
+    if (literal.isEmpty()) {
+      throw new IllegalArgumentException("Cannot scan for an empty literal");
+    }
+    this.literal = literal;
+    int last = literal.length() - 1;
+    Arrays.fill(skips, literal.length());
+    for (int i = 0; i < last; i++) {
+      skips[literal.charAt(i) & 0xFF] = last - i;
+    }
+  }
+
+  /**
+   * @return the literal this scanner searches for
+   */
+  public String literal() {
+    return literal;
+  }
+
+  /**
+   * @return the length of the literal
+   */
+  public int length() {
+    return literal.length();
+  }
+
+  /**
+   * @param text text to search
+   * @param from position to start the search at
+   * @param to position at which the search ends (exclusive); the literal should end before it
+   * @return position of the first occurrence of the literal or -1
+   */
+  public int indexOf(CharSequence text, int from, int to) {
+    if (to == text.length()) {
+      if (text instanceof String) {
+        return ((String) text).indexOf(literal, from);
+      } else if (text instanceof StringBuilder) {
+        return ((StringBuilder) text).indexOf(literal, from);
+      }
+    }
+
+    int last = literal.length() - 1;
+    char lastChar = literal.charAt(last);
+    for (int end = from + last; end < to; ) {
+      char character = text.charAt(end);
+      if (character == lastChar) {
+        int i = last - 1;
+        while (i >= 0 && text.charAt(end - last + i) == literal.charAt(i)) {
+          i--;
+        }
+        if (i < 0) {
+          return end - last;
+        }
+      }
+      end += skips[character & 0xFF];
+    }
+    return -1;
+  }
+
+  @Override
+  public String toString() {
+    return "LiteralScanner[" + literal + "]";
+  }
+}
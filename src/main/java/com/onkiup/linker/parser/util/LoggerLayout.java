@@ -10,6 +10,11 @@ import org.apache.log4j.spi.LoggingEvent;
 
 public class LoggerLayout extends Layout {
 
+  /**
+   * Parser buffers and positions attached to threads that are currently parsing
+   */
+  private static final ThreadLocal<Source> SOURCES = new ThreadLocal<>();
+
   private Layout parent;
   private CharSequence buffer;
   private Supplier<Integer> position;
@@ -20,6 +25,39 @@ public class LoggerLayout extends Layout {
     this.position = position;
   }
 
+  /**
+   * Creates a layout that decorates events with the parser buffer attached to the logging thread
+   * (see {@link #attach(CharSequence, Supplier)}) and formats events of other threads with the parent layout
+   * @param parent parent layout
+   */
+  public LoggerLayout(Layout parent) {
+    this(parent, null, null);
+  }
+
+  /**
+   * Attaches a parser buffer to the current thread
+   * @param buffer parser buffer
+   * @param position parser position supplier
+   * @return previously attached buffer, to be passed to {@link #detach(Object)}
+   */
+  public static Object attach(CharSequence buffer, Supplier<Integer> position) {
+    Source previous = SOURCES.get();
+    SOURCES.set(new Source(buffer, position));
+    return previous;
+  }
+
+  /**
+   * Detaches parser buffer from the current thread and restores previously attached one
+   * @param previous value returned by {@link #attach(CharSequence, Supplier)}
+   */
+  public static void detach(Object previous) {
+    if (previous == null) {
+      SOURCES.remove();
+    } else {
+      SOURCES.set((Source) previous);
+    }
+  }
+
   public static CharSequence repeat(CharSequence s, int times) {
     if (times < 1) {
       return "";
@@ -31,7 +69,17 @@ public class LoggerLayout extends Layout {
 
   @Override
   public String format(LoggingEvent event) {
-    int position = this.position.get();
+    CharSequence buffer = this.buffer;
+    Supplier<Integer> positionSupplier = this.position;
+    if (buffer == null) {
+      Source source = SOURCES.get();
+      if (source == null) {
+        return parent.format(event);
+      }
+      buffer = source.buffer;
+      positionSupplier = source.position;
+    }
+    int position = positionSupplier.get();
     CharSequence bufVal = buffer;
     if (position < buffer.length()) {
       bufVal = buffer.subSequence(Math.max(0, position - 50), position);
@@ -76,4 +124,14 @@ public class LoggerLayout extends Layout {
     String format = String.format("%%%1$d.%1$ds%%2$s", len - what.length());
     return String.format(format, "", what);
   }
+
+  private static final class Source {
+    private final CharSequence buffer;
+    private final Supplier<Integer> position;
+
+    private Source(CharSequence buffer, Supplier<Integer> position) {
+      this.buffer = buffer;
+      this.position = position;
+    }
+  }
 }
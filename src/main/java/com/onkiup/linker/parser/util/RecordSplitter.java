@@ -0,0 +1,133 @@
+package com.onkiup.linker.parser.util;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Splits parser input into chunks of independent records that can be parsed concurrently.
+ * Chunks end immediately after a match of a record boundary pattern, so boundary characters always stay with the
+ * record they terminate; every chunk except the last one is at least {@code chunkSize} characters long.
+ * Trailing whitespace after the last boundary is attached to the last chunk instead of forming a chunk of its own.
+ * Splitter instances read their input incrementally (see {@link #next()}), so that only the chunk being split off
+ * and the input read ahead of it are kept in memory
+ */
+public final class RecordSplitter {
+  private final Reader source;
+  private final Pattern boundary;
+  private final int chunkSize;
+  private final StringBuilder window = new StringBuilder();
+  private final char[] block;
+  private boolean complete;
+  private long offset = -1;
+  private long consumed;
+
+  /**
+   * @param source reader to split
+   * @param boundary record boundary pattern (must not match empty strings)
+   * @param chunkSize minimal chunk length
+   */
+  public RecordSplitter(Reader source, Pattern boundary, int chunkSize) {
+    if (chunkSize < 1) {
+      throw new IllegalArgumentException("Chunk size should be positive");
+    }
+    this.source = source;
+    this.boundary = boundary;
+    this.chunkSize = chunkSize;
+    this.block = new char[chunkSize];
+  }
+
+  /**
+   * Reads the next chunk from the source
+   * @return the next chunk or null if the source is exhausted
+   * @throws IOException if the source cannot be read
+   */
+  public String next() throws IOException {
+    while (true) {
+      if (window.length() > chunkSize) {
+        Matcher matcher = boundary.matcher(window);
+        if (matcher.find(chunkSize - 1)) {
+          if (matcher.end() == matcher.start()) {
+            throw new IllegalArgumentException("Record boundary pattern matched an empty string: " + boundary);
+          }
+          int end = matcher.end();
+          // a match that touches the end of the window could be longer, and whitespace after it could be the trail
+          if (complete || (!matcher.hitEnd() && !isBlank(window, end))) {
+            return complete && isBlank(window, end) ? take(window.length()) : take(end);
+          }
+        } else if (complete) {
+          return take(window.length());
+        }
+      } else if (complete) {
+        return window.length() == 0 ? null : take(window.length());
+      }
+      read();
+    }
+  }
+
+  /**
+   * @return offset of the chunk last returned by {@link #next()} from the start of the source or -1
+   */
+  public long offset() {
+    return offset;
+  }
+
+  private void read() throws IOException {
+    int read = source.read(block);
+    if (read < 0) {
+      complete = true;
+    } else {
+      window.append(block, 0, read);
+    }
+  }
+
+  private String take(int end) {
+    String result = window.substring(0, end);
+    window.delete(0, end);
+    offset = consumed;
+    consumed += end;
+    return result;
+  }
+
+  /**
+   * @param text text to split
+   * @param boundary record boundary pattern (must not match empty strings)
+   * @param chunkSize minimal chunk length
+   * @return offsets of chunk ends (the last offset is always the length of the text)
+   */
+  public static int[] split(CharSequence text, Pattern boundary, int chunkSize) {
+    if (chunkSize < 1) {
+      throw new IllegalArgumentException("Chunk size should be positive");
+    }
+    List<Integer> ends = new ArrayList<>();
+    Matcher matcher = boundary.matcher(text);
+    int start = 0;
+    while (text.length() - start > chunkSize && matcher.find(start + chunkSize - 1)) {
+      if (matcher.end() == matcher.start()) {
+        throw new IllegalArgumentException("Record boundary pattern matched an empty string: " + boundary);
+      }
+      if (matcher.end() >= text.length()) {
+        break;
+      }
+      start = matcher.end();
+      ends.add(start);
+    }
+    if (!ends.isEmpty() && isBlank(text, ends.get(ends.size() - 1))) {
+      ends.remove(ends.size() - 1);
+    }
+    ends.add(text.length());
+    return ends.stream().mapToInt(Integer::intValue).toArray();
+  }
+
+  private static boolean isBlank(CharSequence text, int from) {
+    for (int i = from; i < text.length(); i++) {
+      if (!Character.isWhitespace(text.charAt(i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
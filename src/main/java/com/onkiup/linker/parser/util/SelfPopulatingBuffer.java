@@ -29,9 +29,12 @@ public class SelfPopulatingBuffer implements CharSequence {
     return buffer.charAt(index);
   }
 
+  /**
+   * Returns a view over the buffer that shares its characters (buffer contents never change after construction)
+   */
   @Override
   public CharSequence subSequence(int start, int end) {
-    return buffer.subSequence(start, end);
+    return new BufferRegion(buffer, start, end);
   }
 
   @Override
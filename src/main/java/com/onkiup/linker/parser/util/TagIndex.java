@@ -0,0 +1,182 @@
+package com.onkiup.linker.parser.util;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * Dense index of compatibility tags for (buffer position, rule id) pairs.
+ * Each pair occupies two bits: one for "rule matched at the position" and one for "rule failed at the position".
+ * Bits are stored in pages of {@value #PAGE_POSITIONS} positions that are allocated only when a position of the page
+ * is tagged; pages can be allocated outside of java heap for very large inputs.
+ * Indexes can be reused for subsequent parses: released pages are kept (up to {@value #MAX_SPARE_PAGES} of them),
+ * zeroed and handed out again instead of being reallocated. Indexes are kept by idle sessions on every parsing thread,
+ * so {@link #release()} shrinks them back to what a small input needs, and a single huge parse does not pin its peak
+ * memory
+ */
+public final class TagIndex {
+  /**
+   * Number of buffer positions stored in one page
+   */
+  public static final int PAGE_POSITIONS = 256;
+
+  private static final int PAGE_SHIFT = 8;
+  private static final int PAGE_MASK = PAGE_POSITIONS - 1;
+  /**
+   * Maximal number of released pages kept for reuse
+   */
+  public static final int MAX_SPARE_PAGES = 16;
+  /**
+   * Maximal length of the page table kept by released indexes
+   */
+  private static final int MAX_RETAINED_PAGES = 1024;
+
+  /**
+   * Returned by {@link #get(int, int)} for untested rules
+   */
+  public static final int UNKNOWN = 0;
+  /**
+   * Returned by {@link #get(int, int)} for rules that matched at the position
+   */
+  public static final int COMPATIBLE = 1;
+  /**
+   * Returned by {@link #get(int, int)} for rules that failed at the position
+   */
+  public static final int INCOMPATIBLE = 2;
+
+  private final int words;
+  private final ArrayDeque<LongBuffer> spare = new ArrayDeque<>();
+  private boolean offHeap;
+  private LongBuffer[] pages;
+
+  /**
+   * @param positions number of buffer positions to index
+   * @param rules number of rule ids to index
+   * @param offHeap whether pages should be allocated outside of java heap
+   */
+  public TagIndex(int positions, int rules, boolean offHeap) {
+    this.words = (rules * 2 + 63) >>> 6;
+    this.offHeap = offHeap;
+    this.pages = new LongBuffer[(positions >>> PAGE_SHIFT) + 1];
+  }
+
+  /**
+   * @param position buffer position
+   * @param rule rule id
+   * @return {@link #UNKNOWN}, {@link #COMPATIBLE} or {@link #INCOMPATIBLE}
+   */
+  public int get(int position, int rule) {
+    int pageIndex = position >>> PAGE_SHIFT;
+    if (pageIndex >= pages.length || pages[pageIndex] == null) {
+      return UNKNOWN;
+    }
+    int bit = rule << 1;
+    long word = pages[pageIndex].get((position & PAGE_MASK) * words + (bit >>> 6));
+    int tag = (int) (word >>> (bit & 63)) & 3;
+    return (tag & COMPATIBLE) != 0 ? COMPATIBLE : tag;
+  }
+
+  /**
+   * Tags a position; incompatibility tags never replace compatibility tags
+   * @param position buffer position
+   * @param rule rule id
+   * @param compatible whether the rule matched at the position
+   * @return true if the tag was stored
+   */
+  public boolean set(int position, int rule, boolean compatible) {
+    int pageIndex = position >>> PAGE_SHIFT;
+    if (pageIndex >= pages.length) {
+      return false;
+    }
+    LongBuffer page = pages[pageIndex];
+    if (page == null) {
+      page = pages[pageIndex] = allocate();
+    }
+    int bit = rule << 1;
+    int index = (position & PAGE_MASK) * words + (bit >>> 6);
+    long word = page.get(index);
+    long tags = word >>> (bit & 63) & 3;
+    if (compatible) {
+      page.put(index, word | (1L << (bit & 63)));
+      return true;
+    } else if (tags == 0) {
+      page.put(index, word | (2L << (bit & 63)));
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Releases all pages
+   */
+  public void clear() {
+    for (int i = 0; i < pages.length; i++) {
+      if (pages[i] != null && spare.size() < MAX_SPARE_PAGES) {
+        spare.push(pages[i]);
+      }
+      pages[i] = null;
+    }
+  }
+
+  /**
+   * Releases all pages and shrinks the page table, so that an idle index only keeps memory needed for small inputs
+   */
+  public void release() {
+    clear();
+    if (pages.length > MAX_RETAINED_PAGES) {
+      pages = new LongBuffer[MAX_RETAINED_PAGES];
+    }
+  }
+
+  /**
+   * @return number of released pages kept for reuse
+   */
+  int sparePages() {
+    return spare.size();
+  }
+
+  /**
+   * @return length of the page table
+   */
+  int pageSlots() {
+    return pages.length;
+  }
+
+  /**
+   * Releases all pages and prepares this index for another buffer
+   * @param positions number of buffer positions to index
+   * @param offHeap whether pages should be allocated outside of java heap
+   */
+  public void reset(int positions, boolean offHeap) {
+    clear();
+    if (this.offHeap != offHeap) {
+      spare.clear();
+      this.offHeap = offHeap;
+    }
+    int size = (positions >>> PAGE_SHIFT) + 1;
+    if (pages.length < size) {
+      pages = new LongBuffer[size];
+    }
+  }
+
+  private LongBuffer allocate() {
+    LongBuffer page = spare.poll();
+    if (page != null) {
+      if (page.hasArray()) {
+        Arrays.fill(page.array(), 0L);
+      } else {
+        for (int i = 0; i < page.capacity(); i++) {
+          page.put(i, 0L);
+        }
+      }
+      return page;
+    }
+    int size = PAGE_POSITIONS * words;
+    if (offHeap) {
+      return ByteBuffer.allocateDirect(size * Long.BYTES).order(ByteOrder.nativeOrder()).asLongBuffer();
+    }
+    return LongBuffer.wrap(new long[size]);
+  }
+}
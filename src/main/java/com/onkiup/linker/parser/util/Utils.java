@@ -2,28 +2,36 @@ package com.onkiup.linker.parser.util;
 
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
-import java.util.Arrays;
+import java.util.LinkedList;
 import java.util.Optional;
 
 import com.onkiup.linker.parser.Rule;
-import com.onkiup.linker.parser.TokenGrammar;
 import com.onkiup.linker.parser.annotation.IgnoreCase;
+import com.onkiup.linker.util.TypeUtils;
 
 public final class Utils {
   private Utils() {
 
   }
 
+  /**
+   * @param source concrete rule class
+   * @return declared non-transient (and non-synthetic) fields of the class and its concrete rule superclasses, fields
+   * of superclasses first
+   */
   public static Field[] getTokenFields(Class<? extends Rule> source) {
-    // first, we need to iterate back to the "base" rule class
-    Class type = source;
-    do {
-      type = type.getSuperclass();
-    } while (Rule.class.isAssignableFrom(type) && TokenGrammar.isConcrete(type));
-
-    return Arrays.stream(type.getDeclaredFields())
-        .filter(childField -> !Modifier.isTransient(childField.getModifiers()))
-        .toArray(Field[]::new);
+    LinkedList<Field> result = new LinkedList<>();
+    for (Class<?> type = source; type != null && Rule.class.isAssignableFrom(type) && TypeUtils.isConcrete(type);
+        type = type.getSuperclass()) {
+      Field[] declared = type.getDeclaredFields();
+      for (int i = declared.length - 1; i > -1; i--) {
+        int modifiers = declared[i].getModifiers();
+        if (!Modifier.isTransient(modifiers) && !declared[i].isSynthetic()) {
+          result.addFirst(declared[i]);
+        }
+      }
+    }
+    return result.toArray(new Field[0]);
   }
 
   public static boolean ignoreCase(Field forField) {
@@ -0,0 +1,66 @@
+package com.onkiup.linker.parser;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertTrue;
+
+import org.junit.Test;
+
+import com.onkiup.linker.parser.annotation.CapturePattern;
+import com.onkiup.linker.parser.annotation.IgnoreCharacters;
+
+public class CompatibilityTagsTest {
+
+  public interface Entry extends Rule {
+
+  }
+
+  public static class Pair implements Entry {
+    private Word key;
+    private static final String SEPARATOR = ":";
+    private Word value;
+  }
+
+  public static class Word implements Rule {
+    @CapturePattern(pattern = "[a-z]+")
+    private String value;
+  }
+
+  public interface Document extends Rule {
+
+  }
+
+  /**
+   * Tested before {@link Relaxed}: Pair fails here on inputs with spaces, but matches at the same position in Relaxed
+   */
+  public static class Exact implements Document {
+    private Entry entry;
+    private static final String END = ";";
+  }
+
+  @IgnoreCharacters(" ")
+  public static class Relaxed implements Document {
+    private Entry entry;
+    private static final String END = ";";
+  }
+
+  private static Document parse(boolean memoize, String source) {
+    TokenGrammar<Document> grammar = TokenGrammar.forClass(Document.class);
+    grammar.memoize(memoize);
+    return grammar.parse(source);
+  }
+
+  private static String describe(Document document) {
+    Pair pair = (Pair) (document instanceof Exact ? ((Exact) document).entry : ((Relaxed) document).entry);
+    return document.getClass().getSimpleName() + ":" + pair.key.value + ":" + pair.value.value;
+  }
+
+  @Test
+  public void doesNotShareTagsBetweenIgnoredCharacters() {
+    for (boolean memoize : new boolean[] {false, true}) {
+      Document result = parse(memoize, "a : b;");
+      assertTrue(result instanceof Relaxed);
+      assertEquals("Relaxed:a:b", describe(result));
+      assertEquals("Exact:a:b", describe(parse(memoize, "a:b;")));
+    }
+  }
+}
@@ -0,0 +1,41 @@
+package com.onkiup.linker.parser;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertTrue;
+
+import org.junit.Test;
+
+public class LiteralMatcherTest {
+
+  private final LiteralMatcher subject = new LiteralMatcher(
+      new String[] {"in", "int", "interface", "IF", "Int"},
+      new boolean[] {false, false, false, true, false});
+
+  @Test
+  public void longestMatch() {
+    assertTrue(subject.apply("i").isContinue());
+    assertTrue(subject.apply("in").isMatchContinue());
+    assertEquals("in", subject.apply("ins").getToken());
+    assertEquals(2, subject.apply("ins").getTokenLength());
+    assertEquals("int", subject.apply("int ").getToken());
+    assertTrue(subject.apply("inte").isContinue());
+    assertEquals("int", subject.apply("intex").getToken());
+    assertTrue(subject.apply("interface").isMatch());
+    assertFalse(subject.apply("interface").isMatchContinue());
+    assertTrue(subject.apply("x").isFailed());
+  }
+
+  @Test
+  public void ignoreCase() {
+    assertEquals("iF", subject.apply("iF").getToken());
+    assertEquals("Int", subject.apply("Int").getToken());
+    assertTrue(subject.apply("INT").isFailed());
+
+    assertEquals(3, subject.indexOf("iF"));
+    assertEquals(4, subject.indexOf("Int"));
+    assertEquals(1, subject.indexOf("int"));
+    assertEquals(-1, subject.indexOf("INT"));
+    assertEquals(-1, subject.indexOf("inte"));
+  }
+}
@@ -0,0 +1,148 @@
+package com.onkiup.linker.parser;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertTrue;
+
+import java.io.StringReader;
+import java.math.BigDecimal;
+
+import org.junit.Test;
+
+import com.onkiup.linker.parser.annotation.CapturePattern;
+import com.onkiup.linker.parser.util.SelfPopulatingBuffer;
+
+public class MatchStateTest {
+
+  private static final String TEXT = "/* abc */ in int 12.5e3x \"q\" // end";
+
+  @CapturePattern(until = "\\*/")
+  private static class Comment {
+
+  }
+
+  @CapturePattern(until = "c|b d")
+  private static class Alternatives {
+
+  }
+
+  @CapturePattern(pattern = "[^\"]+")
+  private static class Text {
+
+  }
+
+  @CapturePattern(pattern = "[a-z]+")
+  private static class Word {
+
+  }
+
+  @CapturePattern(pattern = "\\w*")
+  private static class Characters {
+
+  }
+
+  @CapturePattern(pattern = "ab|abc d")
+  private static class Choice {
+
+  }
+
+  private static PatternMatcher matcher(Class<?> type) {
+    return new PatternMatcher(type.getAnnotation(CapturePattern.class));
+  }
+
+  /**
+   * Consumes the text from every position one character at a time, as consuming tokens do, and compares resumed
+   * results with results of testing the whole input
+   */
+  private static void assertResumesLikeApply(TokenMatcher subject) throws Exception {
+    SelfPopulatingBuffer buffer = new SelfPopulatingBuffer("test", new StringReader(TEXT));
+    for (int start = 0; start < TEXT.length(); start++) {
+      MatchState state = new MatchState();
+      for (int end = start + 1; end <= TEXT.length(); end++) {
+        TokenTestResult expected = subject.apply(TEXT.substring(start, end));
+        TokenTestResult actual = state.test(subject, buffer.subSequence(start, end));
+        String position = subject + " [" + start + ", " + end + ")";
+        assertEquals(position, expected.isMatch(), actual.isMatch());
+        assertEquals(position, expected.isMatchContinue(), actual.isMatchContinue());
+        assertEquals(position, expected.isFailed(), actual.isFailed());
+        assertEquals(position, expected.getTokenLength(), actual.getTokenLength());
+        if (actual.getToken() instanceof CharSequence && !(expected.getToken() instanceof CharSequence)) {
+          // partial matches may be reported as views of the input
+          assertEquals(position, TEXT.substring(start, end), actual.getToken().toString());
+        } else {
+          assertEquals(position, String.valueOf(expected.getToken()), String.valueOf(actual.getToken()));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void resumesLikeApply() throws Exception {
+    assertResumesLikeApply(matcher(Comment.class));
+    assertResumesLikeApply(matcher(Alternatives.class));
+    assertResumesLikeApply(matcher(Text.class));
+    assertResumesLikeApply(matcher(Word.class));
+    assertResumesLikeApply(matcher(Characters.class));
+    assertResumesLikeApply(matcher(Choice.class));
+    assertResumesLikeApply(new TerminalMatcher("in", true));
+    assertResumesLikeApply(new LiteralMatcher(new String[] {"in", "int", "interface"}, new boolean[] {false, false, true}));
+    assertResumesLikeApply(new NumberMatcher(Byte.class));
+    assertResumesLikeApply(new NumberMatcher(Integer.class));
+    assertResumesLikeApply(new NumberMatcher(Double.class));
+    assertResumesLikeApply(new NumberMatcher(BigDecimal.class));
+  }
+
+  @Test
+  public void scansLongCommentsOnce() throws Exception {
+    StringBuilder comment = new StringBuilder("/*");
+    for (int i = 0; i < 100_000; i++) {
+      comment.append((char) ('a' + i % 26));
+    }
+    comment.append("*/ tail");
+    SelfPopulatingBuffer buffer = new SelfPopulatingBuffer("test", new StringReader(comment.toString()));
+    PatternMatcher subject = matcher(Comment.class);
+    MatchState state = new MatchState();
+
+    TokenTestResult result;
+    int end = 0;
+    do {
+      result = state.test(subject, buffer.subSequence(0, ++end));
+    } while (result.isMatchContinue());
+    assertTrue(result.isMatch());
+    assertEquals(100_002, result.getTokenLength());
+    assertEquals(100_002, ((String) result.getToken()).length());
+  }
+
+  @Test
+  public void scansLongWordsOnce() throws Exception {
+    StringBuilder word = new StringBuilder();
+    for (int i = 0; i < 100_000; i++) {
+      word.append((char) ('a' + i % 26));
+    }
+    word.append(" tail");
+    SelfPopulatingBuffer buffer = new SelfPopulatingBuffer("test", new StringReader(word.toString()));
+    PatternMatcher subject = matcher(Word.class);
+    MatchState state = new MatchState();
+
+    TokenTestResult result;
+    int end = 0;
+    do {
+      result = state.test(subject, buffer.subSequence(0, ++end));
+    } while (result.isMatchContinue());
+    assertTrue(result.isMatch());
+    assertEquals(100_000, result.getTokenLength());
+    assertEquals(100_000, ((String) result.getToken()).length());
+    assertEquals(100_000, state.foundEnd());
+  }
+
+  @Test
+  public void testsOtherPatternsAgain() throws Exception {
+    SelfPopulatingBuffer buffer = new SelfPopulatingBuffer("test", new StringReader("abc d"));
+    MatchState state = new MatchState();
+    PatternMatcher subject = matcher(Choice.class);
+    for (int end = 1; end <= 5; end++) {
+      state.test(subject, buffer.subSequence(0, end));
+      // alternatives are not resumed, so nothing is scanned ahead
+      assertEquals(0, state.scanned());
+    }
+  }
+}
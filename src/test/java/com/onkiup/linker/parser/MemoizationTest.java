@@ -0,0 +1,143 @@
+package com.onkiup.linker.parser;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertTrue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.onkiup.linker.parser.annotation.CapturePattern;
+import com.onkiup.linker.parser.annotation.OptionalToken;
+
+public class MemoizationTest {
+
+  private static final AtomicInteger names = new AtomicInteger();
+
+  public interface Statement extends Rule {
+
+  }
+
+  public static class Assignment implements Statement {
+    private Name name;
+    private static final String EQUALS = "=";
+    @CapturePattern(pattern = "[0-9]+")
+    private String value;
+  }
+
+  public static class Call implements Statement {
+    private Name name;
+    private static final String CALL = "()";
+  }
+
+  public static class Name implements Rule {
+    @CapturePattern(pattern = "[a-z]+")
+    private String value;
+
+    public Name() {
+      names.incrementAndGet();
+    }
+  }
+
+  public interface Item extends Rule {
+
+  }
+
+  public static class Word implements Item {
+    @CapturePattern(pattern = "[a-z]+")
+    private String value;
+  }
+
+  /**
+   * Left-recursive rule: junctions of its heads exclude Dotted only when the token is the first child of its parent
+   */
+  public static class Dotted implements Item {
+    private Item head;
+    private static final String DOT = ".";
+    private Word tail;
+  }
+
+  public interface Line extends Rule {
+
+  }
+
+  /**
+   * Tested before {@link Marked}; matches Dotted at the same position, but as the first child
+   */
+  public static class Bare implements Line {
+    private Dotted value;
+    private static final String END = ";";
+  }
+
+  public static class Marked implements Line {
+    @OptionalToken
+    private static final String MARK = "!";
+    private Dotted value;
+    private static final String END = ";";
+  }
+
+  private static <X extends Rule> X parse(Class<X> type, boolean memoize, String source) {
+    TokenGrammar<X> grammar = TokenGrammar.forClass(type);
+    grammar.memoize(memoize);
+    return grammar.parse(source);
+  }
+
+  private static String describe(Object token) {
+    if (token instanceof Assignment) {
+      return ((Assignment) token).name.value + "=" + ((Assignment) token).value;
+    } else if (token instanceof Call) {
+      return ((Call) token).name.value + "()";
+    } else if (token instanceof Word) {
+      return ((Word) token).value;
+    } else if (token instanceof Dotted) {
+      return "(" + describe(((Dotted) token).head) + "." + ((Dotted) token).tail.value + ")";
+    } else if (token instanceof Bare) {
+      return describe(((Bare) token).value) + ";";
+    } else if (token instanceof Marked) {
+      return "!" + describe(((Marked) token).value) + ";";
+    }
+    return String.valueOf(token);
+  }
+
+  @Test
+  public void reusesSubtreesAfterTraceback() {
+    String[] sources = {"abc()", "abc=42"};
+    int[] created = new int[2];
+    for (int memoize = 0; memoize < 2; memoize++) {
+      for (String source : sources) {
+        int before = names.get();
+        Statement result = parse(Statement.class, memoize == 1, source);
+        created[memoize] += names.get() - before;
+        assertEquals(source, describe(result));
+      }
+    }
+    // one of the sources matches Name in the first tested variant, fails it and then matches Name in the other one
+    assertTrue(created[1] < created[0]);
+  }
+
+  @Test
+  public void keysLeftRecursiveRulesByContext() {
+    for (boolean memoize : new boolean[] {false, true}) {
+      // Bare matches "a.b" but cannot match the whole line, so Marked has to find "(a.b).c" at the same position
+      Line result = parse(Line.class, memoize, "a.b.c;");
+      assertTrue(result instanceof Marked);
+      assertEquals("!((a.b).c);", describe(result));
+    }
+    for (String source : new String[] {"a.b;", "!a.b.c;", "!a.b;"}) {
+      assertEquals(source, describe(parse(Line.class, false, source)), describe(parse(Line.class, true, source)));
+    }
+  }
+
+  @Test
+  public void adaptiveMemoizationDoesNotChangeResults() {
+    TokenGrammar<Line> plain = TokenGrammar.forClass(Line.class);
+    plain.memoizeAdaptively(0);
+    // memoizes junctions after their first repeated match
+    TokenGrammar<Line> adaptive = TokenGrammar.forClass(Line.class);
+    adaptive.memoizeAdaptively(1);
+    for (String source : new String[] {"a.b;", "a.b.c.d.e.f;", "!a.b.c.d;", "a.b.c.d.e.f.g.h.i.j;"}) {
+      assertEquals(source, describe(plain.parse(source)), describe(adaptive.parse(source)));
+    }
+    assertEquals("!(((((a.b).c).d).e).f);", describe(adaptive.parse("a.b.c.d.e.f;")));
+  }
+}
@@ -0,0 +1,114 @@
+package com.onkiup.linker.parser;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertTrue;
+import static junit.framework.TestCase.fail;
+
+import java.time.Duration;
+import java.time.Instant;
+
+import org.junit.Test;
+
+import com.onkiup.linker.parser.grammar.VariantPriorities;
+
+public class ParseLimitsTest {
+
+  @Test
+  public void stepLimit() {
+    ParseSession session = new ParseSession(null, "", null, new VariantPriorities(), null);
+    session.limits(ParseLimits.steps(3));
+    session.step();
+    session.step();
+    session.step();
+    try {
+      session.step();
+      fail("step limit was not enforced");
+    } catch (ParseLimitExceeded e) {
+      assertEquals(4, e.steps());
+    }
+
+    session.limits(ParseLimits.NONE);
+    for (int i = 0; i < 100; i++) {
+      session.step();
+    }
+    assertEquals(100, session.steps());
+  }
+
+  @Test
+  public void deadline() {
+    ParseSession session = new ParseSession(null, "", null, new VariantPriorities(), null);
+    session.limits(ParseLimits.deadline(Instant.now().minusSeconds(1)));
+    try {
+      for (int i = 0; i < 1000; i++) {
+        session.step();
+      }
+      fail("deadline was not enforced");
+    } catch (ParseLimitExceeded e) {
+      assertTrue(e.steps() < 1000);
+    }
+  }
+
+  @Test
+  public void combinedLimits() {
+    ParseLimits limits = ParseLimits.timeout(Duration.ofSeconds(5)).withMaxSteps(10);
+    assertTrue(limits.isTimed());
+    assertEquals(10, limits.maxSteps());
+    assertEquals(Duration.ofSeconds(5), limits.timeout());
+    long deadline = limits.withDeadline(Instant.now().plusSeconds(1)).deadlineNanos(0);
+    assertTrue(deadline > 0 && deadline <= Duration.ofSeconds(1).toNanos());
+    assertEquals(Duration.ofSeconds(5).toNanos(), limits.deadlineNanos(0));
+  }
+
+  @Test
+  public void distantDeadlines() {
+    ParseSession session = new ParseSession(null, "", null, new VariantPriorities(), null);
+    session.limits(ParseLimits.deadline(Instant.MAX));
+    for (int i = 0; i < 1000; i++) {
+      session.step();
+    }
+    session.limits(ParseLimits.timeout(Duration.ofSeconds(Long.MAX_VALUE)).withDeadline(Instant.MAX));
+    for (int i = 0; i < 1000; i++) {
+      session.step();
+    }
+    assertEquals(Long.MAX_VALUE, ParseLimits.deadline(Instant.MAX).deadlineNanos(0));
+
+    session.limits(ParseLimits.deadline(Instant.MIN));
+    try {
+      for (int i = 0; i < 1000; i++) {
+        session.step();
+      }
+      fail("past deadline was not enforced");
+    } catch (ParseLimitExceeded e) {
+      assertTrue(e.steps() < 1000);
+    }
+  }
+
+  @Test
+  public void nestedSessionsShareLimits() {
+    ParseSession parent = new ParseSession(null, "", null, new VariantPriorities(), null);
+    parent.limits(ParseLimits.steps(5));
+    parent.step();
+    parent.step();
+    parent.shareSteps();
+    ParseSession first = new ParseSession(null, "", null, new VariantPriorities(), null);
+    ParseSession second = new ParseSession(null, "", null, new VariantPriorities(), null);
+    first.limits(parent);
+    second.limits(parent);
+    first.step();
+    second.step();
+    parent.step();
+    assertEquals(5, parent.steps());
+    try {
+      second.step();
+      fail("shared step limit was not enforced");
+    } catch (ParseLimitExceeded e) {
+      assertEquals(6, e.steps());
+    }
+    try {
+      parent.step();
+      fail("steps of nested sessions were not charged to the parent");
+    } catch (ParseLimitExceeded e) {
+      assertEquals(7, e.steps());
+    }
+  }
+}
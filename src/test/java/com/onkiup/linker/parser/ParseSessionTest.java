@@ -0,0 +1,117 @@
+package com.onkiup.linker.parser;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertNotNull;
+import static junit.framework.TestCase.assertNotSame;
+import static junit.framework.TestCase.assertNull;
+import static junit.framework.TestCase.assertSame;
+import static junit.framework.TestCase.assertTrue;
+import static junit.framework.TestCase.fail;
+
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.onkiup.linker.parser.grammar.GrammarModel;
+import com.onkiup.linker.parser.grammar.VariantPriorities;
+import com.onkiup.linker.parser.token.MemoTable;
+import com.onkiup.linker.parser.token.VariantToken;
+import com.onkiup.linker.parser.util.TagIndex;
+
+public class ParseSessionTest {
+
+  public interface Junction extends Rule {
+
+  }
+
+  public static class First implements Junction, Rule {
+
+  }
+
+  public static class Second implements Junction, Rule {
+
+  }
+
+  @Test
+  public void adaptiveMemoization() {
+    GrammarModel model = GrammarModel.compile(Junction.class);
+    ParseSession session = new ParseSession(model, "test", null, new VariantPriorities(), null);
+    session.adaptiveMemo(3);
+    VariantToken junction = Mockito.mock(VariantToken.class);
+    Mockito.when(junction.tokenType()).thenReturn(Junction.class);
+
+    session.variantAttempted(Junction.class, false);
+    session.variantAttempted(Junction.class, true);
+    session.variantAttempted(Junction.class, true);
+    assertNull(session.memo());
+    assertNull(session.memo(junction));
+
+    session.variantAttempted(Junction.class, true);
+    MemoTable memo = session.memo(junction);
+    assertNotNull(memo);
+    assertNull(session.memo(null));
+
+    session.close();
+    ParseSession next = session.next("test", false, new VariantPriorities(), null);
+    assertNotSame(session, next);
+    assertFalse(session.isOpen());
+    assertTrue(next.isOpen());
+    assertNull(session.memo());
+    next.adaptiveMemo(3);
+    assertNull(next.memo(junction));
+    for (int i = 0; i < 3; i++) {
+      next.variantAttempted(Junction.class, true);
+    }
+    assertSame(memo, next.memo(junction));
+  }
+
+  @Test
+  public void closedSessionsAreNotReopened() {
+    GrammarModel model = GrammarModel.compile(Junction.class);
+    ParseSession session = new ParseSession(model, "test", new MemoTable(), new VariantPriorities(), null);
+    session.tag(1, First.class, "", true);
+    try {
+      session.next("next", true, new VariantPriorities(), null);
+      fail("open sessions should not be taken over");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+
+    session.close();
+    ParseSession next = session.next("next", true, new VariantPriorities(), null);
+    assertEquals("next", next.buffer());
+    assertNotNull(next.memo());
+    assertEquals(TagIndex.UNKNOWN, next.tag(1, First.class, ""));
+    assertNull(session.buffer());
+    assertNull(session.memo());
+    assertEquals(TagIndex.UNKNOWN, session.tag(1, First.class, ""));
+  }
+
+  @Test
+  public void fullMemoization() {
+    GrammarModel model = GrammarModel.compile(Junction.class);
+    MemoTable memo = new MemoTable();
+    ParseSession session = new ParseSession(model, "test", memo, new VariantPriorities(), null);
+    assertSame(memo, session.memo(null));
+  }
+
+  @Test
+  public void tagsKeyedByIgnoredCharacters() {
+    GrammarModel model = GrammarModel.compile(Junction.class);
+    for (ParseSession session : new ParseSession[] {
+        new ParseSession(model, "test", null, new VariantPriorities(), null),
+        new ParseSession(null, null, null, new VariantPriorities(), null)}) {
+      session.tag(1, First.class, "", false);
+      session.tag(1, Second.class, " ", true);
+      assertEquals(TagIndex.INCOMPATIBLE, session.tag(1, First.class, ""));
+      assertEquals(TagIndex.UNKNOWN, session.tag(1, First.class, " "));
+      assertEquals(TagIndex.COMPATIBLE, session.tag(1, Second.class, " "));
+      assertEquals(TagIndex.UNKNOWN, session.tag(1, Second.class, ""));
+
+      session.tag(1, First.class, " ", true);
+      session.tag(1, First.class, " ", false);
+      assertEquals(TagIndex.COMPATIBLE, session.tag(1, First.class, " "));
+      assertEquals(TagIndex.INCOMPATIBLE, session.tag(1, First.class, ""));
+    }
+  }
+}
@@ -0,0 +1,76 @@
+package com.onkiup.linker.parser;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertNull;
+import static junit.framework.TestCase.assertTrue;
+
+import java.io.StringReader;
+
+import org.junit.Test;
+
+import com.onkiup.linker.parser.annotation.CapturePattern;
+import com.onkiup.linker.parser.util.SelfPopulatingBuffer;
+
+public class PatternMatcherTest {
+
+  @CapturePattern(pattern = "[a-z]+")
+  private static class Word {
+
+  }
+
+  @CapturePattern(until = "\\*/")
+  private static class Comment {
+
+  }
+
+  private static PatternMatcher matcher(Class<?> type) {
+    return new PatternMatcher(type.getAnnotation(CapturePattern.class));
+  }
+
+  @Test
+  public void regionsMatchLikeStrings() throws Exception {
+    String text = "^^ abc def*/ ghi";
+    SelfPopulatingBuffer buffer = new SelfPopulatingBuffer("test", new StringReader(text));
+    for (PatternMatcher subject : new PatternMatcher[] {matcher(Word.class), matcher(Comment.class)}) {
+      for (int start = 0; start < text.length(); start++) {
+        for (int end = start; end <= text.length(); end++) {
+          TokenTestResult expected = subject.apply(text.substring(start, end));
+          TokenTestResult actual = subject.apply(buffer.subSequence(start, end));
+          String position = subject + " [" + start + ", " + end + ")";
+          assertEquals(position, expected.isMatch(), actual.isMatch());
+          assertEquals(position, expected.isMatchContinue(), actual.isMatchContinue());
+          assertEquals(position, expected.isFailed(), actual.isFailed());
+          assertEquals(position, expected.getTokenLength(), actual.getTokenLength());
+          assertEquals(position, expected.getToken(), actual.getToken());
+        }
+      }
+    }
+  }
+
+  @Test
+  public void anchorsAtRegionStart() throws Exception {
+    SelfPopulatingBuffer buffer = new SelfPopulatingBuffer("test", new StringReader("12 abc def*/ ghi"));
+    PatternMatcher word = matcher(Word.class);
+    assertTrue(word.apply(buffer.subSequence(2, 6)).isFailed());
+    assertTrue(word.apply(buffer.subSequence(3, 6)).isMatchContinue());
+    assertEquals("abc", word.apply(buffer.subSequence(3, 7)).getToken());
+
+    PatternMatcher comment = matcher(Comment.class);
+    assertTrue(comment.apply(buffer.subSequence(3, 10)).isMatchContinue());
+    assertEquals("abc def", comment.apply(buffer.subSequence(3, 16)).getToken());
+    assertEquals(7, comment.apply(buffer.subSequence(3, 16)).getTokenLength());
+    assertTrue(comment.apply(buffer.subSequence(10, 16)).isFailed());
+  }
+
+  @Test
+  public void literalTerminators() {
+    assertEquals("*/", PatternMatcher.literal("\\*/", false));
+    assertEquals("*/", PatternMatcher.literal("\\Q*/\\E", false));
+    assertEquals("-->\n", PatternMatcher.literal("-->\\n", false));
+    assertEquals("\"", PatternMatcher.literal("\"", true));
+    assertNull(PatternMatcher.literal("EOF", true));
+    assertNull(PatternMatcher.literal("\\*+/", false));
+    assertNull(PatternMatcher.literal("\\s", false));
+    assertNull(PatternMatcher.literal("a|b", false));
+  }
+}
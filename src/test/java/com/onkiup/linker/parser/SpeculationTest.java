@@ -0,0 +1,96 @@
+package com.onkiup.linker.parser;
+
+import static junit.framework.TestCase.assertEquals;
+
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+import com.onkiup.linker.parser.annotation.CapturePattern;
+
+public class SpeculationTest {
+
+  public interface Command extends Rule {
+
+  }
+
+  public static class Assign implements Command {
+    private Name name;
+    private static final String EQUALS = "=";
+    private Value value;
+  }
+
+  public static class Index implements Command {
+    private Name name;
+    private static final String OPEN = "[";
+    private Value index;
+    private static final String CLOSE = "]";
+  }
+
+  public static class Invoke implements Command {
+    private Name name;
+    private static final String CALL = "()";
+  }
+
+  public static class Bare implements Command {
+    private Name name;
+    private static final String END = ";";
+  }
+
+  public interface Value extends Rule {
+
+  }
+
+  public static class Digits implements Value {
+    @CapturePattern(pattern = "[0-9]+")
+    private String value;
+  }
+
+  public static class Reference implements Value {
+    private Name name;
+  }
+
+  public static class Name implements Rule {
+    @CapturePattern(pattern = "[a-z]+")
+    private String value;
+  }
+
+  private static String describe(Object token) {
+    if (token instanceof Assign) {
+      return describe(((Assign) token).name) + "=" + describe(((Assign) token).value);
+    } else if (token instanceof Index) {
+      return describe(((Index) token).name) + "[" + describe(((Index) token).index) + "]";
+    } else if (token instanceof Invoke) {
+      return describe(((Invoke) token).name) + "()";
+    } else if (token instanceof Bare) {
+      return describe(((Bare) token).name) + ";";
+    } else if (token instanceof Digits) {
+      return "#" + ((Digits) token).value;
+    } else if (token instanceof Reference) {
+      return "&" + describe(((Reference) token).name);
+    } else if (token instanceof Name) {
+      return ((Name) token).value;
+    }
+    return String.valueOf(token);
+  }
+
+  @Test
+  public void doesNotChangeResults() {
+    String[] sources = {"x=1", "x=y", "a[2]", "a[b]", "f()", "b;"};
+    ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      TokenGrammar<Command> sequential = TokenGrammar.forClass(Command.class);
+      TokenGrammar<Command> speculative = TokenGrammar.forClass(Command.class);
+      speculative.speculate(pool, 4);
+      for (int i = 0; i < 3; i++) {
+        for (String source : sources) {
+          assertEquals(source, describe(sequential.parse(source)), describe(speculative.parse(source)));
+        }
+      }
+      assertEquals("x=#1", describe(speculative.parse("x=1")));
+      assertEquals("a[&b]", describe(speculative.parse("a[b]")));
+    } finally {
+      pool.shutdown();
+    }
+  }
+}
@@ -0,0 +1,152 @@
+package com.onkiup.linker.parser;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertSame;
+import static junit.framework.TestCase.assertTrue;
+import static junit.framework.TestCase.fail;
+
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+import com.onkiup.linker.parser.annotation.CapturePattern;
+
+public class TokenGrammarTest {
+
+  public static class Log implements Rule {
+    private Entry[] entries;
+  }
+
+  public static class Entry implements Rule {
+    @CapturePattern(pattern = "[a-z]+")
+    private String key;
+    private static final String EQUALS = "=";
+    @CapturePattern(pattern = "[0-9]+")
+    private String value;
+    private static final String END = ";\n";
+  }
+
+  private static String source(int records) {
+    StringBuilder result = new StringBuilder();
+    for (int i = 0; i < records; i++) {
+      result.append((char) ('a' + i % 26)).append("key=").append(i).append(";\n");
+    }
+    return result.toString();
+  }
+
+  private static List<String> describe(Log log) {
+    List<String> result = new ArrayList<>(log.entries.length);
+    for (Entry entry : log.entries) {
+      result.add(entry.key + "=" + entry.value);
+    }
+    return result;
+  }
+
+  @Test
+  public void recordsMatchSingleParse() {
+    // large enough to be split into several chunks
+    String source = source(TokenGrammar.MIN_RECORD_CHUNK / 4);
+    assertTrue(source.length() > TokenGrammar.MIN_RECORD_CHUNK * 2);
+    TokenGrammar<Log> grammar = TokenGrammar.forClass(Log.class);
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      Log single = grammar.tokenize("test", new StringReader(source));
+      Log chunked = grammar.tokenizeRecords("test", new StringReader(source), Pattern.compile("\n"), executor);
+      assertEquals(TokenGrammar.MIN_RECORD_CHUNK / 4, chunked.entries.length);
+      assertEquals(describe(single), describe(chunked));
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void recordsReportSourcePositions() {
+    String valid = source(TokenGrammar.MIN_RECORD_CHUNK / 4);
+    String source = valid + "broken=;\n" + valid;
+    TokenGrammar<Log> grammar = TokenGrammar.forClass(Log.class);
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      grammar.tokenizeRecords("test", new StringReader(source), Pattern.compile("\n"), executor);
+      fail("broken record was parsed");
+    } catch (SyntaxError e) {
+      assertTrue(String.valueOf(e.position()), e.position() > TokenGrammar.MIN_RECORD_CHUNK);
+      assertTrue(String.valueOf(e.position()), e.position() <= valid.length() + 8);
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void tokenizeAllKeepsSourceOrder() {
+    Map<String, Reader> sources = new LinkedHashMap<>();
+    for (int i = 0; i < 16; i++) {
+      // earlier sources are longer, so they tend to finish later
+      sources.put("source" + i, new StringReader(source((16 - i) * 50)));
+    }
+    TokenGrammar<Log> grammar = TokenGrammar.forClass(Log.class);
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<ParseResult<Log>> results = grammar.tokenizeAll(sources, executor);
+      assertEquals(16, results.size());
+      for (int i = 0; i < 16; i++) {
+        ParseResult<Log> result = results.get(i);
+        assertEquals("source" + i, result.source());
+        assertFalse(result.isFailed());
+        assertEquals((16 - i) * 50, result.get().entries.length);
+      }
+      // caller-owned executors are left running
+      assertFalse(executor.isShutdown());
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void tokenizeAllCapturesFailures() {
+    Map<String, Reader> sources = new LinkedHashMap<>();
+    sources.put("first", new StringReader(source(3)));
+    sources.put("broken", new StringReader("a=1;\nb=;\n"));
+    sources.put("last", new StringReader(source(5)));
+    List<ParseResult<Log>> results = TokenGrammar.forClass(Log.class).tokenizeAll(sources);
+
+    assertEquals(3, results.size());
+    assertEquals(3, results.get(0).get().entries.length);
+    assertEquals(5, results.get(2).get().entries.length);
+    ParseResult<Log> broken = results.get(1);
+    assertEquals("broken", broken.source());
+    assertTrue(broken.isFailed());
+    assertFalse(broken.token().isPresent());
+    RuntimeException error = broken.error().orElseThrow(AssertionError::new);
+    try {
+      broken.get();
+      fail("failed result should rethrow its error");
+    } catch (RuntimeException e) {
+      assertSame(error, e);
+    }
+  }
+
+  @Test
+  public void recordsReportExceededLimits() {
+    String source = source(TokenGrammar.MIN_RECORD_CHUNK / 4);
+    TokenGrammar<Log> grammar = TokenGrammar.forClass(Log.class);
+    grammar.limits(ParseLimits.steps(100));
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      grammar.tokenizeRecords("test", new StringReader(source), Pattern.compile("\n"), executor);
+      fail("step limit was not enforced");
+    } catch (ParseLimitExceeded e) {
+      assertEquals(101, e.steps());
+    } finally {
+      executor.shutdown();
+    }
+  }
+}
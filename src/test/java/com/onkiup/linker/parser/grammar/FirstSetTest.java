@@ -0,0 +1,141 @@
+package com.onkiup.linker.parser.grammar;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertSame;
+import static junit.framework.TestCase.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.onkiup.linker.parser.Rule;
+import com.onkiup.linker.parser.TokenGrammar;
+import com.onkiup.linker.parser.annotation.CapturePattern;
+import com.onkiup.linker.parser.trace.ParseStatistics;
+import com.onkiup.linker.parser.trace.StatisticsListener;
+
+public class FirstSetTest {
+
+  public static class Program implements Rule {
+    private Statement[] statements;
+  }
+
+  public interface Statement extends Rule {
+
+  }
+
+  public static class Assign implements Statement {
+    private Name name;
+    private static final String EQUALS = "=";
+    @CapturePattern(pattern = "[0-9]+")
+    private String value;
+    private static final String END = ";";
+  }
+
+  public static class Call implements Statement {
+    private static final String CALL = "call ";
+    private Name name;
+    private static final String END = ";";
+  }
+
+  public static class Block implements Statement {
+    private static final String OPEN = "{";
+    private Statement[] statements;
+    private static final String CLOSE = "}";
+  }
+
+  public static class Name implements Rule {
+    @CapturePattern(pattern = "[a-z]+")
+    private String value;
+  }
+
+  private static void describe(Statement[] statements, List<String> target) {
+    for (Statement statement : statements) {
+      if (statement instanceof Assign) {
+        target.add(((Assign) statement).name.value + "=" + ((Assign) statement).value);
+      } else if (statement instanceof Call) {
+        target.add("call " + ((Call) statement).name.value);
+      } else if (statement instanceof Block) {
+        target.add("{");
+        describe(((Block) statement).statements, target);
+        target.add("}");
+      } else {
+        target.add(String.valueOf(statement));
+      }
+    }
+  }
+
+  @Test
+  public void terminals() {
+    FirstSet set = FirstSet.ofTerminal("if", false);
+    assertTrue(set.test('i'));
+    assertFalse(set.test('I'));
+    assertFalse(set.test('f'));
+
+    set = FirstSet.ofTerminal("if", true);
+    assertTrue(set.test('I'));
+    assertTrue(FirstSet.ofTerminal("", false).isNullable());
+  }
+
+  @Test
+  public void regexPrefixes() {
+    FirstSet digits = FirstSet.ofRegex("\\d+", false);
+    assertTrue(digits.test('7'));
+    assertFalse(digits.test('a'));
+
+    FirstSet identifier = FirstSet.ofRegex("[a-zA-Z_][a-zA-Z0-9_]*", false);
+    assertTrue(identifier.test('q'));
+    assertTrue(identifier.test('_'));
+    assertFalse(identifier.test('1'));
+
+    FirstSet escaped = FirstSet.ofRegex("\\(.*", false);
+    assertTrue(escaped.test('('));
+    assertFalse(escaped.test('x'));
+  }
+
+  @Test
+  public void unsupportedRegexAcceptsAnything() {
+    assertSame(FirstSet.ANY, FirstSet.ofRegex("a|b", false));
+    assertSame(FirstSet.ANY, FirstSet.ofRegex("(ab)+", false));
+    assertSame(FirstSet.ANY, FirstSet.ofRegex("[^a]", false));
+    assertSame(FirstSet.ANY, FirstSet.ofRegex("a?b", false));
+    assertSame(FirstSet.ANY, FirstSet.ofRegex(".+", false));
+  }
+
+  @Test
+  public void union() {
+    FirstSet set = FirstSet.ofTerminal("a", false).union(FirstSet.ofTerminal("b", false));
+    assertTrue(set.test('a'));
+    assertTrue(set.test('b'));
+    assertFalse(set.test('c'));
+    assertTrue(set.union(FirstSet.EMPTY).test('c'));
+    assertSame(FirstSet.ANY, set.union(FirstSet.ANY));
+  }
+
+  @Test
+  public void pruningKeepsParseResults() {
+    String[] sources = {"x=1;call y;", "{a=2;{call b;}}c=3;", "{q=4;}call z;"};
+    TokenGrammar<Program> pruned = TokenGrammar.forClass(Program.class);
+    TokenGrammar<Program> full = TokenGrammar.forClass(Program.class);
+    full.pruneVariants(false);
+    StatisticsListener prunedStatistics = new StatisticsListener();
+    StatisticsListener fullStatistics = new StatisticsListener();
+    pruned.listener(prunedStatistics);
+    full.listener(fullStatistics);
+
+    for (String source : sources) {
+      List<String> expected = new ArrayList<>();
+      describe(full.parse(source).statements, expected);
+      ParseStatistics withoutPruning = fullStatistics.last();
+      List<String> actual = new ArrayList<>();
+      describe(pruned.parse(source).statements, actual);
+      ParseStatistics withPruning = prunedStatistics.last();
+
+      assertEquals(source, expected, actual);
+      assertTrue(source, withPruning.variantsSkipped() > withoutPruning.variantsSkipped());
+      assertTrue(source, withPruning.variantsTested() < withoutPruning.variantsTested());
+    }
+  }
+}
@@ -0,0 +1,48 @@
+package com.onkiup.linker.parser.grammar;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import org.junit.Test;
+
+public class GrammarProfileTest {
+
+  @Test
+  public void roundTrip() throws Exception {
+    GrammarProfile profile = new GrammarProfile();
+    profile.hit(CharSequence.class, String.class);
+    profile.hit(CharSequence.class, String.class);
+    profile.miss(CharSequence.class, String.class);
+    profile.miss(Number.class, Integer.class);
+
+    StringWriter target = new StringWriter();
+    profile.write(target);
+    String written = target.toString()
+        + "\ncom.example.Missing java.lang.Integer 1 1\nmalformed line\n";
+
+    GrammarProfile loaded = GrammarProfile.read(getClass().getClassLoader(), new StringReader(written));
+    assertEquals(2, loaded.hits(CharSequence.class, String.class));
+    assertEquals(1, loaded.misses(CharSequence.class, String.class));
+    assertEquals(1, loaded.misses(Number.class, Integer.class));
+    assertEquals(0, loaded.hits(Number.class, Integer.class));
+  }
+
+  @Test
+  public void priorities() {
+    GrammarProfile profile = new GrammarProfile();
+    profile.hit(CharSequence.class, String.class);
+    profile.hit(CharSequence.class, String.class);
+    profile.hit(CharSequence.class, String.class);
+    profile.miss(CharSequence.class, String.class);
+    profile.miss(Number.class, Integer.class);
+
+    VariantPriorities priorities = new VariantPriorities(0);
+    profile.apply(priorities);
+    assertEquals(-GrammarProfile.SCALE / 2, priorities.priority(String.class));
+    assertEquals(GrammarProfile.SCALE, priorities.priority(Integer.class));
+    assertFalse(profile.priorities().containsKey(Long.class));
+  }
+}
@@ -0,0 +1,93 @@
+package com.onkiup.linker.parser.grammar;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.Optional;
+
+import org.junit.Test;
+
+import com.onkiup.linker.parser.Rule;
+
+public class GrammarSnapshotTest {
+
+  public interface Junction extends Rule {
+
+  }
+
+  public static class First implements Junction, Rule {
+
+  }
+
+  public static class Second implements Junction, Rule {
+
+  }
+
+  /**
+   * Junction without implementations, which junction index does not list
+   */
+  public interface Scanned extends Rule {
+
+  }
+
+  public static class Holder implements Rule {
+    private Scanned value;
+  }
+
+  @Test
+  public void roundTrip() throws Exception {
+    GrammarModel model = GrammarModel.compile(Junction.class);
+    ByteArrayOutputStream target = new ByteArrayOutputStream();
+    GrammarSnapshot.capture(model, Collections.singletonMap(Second.class, -10)).write(target);
+    byte[] snapshot = target.toByteArray();
+
+    Optional<GrammarSnapshot> loaded = GrammarSnapshot.read(Junction.class, new ByteArrayInputStream(snapshot));
+    assertTrue(loaded.isPresent());
+    assertEquals(Integer.valueOf(-10), loaded.get().priorities().get(Second.class));
+
+    assertFalse(GrammarSnapshot.read(First.class, new ByteArrayInputStream(snapshot)).isPresent());
+  }
+
+  @Test
+  public void restoresCompiledModel() throws Exception {
+    GrammarModel model = GrammarModel.compile(Holder.class);
+    assertTrue(model.rules().stream().anyMatch(rule -> rule.type() == Scanned.class));
+    ByteArrayOutputStream target = new ByteArrayOutputStream();
+    GrammarSnapshot.capture(model, Collections.emptyMap()).write(target);
+
+    Optional<GrammarSnapshot> loaded = GrammarSnapshot.read(Holder.class, new ByteArrayInputStream(target.toByteArray()));
+    assertTrue(loaded.isPresent());
+    assertTrue(loaded.get().variants().containsKey(Scanned.class));
+    GrammarModel restored = loaded.get().model();
+    assertEquals(model.ruleCount(), restored.ruleCount());
+    for (int id = 0; id < model.ruleCount(); id++) {
+      Class<?> type = model.ruleType(id);
+      assertEquals(type, restored.ruleType(id));
+      assertEquals(model.firstSet(type), restored.firstSet(type));
+    }
+  }
+
+  @Test
+  public void classpathChangesInvalidateScannedJunctions() throws Exception {
+    ByteArrayOutputStream target = new ByteArrayOutputStream();
+    GrammarSnapshot.capture(GrammarModel.compile(Holder.class), Collections.emptyMap()).write(target);
+
+    // a class file added to the classpath may implement a scanned junction
+    Path classes = Paths.get(GrammarSnapshotTest.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+    Path added = classes.resolve("GrammarSnapshotTestAdded.class");
+    Files.write(added, new byte[0]);
+    try {
+      assertFalse(GrammarSnapshot.read(Holder.class, new ByteArrayInputStream(target.toByteArray())).isPresent());
+    } finally {
+      Files.delete(added);
+    }
+    assertTrue(GrammarSnapshot.read(Holder.class, new ByteArrayInputStream(target.toByteArray())).isPresent());
+  }
+}
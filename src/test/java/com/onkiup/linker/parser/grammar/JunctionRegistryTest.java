@@ -0,0 +1,153 @@
+package com.onkiup.linker.parser.grammar;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertNotSame;
+import static junit.framework.TestCase.assertNull;
+import static junit.framework.TestCase.assertSame;
+import static junit.framework.TestCase.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.WeakReference;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+import com.onkiup.linker.parser.ParserContext;
+import com.onkiup.linker.parser.Rule;
+
+public class JunctionRegistryTest {
+
+  public interface Indexed extends Rule {
+
+  }
+
+  public static class IndexedVariant implements Indexed {
+
+  }
+
+  public static class UnlistedVariant implements Indexed {
+
+  }
+
+  public interface Scanned extends Rule {
+
+  }
+
+  public static class ScannedVariant implements Scanned {
+
+  }
+
+  /**
+   * Exposes given junction index instead of the ones generated for test classes
+   */
+  private static final class IndexedClassLoader extends URLClassLoader {
+    private final URL index;
+
+    private IndexedClassLoader(URL classes, URL index) {
+      super(new URL[] {classes}, JunctionRegistryTest.class.getClassLoader());
+      this.index = index;
+    }
+
+    @Override
+    public Enumeration<URL> getResources(String name) throws IOException {
+      if (JunctionRegistry.INDEX.equals(name)) {
+        return Collections.enumeration(Collections.singletonList(index));
+      }
+      return super.getResources(name);
+    }
+  }
+
+  @Test
+  public void scansForJunctionsMissingFromIndex() throws Exception {
+    Path index = Files.createTempFile("junctions", ".index");
+    Files.write(index, (Indexed.class.getName() + " " + IndexedVariant.class.getName() + "\n")
+        .getBytes(StandardCharsets.UTF_8));
+    URL classes = JunctionRegistryTest.class.getProtectionDomain().getCodeSource().getLocation();
+    JunctionRegistry registry = JunctionRegistry.forClassLoader(new IndexedClassLoader(classes, index.toUri().toURL()));
+
+    assertTrue(registry.isIndexed());
+    assertTrue(registry.isIndexed(Indexed.class));
+    assertFalse(registry.isIndexed(Scanned.class));
+    // test classes are not covered by the index, so their variants are merged with the indexed ones
+    assertEquals(new HashSet<>(Arrays.asList(IndexedVariant.class, UnlistedVariant.class)),
+        registry.subClasses(Indexed.class).collect(Collectors.toSet()));
+    Set<Class<? extends Scanned>> scanned = registry.subClasses(Scanned.class).collect(Collectors.toSet());
+    assertEquals(Collections.singleton(ScannedVariant.class), scanned);
+  }
+
+  @Test
+  public void trustsIndexedRoots() throws Exception {
+    byte[] content = (Indexed.class.getName() + " " + IndexedVariant.class.getName() + "\n")
+        .getBytes(StandardCharsets.UTF_8);
+    URL classes = JunctionRegistryTest.class.getProtectionDomain().getCodeSource().getLocation();
+    // pretends that the index was packaged with test classes, so that their root is not scanned for indexed junctions
+    URL index = new URL(classes, JunctionRegistry.INDEX, new URLStreamHandler() {
+      @Override
+      protected URLConnection openConnection(URL url) {
+        return new URLConnection(url) {
+          @Override
+          public void connect() {
+          }
+
+          @Override
+          public InputStream getInputStream() {
+            return new ByteArrayInputStream(content);
+          }
+        };
+      }
+    });
+    JunctionRegistry registry = JunctionRegistry.forClassLoader(new IndexedClassLoader(classes, index));
+
+    assertEquals(Collections.singleton(IndexedVariant.class), registry.subClasses(Indexed.class).collect(Collectors.toSet()));
+    assertEquals(Collections.singleton(ScannedVariant.class), registry.subClasses(Scanned.class).collect(Collectors.toSet()));
+  }
+
+  @Test
+  public void sharedPerClassLoader() {
+    ClassLoader classLoader = JunctionRegistryTest.class.getClassLoader();
+    ClassLoader other = new URLClassLoader(new URL[0], null);
+    JunctionRegistry registry = JunctionRegistry.forClassLoader(classLoader);
+    assertSame(registry, JunctionRegistry.forClassLoader(classLoader));
+    assertNotSame(registry, JunctionRegistry.forClassLoader(other));
+
+    ParserContext<?> context = ParserContext.get();
+    ClassLoader previous = context.classLoader();
+    try {
+      context.classLoader(classLoader);
+      assertSame(registry, context.junctions());
+      context.classLoader(other);
+      assertSame(JunctionRegistry.forClassLoader(other), context.junctions());
+    } finally {
+      context.classLoader(previous);
+    }
+  }
+
+  @Test
+  public void doesNotKeepClassLoadersAlive() throws Exception {
+    ClassLoader classLoader = new URLClassLoader(new URL[0], null);
+    JunctionRegistry.forClassLoader(classLoader);
+    WeakReference<ClassLoader> reference = new WeakReference<>(classLoader);
+    classLoader = null;
+
+    for (int i = 0; i < 100 && reference.get() != null; i++) {
+      System.gc();
+      Thread.sleep(10);
+    }
+    assertNull(reference.get());
+  }
+}
@@ -0,0 +1,134 @@
+package com.onkiup.linker.parser.grammar;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertNull;
+import static junit.framework.TestCase.assertSame;
+import static junit.framework.TestCase.assertTrue;
+import static junit.framework.TestCase.fail;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class MethodHandleAccessorFactoryTest {
+
+  private static class Target {
+    private static String shared = "shared";
+    private static final String CONSTANT = "constant";
+
+    private final String value;
+    private int number;
+
+    private Target() {
+      this.value = "initial";
+    }
+  }
+
+  public static class Constructed {
+    private final String source;
+
+    public Constructed(String source) {
+      this.source = "constructor:" + source;
+    }
+
+    public static Constructed fromString(String source) {
+      throw new AssertionError("constructor should be preferred");
+    }
+
+    public static Constructed valueOf(String source) {
+      throw new AssertionError("constructor should be preferred");
+    }
+  }
+
+  public static class Parsed {
+    private final String source;
+
+    private Parsed(String source) {
+      this.source = source;
+    }
+
+    public static Parsed fromString(String source) {
+      return new Parsed("fromString:" + source);
+    }
+
+    public static Parsed valueOf(String source) {
+      throw new AssertionError("fromString should be preferred");
+    }
+  }
+
+  public static class Rejecting {
+    public Rejecting(String source) {
+      throw new IllegalStateException("rejected " + source);
+    }
+
+    public static Rejecting valueOf(String source) {
+      throw new AssertionError("failed conversions should not fall through");
+    }
+  }
+
+  private final AccessorFactory subject = new MethodHandleAccessorFactory();
+
+  @Test
+  public void privateAndFinalFields() throws Exception {
+    Target target = subject.instantiator(Target.class).get();
+    FieldAccessor value = subject.accessor(Target.class.getDeclaredField("value"));
+    FieldAccessor number = subject.accessor(Target.class.getDeclaredField("number"));
+
+    assertEquals("initial", value.get(target));
+    value.set(target, "updated");
+    assertEquals("updated", value.get(target));
+    number.set(target, 42);
+    assertEquals(42, target.number);
+    assertEquals(42, number.get(target));
+  }
+
+  @Test
+  public void staticFields() throws Exception {
+    FieldAccessor shared = subject.accessor(Target.class.getDeclaredField("shared"));
+    FieldAccessor constant = subject.accessor(Target.class.getDeclaredField("CONSTANT"));
+
+    assertEquals("shared", shared.get(null));
+    assertEquals("constant", constant.get(new Target()));
+    try {
+      shared.set(null, "changed");
+      fail("static fields should not be populated");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+    assertEquals("shared", Target.shared);
+  }
+
+  @Test
+  public void converterOrdering() {
+    assertEquals("constructor:abc", ((Constructed) subject.converter(Constructed.class).convert("abc")).source);
+    assertEquals("fromString:abc", ((Parsed) subject.converter(Parsed.class).convert("abc")).source);
+    assertEquals(42, subject.converter(Integer.class).convert("42"));
+    assertEquals(Thread.State.NEW, subject.converter(Thread.State.class).convert("NEW"));
+  }
+
+  @Test
+  public void failedConversionsDoNotFallThrough() {
+    try {
+      subject.converter(Rejecting.class).convert("abc");
+      fail("conversion should fail");
+    } catch (IllegalArgumentException e) {
+      assertTrue(e.getCause() instanceof IllegalStateException);
+    }
+    try {
+      subject.converter(Runnable.class).convert("abc");
+      fail("conversion should fail");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void passesThroughCompatibleValues() {
+    Parsed parsed = Parsed.fromString("abc");
+    assertSame(parsed, subject.converter(Parsed.class).convert(parsed));
+    assertNull(subject.converter(Parsed.class).convert(null));
+    Object converted = subject.converter(String[].class).convert(new Object[] {"a", "b"});
+    assertTrue(converted instanceof String[]);
+    assertTrue(Arrays.equals(new String[] {"a", "b"}, (String[]) converted));
+  }
+}
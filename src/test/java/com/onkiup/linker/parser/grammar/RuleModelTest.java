@@ -0,0 +1,89 @@
+package com.onkiup.linker.parser.grammar;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertSame;
+import static junit.framework.TestCase.assertTrue;
+
+import java.lang.reflect.Field;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.onkiup.linker.parser.Rule;
+import com.onkiup.linker.parser.annotation.CapturePattern;
+import com.onkiup.linker.parser.annotation.IgnoreCharacters;
+
+public class RuleModelTest {
+
+  public enum TestEnum implements Rule {
+    ONE, TWO, @CapturePattern("thr+ee") THREE;
+  }
+
+  public interface TestJunction extends Rule {
+
+  }
+
+  @IgnoreCharacters(value = " ", inherit = true)
+  public interface InheritingJunction extends Rule {
+
+  }
+
+  @IgnoreCharacters(value = "\t")
+  public interface ResettingJunction extends Rule {
+
+  }
+
+  public static class Base implements Rule {
+    private static final String OPEN = "(";
+    private String head;
+    private transient String cache;
+  }
+
+  public static class Derived extends Base {
+    private String tail;
+  }
+
+  @Test
+  public void tokenFields() {
+    String[] base = Arrays.stream(RuleModel.forClass(Base.class).fields()).map(Field::getName).toArray(String[]::new);
+    assertTrue(Arrays.toString(base), Arrays.equals(new String[] {"OPEN", "head"}, base));
+    String[] derived = Arrays.stream(RuleModel.forClass(Derived.class).fields()).map(Field::getName)
+        .toArray(String[]::new);
+    assertTrue(Arrays.toString(derived), Arrays.equals(new String[] {"OPEN", "head", "tail"}, derived));
+  }
+
+  @Test
+  public void sharedModels() {
+    assertSame(RuleModel.forClass(TestEnum.class), RuleModel.forClass(TestEnum.class));
+    assertSame(RuleModel.forClass(TestEnum.class).enumVariants(false), RuleModel.forClass(TestEnum.class).enumVariants(false));
+  }
+
+  @Test
+  public void enumVariants() {
+    RuleModel.EnumVariants<TestEnum> variants = RuleModel.forClass(TestEnum.class).enumVariants(false);
+    assertEquals(3, variants.size());
+    assertSame(TestEnum.ONE, variants.constant(0));
+    assertSame(TestEnum.THREE, variants.constant(2));
+    assertTrue(variants.matcher(0).apply("ONE").isMatch());
+    assertTrue(variants.matcher(1).apply("two").isFailed());
+    assertFalse(variants.matcher(2).apply("threee").isFailed());
+
+    assertEquals(2, variants.alternatives());
+    assertTrue(variants.alternative(0).apply("TWO").isMatch());
+    assertSame(TestEnum.TWO, variants.resolve(0, "TWO"));
+    assertSame(TestEnum.THREE, variants.resolve(1, "threee"));
+
+    RuleModel.EnumVariants<TestEnum> ignoringCase = RuleModel.forClass(TestEnum.class).enumVariants(true);
+    assertTrue(ignoringCase.matcher(1).apply("two").isMatch());
+    assertSame(TestEnum.TWO, ignoringCase.resolve(0, "two"));
+  }
+
+  @Test
+  public void ignoreCharacters() {
+    assertFalse(RuleModel.forClass(TestJunction.class).isConcrete());
+    assertEquals("\n", RuleModel.forClass(TestJunction.class).ignoreCharacters("\n"));
+    assertEquals("\n ", RuleModel.forClass(InheritingJunction.class).ignoreCharacters("\n"));
+    assertEquals("\t", RuleModel.forClass(ResettingJunction.class).ignoreCharacters("\n"));
+  }
+}
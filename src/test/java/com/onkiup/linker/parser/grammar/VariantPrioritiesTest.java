@@ -0,0 +1,53 @@
+package com.onkiup.linker.parser.grammar;
+
+import static junit.framework.TestCase.assertEquals;
+
+import org.junit.Test;
+
+public class VariantPrioritiesTest {
+
+  @Test
+  public void updateAndDecay() {
+    VariantPriorities priorities = new VariantPriorities(0);
+    assertEquals(0, priorities.priority(String.class));
+    priorities.update(String.class, 30);
+    priorities.update(String.class, -20);
+    priorities.update(Integer.class, 40);
+    assertEquals(10, priorities.priority(String.class));
+    assertEquals(40, priorities.priority(Integer.class));
+
+    priorities.decay();
+    assertEquals(5, priorities.priority(String.class));
+    assertEquals(20, priorities.priority(Integer.class));
+    assertEquals(2, priorities.snapshot().size());
+  }
+
+  @Test
+  public void limits() {
+    VariantPriorities priorities = new VariantPriorities(0);
+    priorities.priority(String.class, VariantPriorities.LIMIT * 3);
+    assertEquals(VariantPriorities.LIMIT, priorities.priority(String.class));
+    priorities.priority(String.class, -VariantPriorities.LIMIT * 3);
+    assertEquals(-VariantPriorities.LIMIT, priorities.priority(String.class));
+  }
+
+  @Test
+  public void grammarsDoNotShareStatistics() {
+    VariantPriorities first = new VariantPriorities();
+    VariantPriorities second = new VariantPriorities();
+    first.update(String.class, 100);
+    assertEquals(0, second.priority(String.class));
+  }
+
+  @Test
+  public void copiesAreIndependent() {
+    VariantPriorities original = new VariantPriorities(0);
+    original.update(String.class, 100);
+    VariantPriorities copy = original.copy();
+    assertEquals(100, copy.priority(String.class));
+    copy.update(String.class, 50);
+    original.update(Integer.class, 10);
+    assertEquals(100, original.priority(String.class));
+    assertEquals(0, copy.priority(Integer.class));
+  }
+}
@@ -0,0 +1,66 @@
+package com.onkiup.linker.parser.jfr;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertNull;
+import static junit.framework.TestCase.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+import com.onkiup.linker.parser.Rule;
+import com.onkiup.linker.parser.TokenGrammar;
+import com.onkiup.linker.parser.annotation.CapturePattern;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+public class FlightRecorderSupportTest {
+  private static final String PARSE = "com.onkiup.linker.parser.Parse";
+
+  public static class Greeting implements Rule {
+    private static final String HELLO = "hello ";
+    @CapturePattern(pattern = "[a-z]+")
+    private String name;
+  }
+
+  private static List<RecordedEvent> parses(Recording recording) throws Exception {
+    Path file = Files.createTempFile("parser", ".jfr");
+    try {
+      recording.dump(file);
+      return RecordingFile.readAllEvents(file).stream()
+          .filter(event -> PARSE.equals(event.getEventType().getName()))
+          .collect(Collectors.toList());
+    } finally {
+      Files.deleteIfExists(file);
+    }
+  }
+
+  @Test
+  public void listensOnlyWhileRecording() throws Exception {
+    assumeTrue(FlightRecorderSupport.listener() != null);
+    TokenGrammar<Greeting> grammar = TokenGrammar.forClass(Greeting.class);
+    assertFalse(FlightRecorderSupport.isRecording());
+    assertNull(grammar.listener());
+
+    try (Recording recording = new Recording()) {
+      recording.enable(PARSE).withoutThreshold();
+      recording.start();
+      assertTrue(FlightRecorderSupport.isRecording());
+      assertEquals("world", grammar.parse("hello world").name);
+      recording.stop();
+      assertFalse(FlightRecorderSupport.isRecording());
+      assertEquals("again", grammar.parse("hello again").name);
+
+      List<RecordedEvent> parses = parses(recording);
+      assertEquals(1, parses.size());
+      assertEquals(11, parses.get(0).getInt("length"));
+    }
+  }
+}
@@ -4,12 +4,16 @@ import static junit.framework.TestCase.assertEquals;
 import static junit.framework.TestCase.assertFalse;
 import static junit.framework.TestCase.assertTrue;
 
+import java.io.StringReader;
 import java.math.BigDecimal;
 import java.math.BigInteger;
 
 import org.junit.Test;
 
+import com.onkiup.linker.parser.MatchState;
 import com.onkiup.linker.parser.NumberMatcher;
+import com.onkiup.linker.parser.TokenTestResult;
+import com.onkiup.linker.parser.util.SelfPopulatingBuffer;
 
 public class NumberMatcherTest {
 
@@ -96,4 +100,54 @@ public class NumberMatcherTest {
     assertEquals(new BigDecimal("-199"), subject.apply("-199i").getToken());
     assertEquals(3, subject.apply("199i").getTokenLength());
   }
+
+  @Test
+  public void resumesLikeApply() throws Exception {
+    String text = "-128 127 +1.5. 3000000000 99999999999999999999 .5e3 -. 0.";
+    SelfPopulatingBuffer buffer = new SelfPopulatingBuffer("test", new StringReader(text));
+    Class[] types = {Byte.class, Short.class, Integer.class, Long.class, BigInteger.class, Float.class, Double.class,
+        BigDecimal.class};
+    for (Class type : types) {
+      NumberMatcher subject = new NumberMatcher(type);
+      for (int start = 0; start < text.length(); start++) {
+        MatchState state = new MatchState();
+        for (int end = start + 1; end <= text.length(); end++) {
+          TokenTestResult expected = subject.apply(text.substring(start, end));
+          TokenTestResult actual = state.test(subject, buffer.subSequence(start, end));
+          String position = type.getSimpleName() + " [" + start + ", " + end + ")";
+          assertEquals(position, expected.isMatch(), actual.isMatch());
+          assertEquals(position, expected.isMatchContinue(), actual.isMatchContinue());
+          assertEquals(position, expected.isFailed(), actual.isFailed());
+          assertEquals(position, expected.getTokenLength(), actual.getTokenLength());
+          Object token = actual.getToken();
+          if (token instanceof CharSequence) {
+            token = subject.parse((CharSequence) token);
+          }
+          assertEquals(position, expected.getToken(), token);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void scansLongNumbersWithoutParsing() throws Exception {
+    StringBuilder number = new StringBuilder();
+    for (int i = 0; i < 100_000; i++) {
+      number.append((char) ('0' + i % 10));
+    }
+    SelfPopulatingBuffer buffer = new SelfPopulatingBuffer("test", new StringReader(number + ";"));
+    NumberMatcher subject = new NumberMatcher(BigInteger.class);
+    MatchState state = new MatchState();
+
+    TokenTestResult result;
+    int end = 0;
+    do {
+      result = state.test(subject, buffer.subSequence(0, ++end));
+      // partial matches are reported as views of the input
+      assertTrue(result.isMatch() || result.getToken() instanceof CharSequence);
+    } while (result.isMatchContinue());
+    assertTrue(result.isMatch());
+    assertEquals(100_000, result.getTokenLength());
+    assertEquals(new BigInteger(number.toString()), result.getToken());
+  }
 }
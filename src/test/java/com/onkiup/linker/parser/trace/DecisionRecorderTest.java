@@ -0,0 +1,61 @@
+package com.onkiup.linker.parser.trace;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.onkiup.linker.parser.ParserLocation;
+import com.onkiup.linker.parser.token.CompoundToken;
+import com.onkiup.linker.parser.token.ConsumingToken;
+
+public class DecisionRecorderTest {
+
+  @Test
+  public void dumpsLastDecisionsOnFailure() {
+    List<String> dumps = new ArrayList<>();
+    DecisionRecorder recorder = new DecisionRecorder(3, Long.MAX_VALUE / 1_000_000, dumps::add);
+    CompoundToken root = Mockito.mock(CompoundToken.class);
+    ConsumingToken consumer = Mockito.mock(ConsumingToken.class);
+    ParserLocation location = Mockito.mock(ParserLocation.class);
+    Mockito.when(location.position()).thenReturn(7);
+    Mockito.when(consumer.location()).thenReturn(location);
+    Mockito.when(consumer.parent()).thenReturn(Optional.empty());
+
+    recorder.parseStarted("ok", "");
+    recorder.step(root, consumer);
+    recorder.parseFinished("ok", null);
+    assertTrue(dumps.isEmpty());
+
+    recorder.parseStarted("broken", "");
+    for (int i = 0; i < 4; i++) {
+      recorder.step(root, consumer);
+    }
+    recorder.tokenFailed(consumer);
+    recorder.parseFinished("broken", new RuntimeException("test"));
+
+    assertEquals(1, dumps.size());
+    String[] lines = dumps.get(0).split("\n");
+    assertTrue(lines[0], lines[0].startsWith("Parse of broken failed"));
+    assertTrue(lines[0], lines[0].endsWith("last 3 of 5 decisions:"));
+    assertEquals(4, lines.length);
+    assertTrue(lines[1], lines[1].startsWith("  #2 STEP"));
+    assertTrue(lines[3], lines[3].startsWith("  #4 FAILED"));
+    assertTrue(lines[3], lines[3].endsWith("@7"));
+  }
+
+  @Test
+  public void dumpsSlowParses() {
+    List<String> dumps = new ArrayList<>();
+    DecisionRecorder recorder = new DecisionRecorder(3, -1, dumps::add);
+    recorder.parseStarted("slow", "");
+    recorder.parseFinished("slow", null);
+    assertEquals(1, dumps.size());
+    assertTrue(dumps.get(0), dumps.get(0).startsWith("Parse of slow took"));
+  }
+}
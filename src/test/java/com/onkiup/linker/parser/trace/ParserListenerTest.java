@@ -0,0 +1,136 @@
+package com.onkiup.linker.parser.trace;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertSame;
+import static junit.framework.TestCase.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.log4j.ConsoleAppender;
+import org.apache.log4j.Layout;
+import org.apache.log4j.PatternLayout;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.onkiup.linker.parser.Rule;
+import com.onkiup.linker.parser.TokenGrammar;
+import com.onkiup.linker.parser.annotation.CapturePattern;
+import com.onkiup.linker.parser.token.CompoundToken;
+import com.onkiup.linker.parser.token.ConsumingToken;
+import com.onkiup.linker.parser.token.PartialToken;
+import com.onkiup.linker.util.LoggerLayout;
+
+public class ParserListenerTest {
+
+  public static class Greeting implements Rule {
+    private static final String HELLO = "hello ";
+    @CapturePattern(pattern = "[a-z]+")
+    private String name;
+  }
+
+  /**
+   * Appends names of received events to a shared list
+   */
+  private static final class Recorder implements ParserListener {
+    private final String name;
+    private final List<String> events;
+    private final boolean tokenLogging;
+
+    private Recorder(String name, List<String> events, boolean tokenLogging) {
+      this.name = name;
+      this.events = events;
+      this.tokenLogging = tokenLogging;
+    }
+
+    @Override
+    public void parseStarted(String sourceName, CharSequence buffer) {
+      events.add(name + ":parseStarted");
+    }
+
+    @Override
+    public void parseFinished(String sourceName, Throwable error) {
+      events.add(name + ":parseFinished");
+    }
+
+    @Override
+    public void step(CompoundToken<?> root, ConsumingToken<?> consumer) {
+      events.add(name + ":step");
+    }
+
+    @Override
+    public void tokenCreated(PartialToken<?> token) {
+      events.add(name + ":tokenCreated");
+    }
+
+    @Override
+    public void variantSkipped(CompoundToken<?> junction, Class<?> variant) {
+      events.add(name + ":variantSkipped");
+    }
+
+    @Override
+    public boolean tokenLogging() {
+      return tokenLogging;
+    }
+  }
+
+  @Test
+  public void compositeDispatchOrder() {
+    List<String> events = new ArrayList<>();
+    ParserListener first = new Recorder("first", events, false);
+    ParserListener second = new Recorder("second", events, false);
+    assertSame(first, ParserListener.all(first));
+
+    ParserListener composite = ParserListener.all(first, second);
+    assertFalse(composite.tokenLogging());
+    assertTrue(ParserListener.all(first, new Recorder("third", events, true)).tokenLogging());
+
+    composite.parseStarted("test", "");
+    composite.step(Mockito.mock(CompoundToken.class), Mockito.mock(ConsumingToken.class));
+    composite.variantSkipped(Mockito.mock(CompoundToken.class), String.class);
+    composite.parseFinished("test", null);
+    assertEquals(Arrays.asList("first:parseStarted", "second:parseStarted", "first:step", "second:step",
+        "first:variantSkipped", "second:variantSkipped", "first:parseFinished", "second:parseFinished"), events);
+  }
+
+  @Test
+  public void parserEvents() {
+    List<String> events = new ArrayList<>();
+    TokenGrammar<Greeting> grammar = TokenGrammar.forClass(Greeting.class);
+    assertEquals("world", grammar.parse("hello world").name);
+
+    grammar.listener(new Recorder("listener", events, false));
+    assertEquals("world", grammar.parse("hello world").name);
+    assertEquals("listener:parseStarted", events.get(0));
+    assertEquals("listener:parseFinished", events.get(events.size() - 1));
+    assertTrue(events.contains("listener:step"));
+    assertTrue(events.contains("listener:tokenCreated"));
+
+    // parses without a listener do not deliver events to previously installed ones
+    events.clear();
+    grammar.listener(null);
+    assertEquals("world", grammar.parse("hello world").name);
+    assertTrue(events.isEmpty());
+  }
+
+  @Test
+  public void loggingListenerRestoresLayouts() {
+    Layout layout = new PatternLayout("%m%n");
+    ConsoleAppender appender = new ConsoleAppender(layout);
+    org.apache.log4j.Logger.getRootLogger().addAppender(appender);
+    try {
+      LoggingListener listener = new LoggingListener();
+      listener.parseStarted("outer", "outer");
+      assertTrue(appender.getLayout() instanceof LoggerLayout);
+      listener.parseStarted("inner", "inner");
+      listener.parseFinished("inner", null);
+      assertTrue(appender.getLayout() instanceof LoggerLayout);
+      listener.parseFinished("outer", null);
+      assertSame(layout, appender.getLayout());
+    } finally {
+      org.apache.log4j.Logger.getRootLogger().removeAppender(appender);
+    }
+  }
+}
@@ -0,0 +1,111 @@
+package com.onkiup.linker.parser.trace;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertSame;
+import static junit.framework.TestCase.assertTrue;
+
+import java.util.Optional;
+
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.onkiup.linker.parser.token.CompoundToken;
+import com.onkiup.linker.parser.token.ConsumingToken;
+import com.onkiup.linker.parser.token.PartialToken;
+
+public class StatisticsListenerTest {
+
+  @Test
+  public void counters() {
+    StatisticsCollector collector = new StatisticsCollector();
+    StatisticsListener listener = new StatisticsListener(collector);
+    CompoundToken root = Mockito.mock(CompoundToken.class);
+    Mockito.when(root.parent()).thenReturn(Optional.empty());
+    ConsumingToken consumer = Mockito.mock(ConsumingToken.class);
+    Mockito.when(consumer.parent()).thenReturn(Optional.of(root));
+    PartialToken token = Mockito.mock(PartialToken.class);
+    Mockito.when(token.parent()).thenReturn(Optional.of(root));
+    Mockito.when(token.tokenType()).thenReturn(String.class);
+
+    listener.parseStarted("test", "0123456789");
+    listener.tokenCreated(token);
+    listener.tokenCreated(token);
+    listener.step(root, consumer);
+    listener.consumed(consumer, 0, 6);
+    listener.traceback(root, consumer);
+    listener.step(root, consumer);
+    listener.consumed(consumer, 2, 8);
+    listener.variantSkipped(root, Integer.class);
+    listener.rotated(root);
+    listener.parseFinished("test", null);
+
+    ParseStatistics statistics = listener.last();
+    assertEquals("test", statistics.source());
+    assertFalse(statistics.isFailed());
+    assertEquals(10, statistics.inputLength());
+    assertEquals(2, statistics.steps());
+    assertEquals(2L, (long) statistics.tokensCreated().get(String.class));
+    assertEquals(0, statistics.variantsTested());
+    assertEquals(1, statistics.variantsSkipped());
+    assertEquals(1, statistics.tracebacks());
+    assertEquals(1, statistics.rotations());
+    assertEquals(8, statistics.charactersConsumed());
+    assertEquals(4, statistics.charactersReexamined());
+    assertEquals(1, statistics.peakDepth());
+
+    assertEquals(1, collector.parses());
+    assertSame(statistics, collector.worst());
+    assertEquals(4L, collector.metrics().get("characters.reexamined"));
+  }
+
+  @Test
+  public void nestedParses() {
+    StatisticsCollector collector = new StatisticsCollector();
+    StatisticsListener listener = new StatisticsListener(collector);
+    ConsumingToken consumer = Mockito.mock(ConsumingToken.class);
+    Mockito.when(consumer.parent()).thenReturn(Optional.empty());
+
+    listener.parseStarted("outer", "outer");
+    listener.parseStarted("inner", "in");
+    listener.consumed(consumer, 0, 2);
+    listener.parseFinished("inner", new RuntimeException());
+    assertEquals("inner", listener.last().source());
+    assertTrue(listener.last().isFailed());
+    listener.consumed(consumer, 0, 5);
+    listener.parseFinished("outer", null);
+
+    assertEquals("outer", listener.last().source());
+    assertEquals(5, listener.last().charactersConsumed());
+    assertEquals(2, collector.parses());
+    assertEquals(1, collector.failures());
+  }
+
+  @Test
+  public void tracksDepthIncrementally() {
+    StatisticsListener listener = new StatisticsListener();
+    CompoundToken root = Mockito.mock(CompoundToken.class);
+    Mockito.when(root.parent()).thenReturn(Optional.empty());
+    CompoundToken middle = Mockito.mock(CompoundToken.class);
+    Mockito.when(middle.parent()).thenReturn(Optional.of(root));
+    CompoundToken leaf = Mockito.mock(CompoundToken.class);
+    Mockito.when(leaf.parent()).thenReturn(Optional.of(middle));
+    ConsumingToken deep = Mockito.mock(ConsumingToken.class);
+    Mockito.when(deep.parent()).thenReturn(Optional.of(leaf));
+    ConsumingToken shallow = Mockito.mock(ConsumingToken.class);
+    Mockito.when(shallow.parent()).thenReturn(Optional.of(middle));
+
+    listener.parseStarted("test", "");
+    listener.step(root, deep);
+    listener.step(root, shallow);
+    listener.step(root, deep);
+    listener.step(root, deep);
+    listener.parseFinished("test", null);
+
+    assertEquals(3, listener.last().peakDepth());
+    // ancestors shared with previous consumers are not walked again
+    Mockito.verify(root, Mockito.times(1)).parent();
+    Mockito.verify(middle, Mockito.times(1)).parent();
+    Mockito.verify(leaf, Mockito.times(2)).parent();
+  }
+}
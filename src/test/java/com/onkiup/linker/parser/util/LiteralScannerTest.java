@@ -0,0 +1,31 @@
+package com.onkiup.linker.parser.util;
+
+import static junit.framework.TestCase.assertEquals;
+
+import org.junit.Test;
+
+public class LiteralScannerTest {
+
+  @Test
+  public void findsFirstOccurrenceWithinBounds() {
+    LiteralScanner subject = new LiteralScanner("abab");
+    String text = "aabababxabab";
+    CharSequence[] texts = {text, new StringBuilder(text), new StringBuffer(text)};
+    for (CharSequence candidate : texts) {
+      for (int from = 0; from < text.length(); from++) {
+        for (int to = from; to <= text.length(); to++) {
+          assertEquals(candidate.getClass() + " [" + from + ", " + to + ")",
+              text.substring(0, to).indexOf("abab", from), subject.indexOf(candidate, from, to));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void singleCharacter() {
+    LiteralScanner subject = new LiteralScanner("\"");
+    assertEquals(3, subject.indexOf(new StringBuffer("abc\"d\""), 0, 6));
+    assertEquals(5, subject.indexOf(new StringBuffer("abc\"d\""), 4, 6));
+    assertEquals(-1, subject.indexOf(new StringBuffer("abc\"d\""), 4, 5));
+  }
+}
@@ -0,0 +1,61 @@
+package com.onkiup.linker.parser.util;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertTrue;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+public class RecordSplitterTest {
+
+  @Test
+  public void split() {
+    String text = "a=1;\nb=2;\nc=3;\nd=4;\n\n";
+    int[] ends = RecordSplitter.split(text, Pattern.compile(";\n"), 6);
+    assertTrue(Arrays.toString(ends), Arrays.equals(new int[] {10, text.length()}, ends));
+
+    ends = RecordSplitter.split(text, Pattern.compile(";\n"), 1000);
+    assertEquals(1, ends.length);
+    assertEquals(text.length(), ends[0]);
+
+    ends = RecordSplitter.split("abc", Pattern.compile(";"), 1);
+    assertEquals(1, ends.length);
+  }
+
+  @Test
+  public void streamingMatchesSplit() throws Exception {
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < 500; i++) {
+      text.append("key").append(i).append("=").append(i * 7).append(";\n");
+    }
+    text.append("\n  \n");
+    Pattern boundary = Pattern.compile(";\n");
+    for (int chunkSize : new int[] {1, 7, 64, 1000, 100000}) {
+      int[] ends = RecordSplitter.split(text, boundary, chunkSize);
+      RecordSplitter splitter = new RecordSplitter(new StringReader(text.toString()), boundary, chunkSize);
+      List<String> chunks = new ArrayList<>();
+      List<Long> offsets = new ArrayList<>();
+      for (String chunk = splitter.next(); chunk != null; chunk = splitter.next()) {
+        chunks.add(chunk);
+        offsets.add(splitter.offset());
+      }
+      assertEquals(ends.length, chunks.size());
+      int start = 0;
+      for (int i = 0; i < ends.length; i++) {
+        assertEquals(start, (long) offsets.get(i));
+        assertEquals(text.substring(start, ends[i]), chunks.get(i));
+        start = ends[i];
+      }
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void emptyBoundary() {
+    RecordSplitter.split("a;b;c;d", Pattern.compile(";?"), 1);
+  }
+}
@@ -0,0 +1,68 @@
+package com.onkiup.linker.parser.util;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertTrue;
+
+import org.junit.Test;
+
+public class TagIndexTest {
+
+  @Test
+  public void tags() {
+    testTags(new TagIndex(1000, 70, false));
+    testTags(new TagIndex(1000, 70, true));
+  }
+
+  private void testTags(TagIndex index) {
+    assertEquals(TagIndex.UNKNOWN, index.get(5, 3));
+    assertTrue(index.set(5, 3, false));
+    assertEquals(TagIndex.INCOMPATIBLE, index.get(5, 3));
+    assertFalse(index.set(5, 3, false));
+    assertTrue(index.set(5, 3, true));
+    assertEquals(TagIndex.COMPATIBLE, index.get(5, 3));
+    // compatibility tags are never replaced
+    assertFalse(index.set(5, 3, false));
+    assertEquals(TagIndex.COMPATIBLE, index.get(5, 3));
+
+    assertTrue(index.set(999, 69, false));
+    assertEquals(TagIndex.INCOMPATIBLE, index.get(999, 69));
+    assertEquals(TagIndex.UNKNOWN, index.get(999, 68));
+    assertEquals(TagIndex.UNKNOWN, index.get(998, 69));
+    assertEquals(TagIndex.UNKNOWN, index.get(5000, 1));
+
+    index.clear();
+    assertEquals(TagIndex.UNKNOWN, index.get(5, 3));
+  }
+
+  @Test
+  public void reuse() {
+    TagIndex index = new TagIndex(100, 10, false);
+    assertTrue(index.set(50, 2, true));
+    index.reset(1000, false);
+    assertEquals(TagIndex.UNKNOWN, index.get(50, 2));
+    assertTrue(index.set(999, 2, false));
+    assertEquals(TagIndex.INCOMPATIBLE, index.get(999, 2));
+    index.reset(10, true);
+    assertEquals(TagIndex.UNKNOWN, index.get(999, 2));
+    assertTrue(index.set(5, 2, true));
+    assertEquals(TagIndex.COMPATIBLE, index.get(5, 2));
+  }
+
+  @Test
+  public void releaseShrinks() {
+    int positions = TagIndex.PAGE_POSITIONS * 4096;
+    TagIndex index = new TagIndex(positions, 10, false);
+    for (int position = 0; position < positions; position += TagIndex.PAGE_POSITIONS) {
+      assertTrue(index.set(position, 2, true));
+    }
+    index.release();
+    assertEquals(TagIndex.MAX_SPARE_PAGES, index.sparePages());
+    assertTrue(index.pageSlots() < 4096);
+    assertEquals(TagIndex.UNKNOWN, index.get(0, 2));
+
+    index.reset(positions, false);
+    assertTrue(index.set(positions - 1, 2, false));
+    assertEquals(TagIndex.INCOMPATIBLE, index.get(positions - 1, 2));
+  }
+}